@@ -0,0 +1,108 @@
+package io.github.nbauma109.refactoring.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class BatchSizerTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final CleanupLog log = new CleanupLog(LogLevel.QUIET, null);
+
+    @Test
+    void keepsTheFixedSize() {
+        BatchSizer sizer = new BatchSizer(false, 20, 0, new CleanupMetrics(), log);
+        sizer.batchFinished("a", 20, 1_000 * MILLI);
+        assertEquals(20, sizer.size("a"));
+        assertEquals(20, sizer.size("b"));
+    }
+
+    @Test
+    void growsWhileTheThroughputImproves() {
+        BatchSizer sizer = adaptive();
+        // each unit costs 10 ms, plus 100 ms per batch
+        for (int batch = 0; batch < 2 * 6; batch++) {
+            int size = sizer.size("a");
+            sizer.batchFinished("a", size, (100 + 10L * size) * MILLI);
+        }
+        assertEquals(BatchSizer.MAX_SIZE, sizer.size("a"));
+    }
+
+    @Test
+    void settlesWhenTheThroughputStopsImproving() {
+        BatchSizer sizer = adaptive();
+        // each unit costs 10 ms whatever the size, so doubling from the initial size brings nothing
+        for (int batch = 0; batch < 10; batch++) {
+            int size = sizer.size("a");
+            sizer.batchFinished("a", size, 10L * size * MILLI);
+        }
+        assertEquals(2 * BatchSizer.INITIAL_SIZE, sizer.size("a"));
+    }
+
+    @Test
+    void fallsBackWhenTheThroughputDrops() {
+        BatchSizer sizer = adaptive();
+        for (int batch = 0; batch < 10; batch++) {
+            int size = sizer.size("a");
+            long unitMillis = size > BatchSizer.INITIAL_SIZE ? 20 : 10;
+            sizer.batchFinished("a", size, unitMillis * size * MILLI);
+        }
+        assertEquals(BatchSizer.INITIAL_SIZE, sizer.size("a"));
+    }
+
+    @Test
+    void sizesEachCleanupSeparately() {
+        BatchSizer sizer = adaptive();
+        for (int batch = 0; batch < 10; batch++) {
+            int size = sizer.size("slow");
+            sizer.batchFinished("slow", size, (size > BatchSizer.INITIAL_SIZE ? 20L : 10L) * size * MILLI);
+        }
+        for (int batch = 0; batch < 2 * 6; batch++) {
+            int size = sizer.size("fast");
+            sizer.batchFinished("fast", size, (100 + 10L * size) * MILLI);
+        }
+        assertEquals(BatchSizer.INITIAL_SIZE, sizer.size("slow"));
+        assertEquals(BatchSizer.MAX_SIZE, sizer.size("fast"));
+        assertEquals(BatchSizer.INITIAL_SIZE, sizer.size("new"));
+    }
+
+    @Test
+    void ignoresPartialBatches() {
+        BatchSizer sizer = adaptive();
+        for (int batch = 0; batch < 10; batch++) {
+            sizer.batchFinished("a", BatchSizer.INITIAL_SIZE - 1, 20_000 * MILLI);
+        }
+        assertEquals(BatchSizer.INITIAL_SIZE, sizer.size("a"));
+    }
+
+    @Test
+    void shrinksAfterASlowBatch() {
+        BatchSizer sizer = adaptive();
+        sizer.batchFinished("a", BatchSizer.INITIAL_SIZE, 11_000 * MILLI);
+        assertEquals(BatchSizer.INITIAL_SIZE / 2, sizer.size("a"));
+
+        // shrinking stops the growth for good
+        for (int batch = 0; batch < 10; batch++) {
+            int size = sizer.size("a");
+            sizer.batchFinished("a", size, (100 + 10L * size) * MILLI);
+        }
+        assertEquals(BatchSizer.INITIAL_SIZE / 2, sizer.size("a"));
+    }
+
+    @Test
+    void shrinksWhenTheHeapRunsHigh() {
+        BatchSizer sizer = new BatchSizer(true, 0, Double.MIN_VALUE, new CleanupMetrics(), log);
+        // a collection makes sure that the heap used after the last one is known
+        System.gc();
+        sizer.batchFinished("a", BatchSizer.INITIAL_SIZE, MILLI);
+        assertEquals(BatchSizer.INITIAL_SIZE / 2, sizer.size("a"));
+    }
+
+    private BatchSizer adaptive() {
+        // a fraction of one never triggers the heap back-pressure
+        return new BatchSizer(true, 0, 1.0, new CleanupMetrics(), log);
+    }
+}
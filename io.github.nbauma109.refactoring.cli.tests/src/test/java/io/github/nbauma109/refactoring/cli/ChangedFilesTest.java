@@ -0,0 +1,91 @@
+package io.github.nbauma109.refactoring.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChangedFilesTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsTheListOfFiles() throws IOException {
+        Path root = Files.createDirectories(tempDir.resolve("root"));
+        Path list = tempDir.resolve("files.txt");
+        Files.writeString(list, "# changed files\n\nsrc/A.java\n  src/B.java  \n" + tempDir.resolve("C.java") + "\n",
+                StandardCharsets.UTF_8);
+
+        Set<Path> files = ChangedFiles.readList(list, root);
+
+        assertEquals(List.of(ChangedFiles.realPath(root.resolve("src/A.java")),
+                ChangedFiles.realPath(root.resolve("src/B.java")), ChangedFiles.realPath(tempDir.resolve("C.java"))),
+                new ArrayList<>(files));
+    }
+
+    @Test
+    void findsModifiedAndUntrackedFiles() throws Exception {
+        Path repository = Files.createDirectories(tempDir.resolve("repository"));
+        write(repository, ".gitignore", "*.log\n");
+        write(repository, "src/Modified.java", "class Modified {}\n");
+        write(repository, "src/Unchanged.java", "class Unchanged {}\n");
+        write(repository, "src/Deleted.java", "class Deleted {}\n");
+        git(repository, "init", "-q");
+        git(repository, "add", "-A");
+        git(repository, "-c", "user.name=test", "-c", "user.email=test@example.com", "commit", "-q", "-m", "initial");
+
+        write(repository, "src/Modified.java", "class Modified { int field; }\n");
+        write(repository, "src/Untracked.java", "class Untracked {}\n");
+        write(repository, "build.log", "ignored\n");
+        Files.delete(repository.resolve("src/Deleted.java"));
+
+        Set<Path> files = ChangedFiles.changedSince(repository.resolve("src"), "HEAD");
+
+        assertEquals(Set.of(ChangedFiles.realPath(repository.resolve("src/Modified.java")),
+                ChangedFiles.realPath(repository.resolve("src/Untracked.java"))), files);
+    }
+
+    @Test
+    void doesNotReadTheRevisionAsAnOption() throws Exception {
+        Path repository = Files.createDirectories(tempDir.resolve("repository"));
+        write(repository, "A.java", "class A {}\n");
+        git(repository, "init", "-q");
+        git(repository, "add", "-A");
+        git(repository, "-c", "user.name=test", "-c", "user.email=test@example.com", "commit", "-q", "-m", "initial");
+        Path output = tempDir.resolve("output.txt");
+
+        assertThrows(IOException.class, () -> ChangedFiles.changedSince(repository, "--output=" + output));
+        assertFalse(Files.exists(output));
+    }
+
+    @Test
+    void rejectsAnOptionAsChangedSince() {
+        CleanupOptions options = new CleanupOptions();
+        assertThrows(IllegalArgumentException.class, () -> options.setChangedSince("--output=changes.txt"));
+    }
+
+    private static void write(Path root, String file, String content) throws IOException {
+        Path path = root.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content, StandardCharsets.UTF_8);
+    }
+
+    private static void git(Path directory, String... args) throws Exception {
+        List<String> command = new ArrayList<>(List.of("git", "-C", directory.toString()));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, process.waitFor(), output);
+    }
+}
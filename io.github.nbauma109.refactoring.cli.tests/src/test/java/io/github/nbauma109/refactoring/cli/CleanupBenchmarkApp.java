@@ -0,0 +1,710 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.jdt.ui.cleanup.ICleanUp;
+import org.eclipse.equinox.app.IApplicationContext;
+
+/**
+ * Benchmarks the cleanup engines and the project setup. Every measured cleanup run works on a fresh copy of the
+ * project root, so runs never see each other's output, and the resulting trees are compared with the first run to
+ * check that all configurations produce identical files.
+ * <p>
+ * The {@code micro} and {@code end-to-end} scenarios track the performance of the tool itself between releases:
+ * they run on generated codebases only, need nothing but the platform the tool runs in, and can write their results
+ * as JMH compatible JSON.
+ */
+public class CleanupBenchmarkApp implements IApplication {
+
+    private static final int[] DEFAULT_THREAD_COUNTS = { 1, 2, 4, 8, 16 };
+    private static final int[] DEFAULT_SIZES = { 1_000, 10_000, 100_000 };
+    private static final int[] DEFAULT_SHARD_COUNTS = { 1, 2, 4 };
+    private static final int[] DEFAULT_FALLBACK_BATCHES = { 1, 10, 50, 200 };
+    private static final int[] NESTING_DEPTHS = { 16, 64, 256 };
+
+    private static final String REQUIRE_BUNDLE_HEADER = "org.eclipse.core.runtime;bundle-version=\"[3.29.0,4.0.0)\","
+            + "org.eclipse.core.resources;bundle-version=\"[3.19.0,4.0.0)\";visibility:=reexport,"
+            + "org.eclipse.jdt.core;bundle-version=\"3.35.0\",org.eclipse.jdt.ui,"
+            + "org.eclipse.jdt.core.manipulation;resolution:=optional,org.eclipse.ltk.core.refactoring,"
+            + "org.eclipse.text;bundle-version=\"[3.13.0,4.0.0)\",org.eclipse.jface,org.eclipse.equinox.app,"
+            + "org.eclipse.osgi;bundle-version=\"3.18.0\",org.eclipse.core.filesystem,org.eclipse.core.jobs,"
+            + "org.eclipse.equinox.common;bundle-version=\"[3.18.0,4.0.0)\",org.eclipse.equinox.preferences";
+
+    private final CleanupLog log = new CleanupLog(LogLevel.NORMAL, null);
+
+    @Override
+    public Object start(IApplicationContext context) throws Exception {
+        String[] args = (String[]) context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+        try {
+            return run(args);
+        } finally {
+            log.close();
+        }
+    }
+
+    private Integer run(String[] args) throws Exception {
+        if (args == null || args.length == 0) {
+            log.error("Missing arguments. Usage:");
+            log.error("  [--scenario scaling] --source <level> --profile <file> <projectRoot> [--classpath <entries>]");
+            log.error("      [--engine cleanup-major|unit-major|working-copy] [--threads-list 1,2,4,8,16] [--work-dir <dir>]");
+            log.error("  --scenario shards --source <level> --profile <file> <projectRoot> [--classpath <entries>]");
+            log.error("      [--engine cleanup-major|unit-major|working-copy] [--shards-list 1,2,4] [--work-dir <dir>]");
+            log.error("  --scenario fallback --source <level> [--files <n>] [--fallback-batches 1,10,50,200]");
+            log.error("      [--threads <n>] [--work-dir <dir>]");
+            log.error("  --scenario source-folders [--files <n>] [--iterations <n>] [--work-dir <dir>]");
+            log.error("  --scenario project-model [--modules <n>] [--files <n>] [--iterations <n>] [--work-dir <dir>]");
+            log.error("  --scenario micro [--files <n>] [--warmup <n>] [--iterations <n>]");
+            log.error("      [--json <file>] [--work-dir <dir>]");
+            log.error("  --scenario end-to-end --source <level> --profile <file> [--sizes 1000,10000,100000]");
+            log.error("      [--engine cleanup-major|unit-major|working-copy] [--threads <n>] [--warmup <n>] [--iterations <n>]");
+            log.error("      [--json <file>] [--work-dir <dir>]");
+            return Integer.valueOf(1);
+        }
+
+        String scenario = "scaling";
+        String sourceLevel = null;
+        String profilePath = null;
+        String projectRootPath = null;
+        String workDirPath = null;
+        List<String> extraClasspath = new ArrayList<>();
+        EngineMode engineMode = EngineMode.CLEANUP_MAJOR;
+        int[] threadCounts = DEFAULT_THREAD_COUNTS;
+        int[] shardCounts = DEFAULT_SHARD_COUNTS;
+        int[] fallbackBatches = DEFAULT_FALLBACK_BATCHES;
+        Integer files = null;
+        int modules = 200;
+        Integer iterations = null;
+        int warmup = -1;
+        int threads = 1;
+        int[] sizes = DEFAULT_SIZES;
+        Path jsonFile = null;
+
+        int i = 0;
+        while (i < args.length) {
+            String arg = args[i];
+            if ("--scenario".equals(arg) && i + 1 < args.length) {
+                scenario = args[++i];
+            } else if ("--source".equals(arg) && i + 1 < args.length) {
+                sourceLevel = args[++i];
+            } else if ("--profile".equals(arg) && i + 1 < args.length) {
+                profilePath = args[++i];
+            } else if ("--classpath".equals(arg) && i + 1 < args.length) {
+                String[] cpEntries = args[++i].split(System.getProperty("path.separator"));
+                for (String entry : cpEntries) {
+                    extraClasspath.add(entry);
+                }
+            } else if ("--engine".equals(arg) && i + 1 < args.length) {
+                engineMode = EngineMode.fromArgument(args[++i]);
+            } else if ("--threads-list".equals(arg) && i + 1 < args.length) {
+                threadCounts = parseIntList(args[++i]);
+            } else if ("--shards-list".equals(arg) && i + 1 < args.length) {
+                shardCounts = parseIntList(args[++i]);
+            } else if ("--fallback-batches".equals(arg) && i + 1 < args.length) {
+                fallbackBatches = parseIntList(args[++i]);
+            } else if ("--modules".equals(arg) && i + 1 < args.length) {
+                modules = Integer.parseInt(args[++i]);
+            } else if ("--files".equals(arg) && i + 1 < args.length) {
+                files = Integer.valueOf(args[++i]);
+            } else if ("--iterations".equals(arg) && i + 1 < args.length) {
+                iterations = Integer.valueOf(args[++i]);
+            } else if ("--warmup".equals(arg) && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if ("--threads".equals(arg) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--sizes".equals(arg) && i + 1 < args.length) {
+                sizes = parseIntList(args[++i]);
+            } else if ("--json".equals(arg) && i + 1 < args.length) {
+                jsonFile = Paths.get(args[++i]);
+            } else if ("--work-dir".equals(arg) && i + 1 < args.length) {
+                workDirPath = args[++i];
+            } else {
+                projectRootPath = arg;
+            }
+            i++;
+        }
+
+        Path workDir = workDirPath != null ? Paths.get(workDirPath) : Files.createTempDirectory("refactoring-cli-bench");
+
+        if ("source-folders".equals(scenario)) {
+            return Integer.valueOf(runSourceFolderBenchmark(files != null ? files.intValue() : 50_000,
+                    iterations != null ? iterations.intValue() : 5, workDir) ? 0 : 2);
+        }
+
+        if ("project-model".equals(scenario)) {
+            return Integer.valueOf(runProjectModelBenchmark(modules, files != null ? files.intValue() : 20_000,
+                    iterations != null ? iterations.intValue() : 5, workDir) ? 0 : 2);
+        }
+
+        if ("micro".equals(scenario)) {
+            Microbenchmark harness = new Microbenchmark(log, warmup >= 0 ? warmup : 3,
+                    iterations != null ? iterations.intValue() : 5, TimeUnit.SECONDS.toNanos(1));
+            runMicroBenchmarks(harness, files != null ? files.intValue() : 10_000, workDir);
+            if (jsonFile != null) {
+                harness.writeJson(jsonFile);
+            }
+            return Integer.valueOf(0);
+        }
+
+        if ("end-to-end".equals(scenario)) {
+            if (sourceLevel == null || profilePath == null) {
+                log.error("Missing required parameters.");
+                return Integer.valueOf(1);
+            }
+            CleanupOptions options = new CleanupOptions();
+            options.setEngineMode(engineMode);
+            options.setThreads(threads);
+            Microbenchmark harness = new Microbenchmark(log, warmup >= 0 ? warmup : 0,
+                    iterations != null ? iterations.intValue() : 1, 0L);
+            runEndToEndBenchmarks(harness, sizes, Paths.get(profilePath), sourceLevel, extraClasspath, options,
+                    workDir);
+            if (jsonFile != null) {
+                harness.writeJson(jsonFile);
+            }
+            return Integer.valueOf(0);
+        }
+
+        if ("fallback".equals(scenario)) {
+            if (sourceLevel == null) {
+                log.error("Missing required parameters.");
+                return Integer.valueOf(1);
+            }
+            return Integer.valueOf(runFallbackBenchmark(files != null ? files.intValue() : 10_000, sourceLevel,
+                    fallbackBatches, threads, workDir) ? 0 : 2);
+        }
+
+        if ("shards".equals(scenario)) {
+            if (sourceLevel == null || profilePath == null || projectRootPath == null) {
+                log.error("Missing required parameters.");
+                return Integer.valueOf(1);
+            }
+            return Integer.valueOf(runShardBenchmark(Paths.get(projectRootPath), Paths.get(profilePath), sourceLevel,
+                    extraClasspath, engineMode, shardCounts, workDir) ? 0 : 2);
+        }
+
+        if (!"scaling".equals(scenario)) {
+            log.error("Unknown scenario: " + scenario);
+            return Integer.valueOf(1);
+        }
+
+        if (sourceLevel == null || profilePath == null || projectRootPath == null) {
+            log.error("Missing required parameters.");
+            return Integer.valueOf(1);
+        }
+
+        Path projectRoot = Paths.get(projectRootPath);
+        Path profileFile = Paths.get(profilePath);
+
+        return Integer.valueOf(runScalingBenchmark(projectRoot, profileFile, sourceLevel, extraClasspath, engineMode,
+                threadCounts, workDir) ? 0 : 2);
+    }
+
+    /**
+     * Compares source folder detection with the package declaration sniffer against reading every package
+     * declaration with the parser, on a generated tree of {@code files} units.
+     */
+    private boolean runSourceFolderBenchmark(int files, int iterations, Path workDir) throws IOException {
+        Path tree = workDir.resolve("source-folders-" + files);
+        if (!Files.isDirectory(tree)) {
+            log.info("Generating " + files + " compilation units in " + tree + "...");
+            SyntheticCodebase.generate(tree, files);
+        }
+
+        Set<Path> reference = null;
+        boolean identical = true;
+        List<String> report = new ArrayList<>();
+
+        for (boolean parserOnly : new boolean[] { true, false }) {
+            long best = Long.MAX_VALUE;
+            long total = 0;
+            ProjectScanner.ProjectScan scan = null;
+
+            // the first pass warms up the file system cache and the JIT and is not measured
+            for (int iteration = 0; iteration <= iterations; iteration++) {
+                ProjectScanner scanner = new ProjectScanner(tree, true, List.of(), 1);
+                scanner.setParserOnly(parserOnly);
+                long start = System.nanoTime();
+                scan = scanner.scan();
+                long elapsed = System.nanoTime() - start;
+                if (iteration > 0) {
+                    best = Math.min(best, elapsed);
+                    total = total + elapsed;
+                }
+            }
+
+            if (reference == null) {
+                reference = scan.sourceFolders();
+            } else {
+                identical = identical && reference.equals(scan.sourceFolders());
+            }
+
+            report.add(String.format(Locale.ROOT, "%-10s %12d %12d %10d", parserOnly ? "parser" : "sniffer",
+                    TimeUnit.NANOSECONDS.toMillis(best), TimeUnit.NANOSECONDS.toMillis(total / Math.max(1, iterations)),
+                    scan.sourceFolders().size()));
+        }
+
+        log.always("=== Source folder detection (" + files + " files, " + iterations + " iterations) ===");
+        log.always(String.format(Locale.ROOT, "%-10s %12s %12s %10s", "reader", "best (ms)", "mean (ms)", "folders"));
+        for (String line : report) {
+            log.always(line);
+        }
+
+        if (!identical) {
+            log.error("The sniffer detected different source folders than the parser.");
+        }
+        return identical;
+    }
+
+    /**
+     * Compares the setup time of detecting the source folders of a generated Maven reactor by walking the tree with
+     * reading them from the poms, and checks that both find the same folders.
+     */
+    private boolean runProjectModelBenchmark(int modules, int files, int iterations, Path workDir) throws IOException {
+        Path tree = workDir.resolve("reactor-" + modules + "-" + files);
+        if (!Files.isDirectory(tree)) {
+            log.info("Generating a reactor of " + modules + " modules with " + files + " compilation units in "
+                    + tree + "...");
+            SyntheticCodebase.generateReactor(tree, modules, files);
+        }
+
+        CleanupLog quiet = new CleanupLog(LogLevel.QUIET, null);
+        Set<Path> reference = null;
+        boolean identical = true;
+        List<String> report = new ArrayList<>();
+
+        for (ProjectModel model : ProjectModel.values()) {
+            long best = Long.MAX_VALUE;
+            long total = 0;
+            ProjectScanner.ProjectScan scan = null;
+
+            // the first pass warms up the file system cache and the JIT and is not measured
+            for (int iteration = 0; iteration <= iterations; iteration++) {
+                ProjectScanner scanner = new ProjectScanner(tree, true, List.of(), 1);
+                long start = System.nanoTime();
+                scan = model == ProjectModel.SCAN ? scanner.scan()
+                        : new BuildModelReader(tree, scanner, BuildModelReader.defaultMavenRepository(),
+                                BuildModelReader.defaultGradleCache(), quiet).read();
+                long elapsed = System.nanoTime() - start;
+                if (iteration > 0) {
+                    best = Math.min(best, elapsed);
+                    total = total + elapsed;
+                }
+            }
+
+            if (reference == null) {
+                reference = scan.sourceFolders();
+            } else {
+                identical = identical && reference.equals(scan.sourceFolders());
+            }
+
+            report.add(String.format(Locale.ROOT, "%-12s %12d %12d %10d", model.getArgument(),
+                    TimeUnit.NANOSECONDS.toMillis(best), TimeUnit.NANOSECONDS.toMillis(total / Math.max(1, iterations)),
+                    scan.sourceFolders().size()));
+        }
+        quiet.close();
+
+        log.always("=== Project model (" + modules + " modules, " + files + " files, " + iterations
+                + " iterations) ===");
+        log.always(String.format(Locale.ROOT, "%-12s %12s %12s %10s", "model", "best (ms)", "mean (ms)", "folders"));
+        for (String line : report) {
+            log.always(line);
+        }
+
+        if (!identical) {
+            log.error("The build files named different source folders than the scan found.");
+        }
+        return identical;
+    }
+
+    /**
+     * Measures the hot paths of the runner that can be called in isolation: the project scan, package declaration
+     * reading, manifest header splitting and the instanceof fallback.
+     */
+    private void runMicroBenchmarks(Microbenchmark harness, int files, Path workDir) throws Exception {
+        Path tree = workDir.resolve("synthetic-" + files);
+        if (!Files.isDirectory(tree)) {
+            log.info("Generating " + files + " compilation units in " + tree + "...");
+            SyntheticCodebase.generate(tree, files);
+        }
+
+        Path unitFile = tree.resolve("module-0/src/main/java/com/example/m0/p0/Unit0.java");
+
+        log.always("=== Micro benchmarks ===");
+
+        harness.averageTime("ProjectScanner.scan", Microbenchmark.params("files", String.valueOf(files)),
+                () -> new ProjectScanner(tree, true, List.of(), 1).scan());
+
+        for (boolean parserOnly : new boolean[] { false, true }) {
+            ProjectScanner scanner = new ProjectScanner(tree, true, List.of(), 1);
+            scanner.setParserOnly(parserOnly);
+            harness.averageTime("ProjectScanner.readPackageName",
+                    Microbenchmark.params("reader", parserOnly ? "parser" : "sniffer"),
+                    () -> scanner.readPackageName(unitFile));
+        }
+
+        harness.averageTime("ProjectScanner.splitManifestHeaderClauses", Microbenchmark.params(),
+                () -> ProjectScanner.splitManifestHeaderClauses(REQUIRE_BUNDLE_HEADER));
+
+        // the fallback runs alone in a dry run on a tree of one unit, so that every call sees the same casts, and
+        // must grow linearly with the nesting of the instanceof statements
+        Path profileFile = workDir.resolve("fallback-profile.xml");
+        SyntheticCodebase.writeProfile(profileFile, Map.of("cleanup.instanceof", "true"));
+        CleanupOptions options = new CleanupOptions();
+        options.setDryRun(true);
+        options.setLogLevel(LogLevel.QUIET);
+        Path flat = writeUnit(workDir.resolve("fallback-flat"), "com.example",
+                SyntheticCodebase.unitSource("com.example", "Unit0"));
+        harness.averageTime("CleanupRunner.run", Microbenchmark.params("cleanup", "instanceof-fallback", "depth", "1"),
+                () -> fallbackRunner(flat, profileFile, "21", options).run());
+        for (int depth : NESTING_DEPTHS) {
+            Path nested = writeUnit(workDir.resolve("fallback-nested-" + depth), "",
+                    SyntheticCodebase.nestedInstanceofSource("Unit0", depth));
+            harness.averageTime("CleanupRunner.run",
+                    Microbenchmark.params("cleanup", "instanceof-fallback", "depth", String.valueOf(depth)),
+                    () -> fallbackRunner(nested, profileFile, "21", options).run());
+        }
+    }
+
+    private Path writeUnit(Path root, String packageName, String source) throws IOException {
+        Path packageDir = packageName.isEmpty() ? root : root.resolve(packageName.replace('.', '/'));
+        Files.createDirectories(packageDir);
+        Files.writeString(packageDir.resolve("Unit0.java"), source, StandardCharsets.UTF_8);
+        return root;
+    }
+
+    /**
+     * @return a runner with the cleanups of the profile disabled, so that the fallback sees the casts of every unit
+     */
+    static CleanupRunner fallbackRunner(Path root, Path profileFile, String sourceLevel, CleanupOptions options) {
+        return new CleanupRunner(root, profileFile, sourceLevel, List.of(), options) {
+            @Override
+            List<ICleanUp> createEnabledCleanUps(Map<String, String> cleanupSettings) {
+                return List.of();
+            }
+        };
+    }
+
+    /**
+     * Runs the whole cleanup on generated codebases of each size, on a fresh copy for every iteration. Copying is
+     * not measured.
+     */
+    private void runEndToEndBenchmarks(Microbenchmark harness, int[] sizes, Path profileFile, String sourceLevel,
+            List<String> extraClasspath, CleanupOptions options, Path workDir) throws Exception {
+        for (int size : sizes) {
+            Path tree = workDir.resolve("synthetic-" + size);
+            if (!Files.isDirectory(tree)) {
+                log.info("Generating " + size + " compilation units in " + tree + "...");
+                SyntheticCodebase.generate(tree, size);
+            }
+            Path copy = workDir.resolve("end-to-end-" + size);
+
+            Microbenchmark.Result result = harness.singleShot("CleanupRunner.run",
+                    Microbenchmark.params("units", String.valueOf(size), "engine", options.getEngineMode().getArgument(),
+                            "threads", String.valueOf(options.getThreads())),
+                    () -> {
+                        deleteTree(copy);
+                        copyTree(tree, copy);
+                        return copy;
+                    },
+                    () -> new CleanupRunner(copy, profileFile, sourceLevel, extraClasspath, options).run());
+            deleteTree(copy);
+
+            log.always(String.format(Locale.ROOT, "%d units: %.3f ms per run, %.3f ms per unit", size, result.score(),
+                    result.score() / size));
+        }
+    }
+
+    private boolean runScalingBenchmark(Path projectRoot, Path profileFile, String sourceLevel,
+            List<String> extraClasspath, EngineMode engineMode, int[] threadCounts, Path workDir) throws Exception {
+
+        List<String> report = new ArrayList<>();
+        Map<String, String> reference = null;
+        long referenceMillis = 0;
+        boolean identical = true;
+
+        for (int threads : threadCounts) {
+            Path copy = workDir.resolve("threads-" + threads);
+            deleteTree(copy);
+            copyTree(projectRoot, copy);
+
+            CleanupOptions options = new CleanupOptions();
+            options.setEngineMode(engineMode);
+            options.setThreads(threads);
+
+            long start = System.nanoTime();
+            new CleanupRunner(copy, profileFile, sourceLevel, extraClasspath, options).run();
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            Map<String, String> result = fingerprint(copy);
+            boolean same = true;
+            if (reference == null) {
+                reference = result;
+                referenceMillis = elapsedMillis;
+            } else {
+                same = reference.equals(result);
+                identical = identical && same;
+            }
+
+            double speedup = elapsedMillis == 0 ? 0.0 : (double) referenceMillis / (double) elapsedMillis;
+            report.add(String.format(Locale.ROOT, "%8d %12d %8.2f %10s", threads, elapsedMillis, speedup,
+                    same ? "yes" : "NO"));
+            deleteTree(copy);
+        }
+
+        log.always("=== Scaling benchmark (" + engineMode.getArgument() + ") ===");
+        log.always(String.format(Locale.ROOT, "%8s %12s %8s %10s", "threads", "time (ms)", "speedup", "identical"));
+        for (String line : report) {
+            log.always(line);
+        }
+
+        if (!identical) {
+            log.error("Parallel runs produced output that differs from the first run.");
+        }
+        return identical;
+    }
+
+    /**
+     * Runs the cleanup on a fresh copy of the codebase with each shard count, one meaning a single process, and
+     * checks that every sharded run produces the same files as the first run. The digest of the cleaned tree of
+     * every run is printed so that runs can be compared across machines. Shards are started with the launcher of
+     * this instance, so the benchmark must be started with the Eclipse launcher.
+     */
+    private boolean runShardBenchmark(Path projectRoot, Path profileFile, String sourceLevel,
+            List<String> extraClasspath, EngineMode engineMode, int[] shardCounts, Path workDir) throws Exception {
+
+        List<String> report = new ArrayList<>();
+        Map<String, String> reference = null;
+        long referenceMillis = 0;
+        boolean identical = true;
+        Path currentDirectory = Paths.get("").toAbsolutePath();
+
+        for (int shards : shardCounts) {
+            Path copy = workDir.resolve("shards-" + shards);
+            Path shardWorkDir = workDir.resolve("shards-" + shards + "-work");
+            deleteTree(copy);
+            copyTree(projectRoot, copy);
+
+            List<String> args = new ArrayList<>(List.of("--source", sourceLevel, "--profile", profileFile.toString(),
+                    "--engine", engineMode.getArgument(), "--shards", String.valueOf(shards), "--shard-work-dir",
+                    shardWorkDir.toString()));
+            if (!extraClasspath.isEmpty()) {
+                args.add("--classpath");
+                args.add(String.join(System.getProperty("path.separator"), extraClasspath));
+            }
+            args.add(copy.toString());
+
+            long start = System.nanoTime();
+            int exitCode = HeadlessCleanupApp.runCleanup(args, currentDirectory, new CleanupOptions());
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            Map<String, String> result = fingerprint(copy);
+            boolean same = exitCode == 0;
+            if (reference == null) {
+                reference = result;
+                referenceMillis = elapsedMillis;
+            } else {
+                same = same && reference.equals(result);
+            }
+            identical = identical && same;
+
+            double speedup = elapsedMillis == 0 ? 0.0 : (double) referenceMillis / (double) elapsedMillis;
+            report.add(String.format(Locale.ROOT, "%8d %12d %8.2f %10s %14s", shards, elapsedMillis, speedup,
+                    same ? "yes" : "NO", treeDigest(result)));
+            deleteTree(copy);
+            deleteTree(shardWorkDir);
+        }
+
+        log.always("=== Shard benchmark (" + engineMode.getArgument() + ") ===");
+        log.always(String.format(Locale.ROOT, "%8s %12s %8s %10s %14s", "shards", "time (ms)", "speedup", "identical",
+                "tree"));
+        for (String line : report) {
+            log.always(line);
+        }
+
+        if (!identical) {
+            log.error("Sharded runs failed or produced output that differs from the first run.");
+        }
+        return identical;
+    }
+
+    /**
+     * Runs the instanceof fallback alone on a generated codebase of {@code files} units with each fallback batch
+     * size, one meaning a parser per unit, and checks that every run produces the same files as the first run.
+     */
+    private boolean runFallbackBenchmark(int files, String sourceLevel, int[] fallbackBatches, int threads,
+            Path workDir) throws Exception {
+        Path tree = workDir.resolve("synthetic-" + files);
+        if (!Files.isDirectory(tree)) {
+            log.info("Generating " + files + " compilation units in " + tree + "...");
+            SyntheticCodebase.generate(tree, files);
+        }
+        Path profileFile = workDir.resolve("fallback-profile.xml");
+        SyntheticCodebase.writeProfile(profileFile, Map.of("cleanup.instanceof", "true"));
+
+        List<String> report = new ArrayList<>();
+        Map<String, String> reference = null;
+        long referenceNanos = 0;
+        boolean identical = true;
+
+        for (int batch : fallbackBatches) {
+            Path copy = workDir.resolve("fallback-" + batch);
+            deleteTree(copy);
+            copyTree(tree, copy);
+
+            CleanupOptions options = new CleanupOptions();
+            options.setFallbackBatch(batch);
+            options.setThreads(threads);
+            options.setLogLevel(LogLevel.QUIET);
+
+            CleanupRunner runner = fallbackRunner(copy, profileFile, sourceLevel, options);
+            long start = System.nanoTime();
+            List<Path> changed = runner.run();
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long fallbackNanos = runner.getMetrics().phaseNanos(CleanupMetrics.Phase.FALLBACK);
+
+            Map<String, String> result = fingerprint(copy);
+            boolean same = true;
+            if (reference == null) {
+                reference = result;
+                referenceNanos = fallbackNanos;
+            } else {
+                same = reference.equals(result);
+                identical = identical && same;
+            }
+
+            double speedup = fallbackNanos == 0 ? 0.0 : (double) referenceNanos / (double) fallbackNanos;
+            report.add(String.format(Locale.ROOT, "%8d %14d %12d %8.2f %8d %10s", batch,
+                    TimeUnit.NANOSECONDS.toMillis(fallbackNanos), elapsedMillis, speedup, changed.size(),
+                    same ? "yes" : "NO"));
+            deleteTree(copy);
+        }
+
+        log.always("=== Instanceof fallback benchmark (" + files + " units, " + threads + " threads) ===");
+        log.always(String.format(Locale.ROOT, "%8s %14s %12s %8s %8s %10s", "batch", "fallback (ms)", "run (ms)",
+                "speedup", "changed", "identical"));
+        for (String line : report) {
+            log.always(line);
+        }
+
+        if (!identical) {
+            log.error("Batched fallback runs produced output that differs from the first run.");
+        }
+        return identical;
+    }
+
+    private int[] parseIntList(String value) {
+        String[] parts = value.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i].trim());
+        }
+        return result;
+    }
+
+    private void copyTree(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file).toString()), StandardCopyOption.REPLACE_EXISTING);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return the SHA-256 of every file under {@code root}, by path relative to it
+     */
+    static Map<String, String> fingerprint(Path root) throws IOException {
+        Map<String, String> result = new TreeMap<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                result.put(root.relativize(file).toString(), sha256(file));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return the first 12 hex digits of the SHA-256 of the relative paths and file digests of a fingerprint
+     */
+    static String treeDigest(Map<String, String> fingerprint) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Map.Entry<String, String> entry : fingerprint.entrySet()) {
+                digest.update((entry.getKey().replace('\\', '/') + '\0' + entry.getValue() + '\n')
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest()).substring(0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        // no-op
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.nbauma109.refactoring.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CleanupRunnerTest {
+
+    private static final int UNITS = 3 * SyntheticCodebase.UNITS_PER_PACKAGE;
+
+    // cleanups whose edits in the generated units neither overlap nor depend on each other
+    private static final Map<String, String> PROFILE = Map.of("cleanup.instanceof", "true",
+            "cleanup.use_this_for_non_static_field_access", "true",
+            "cleanup.always_use_this_for_non_static_field_access", "true");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void unitMajorCleansLikeCleanupMajor() throws Exception {
+        CleanupOptions unitMajor = options();
+        unitMajor.setEngineMode(EngineMode.UNIT_MAJOR);
+        assertCleansLikeTheDefaults(unitMajor);
+    }
+
+    @Test
+    void threadsCleanLikeASingleThread() throws Exception {
+        CleanupOptions threads = options();
+        threads.setThreads(4);
+        assertCleansLikeTheDefaults(threads);
+    }
+
+    @Test
+    void threadsCleanLikeASingleThreadWithSeveralUnitsPerRefactoring() throws Exception {
+        CleanupOptions threads = options();
+        threads.setThreads(4);
+        threads.setUnitsPerRefactoring(3);
+        assertCleansLikeTheDefaults(threads);
+    }
+
+    @Test
+    void fallbackBatchesCleanLikeOneUnitAtATime() throws Exception {
+        Path profile = tempDir.resolve("fallback-profile.xml");
+        SyntheticCodebase.writeProfile(profile, Map.of("cleanup.instanceof", "true"));
+        Map<String, String> original = CleanupBenchmarkApp.fingerprint(generate("original"));
+
+        Map<String, String> expected = cleanWithFallback(generate("batch-1"), profile, 1, 1);
+
+        assertNotEquals(original, expected, "the fallback changed nothing");
+        assertEquals(expected, cleanWithFallback(generate("batch-7"), profile, 7, 1));
+        assertEquals(expected, cleanWithFallback(generate("batch-50"), profile, 50, 1));
+        assertEquals(expected, cleanWithFallback(generate("batch-7-threads-4"), profile, 7, 4));
+    }
+
+    private void assertCleansLikeTheDefaults(CleanupOptions options) throws Exception {
+        Path profile = tempDir.resolve("profile.xml");
+        SyntheticCodebase.writeProfile(profile, PROFILE);
+        Map<String, String> original = CleanupBenchmarkApp.fingerprint(generate("original"));
+
+        Map<String, String> expected = clean(generate("expected"), profile, options());
+        Map<String, String> actual = clean(generate("actual"), profile, options);
+
+        assertNotEquals(original, expected, "the profile changed nothing");
+        assertEquals(expected, actual);
+    }
+
+    private Path generate(String name) throws IOException {
+        Path tree = tempDir.resolve(name);
+        SyntheticCodebase.generate(tree, UNITS);
+        return tree;
+    }
+
+    private static Map<String, String> clean(Path tree, Path profile, CleanupOptions options) throws Exception {
+        new CleanupRunner(tree, profile, "21", List.of(), options).run();
+        return CleanupBenchmarkApp.fingerprint(tree);
+    }
+
+    private static Map<String, String> cleanWithFallback(Path tree, Path profile, int batch, int threads)
+            throws Exception {
+        CleanupOptions options = options();
+        options.setFallbackBatch(batch);
+        options.setThreads(threads);
+        CleanupBenchmarkApp.fallbackRunner(tree, profile, "21", options).run();
+        return CleanupBenchmarkApp.fingerprint(tree);
+    }
+
+    private static CleanupOptions options() {
+        CleanupOptions options = new CleanupOptions();
+        options.setLogLevel(LogLevel.QUIET);
+        return options;
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.nbauma109.refactoring.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class DaemonProtocolTest {
+
+    @Test
+    void readsTheRequestItWrites() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Path workingDirectory = Path.of("/work/project").toAbsolutePath();
+        List<String> args = List.of("--profile", "profile.xml", "", "caf\u00e9", "x".repeat(70_000));
+        DaemonProtocol.writeRequest(new DataOutputStream(bytes), "secret", DaemonProtocol.CLEANUP, workingDirectory,
+                args);
+
+        DataInputStream in = input(bytes.toByteArray());
+        assertEquals("secret", DaemonProtocol.readToken(in));
+        DaemonProtocol.Request request = DaemonProtocol.readRequest(in);
+
+        assertEquals(DaemonProtocol.CLEANUP, request.command());
+        assertEquals(workingDirectory, request.workingDirectory());
+        assertEquals(args, request.args());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void writesTheExitFrame() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DaemonProtocol.writeExit(new DataOutputStream(bytes), 2, 7, 123_456_789L);
+
+        DataInputStream in = input(bytes.toByteArray());
+        assertEquals(DaemonProtocol.EXIT, in.readByte());
+        assertEquals(2, in.readInt());
+        assertEquals(7, in.readInt());
+        assertEquals(123_456_789L, in.readLong());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void rejectsAnotherVersion() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(DaemonProtocol.VERSION + 1);
+        writeString(out, "secret");
+
+        assertThrows(IOException.class, () -> DaemonProtocol.readToken(input(bytes.toByteArray())));
+    }
+
+    @Test
+    void boundsTheTokenBeforeReadingIt() throws IOException {
+        assertEquals("x".repeat(DaemonProtocol.MAX_TOKEN_BYTES),
+                DaemonProtocol.readToken(input(token("x".repeat(DaemonProtocol.MAX_TOKEN_BYTES)))));
+        assertThrows(IOException.class,
+                () -> DaemonProtocol.readToken(input(token("x".repeat(DaemonProtocol.MAX_TOKEN_BYTES + 1)))));
+
+        // a huge length must fail without waiting for, or allocating, the bytes it announces
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(DaemonProtocol.VERSION);
+        out.writeInt(Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> DaemonProtocol.readToken(input(bytes.toByteArray())));
+    }
+
+    @Test
+    void rejectsInvalidArgumentCounts() throws IOException {
+        assertThrows(IOException.class, () -> DaemonProtocol.readRequest(input(request("/work", -1))));
+        assertThrows(IOException.class,
+                () -> DaemonProtocol.readRequest(input(request("/work", DaemonProtocol.MAX_ARGS + 1))));
+    }
+
+    @Test
+    void rejectsNegativeStringLengths() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt(-1);
+
+        assertThrows(IOException.class, () -> DaemonProtocol.readRequest(input(bytes.toByteArray())));
+    }
+
+    @Test
+    void rejectsAnInvalidWorkingDirectory() {
+        IOException e = assertThrows(IOException.class,
+                () -> DaemonProtocol.readRequest(input(request("/work\0/project", 0))));
+        assertTrue(e.getMessage().startsWith("Invalid working directory"), e.getMessage());
+    }
+
+    @Test
+    void comparesTokens() {
+        assertTrue(DaemonProtocol.isValidToken("secret", "secret"));
+        assertFalse(DaemonProtocol.isValidToken("secret", "secreT"));
+        assertFalse(DaemonProtocol.isValidToken("secret", "secret2"));
+        assertFalse(DaemonProtocol.isValidToken("secret", ""));
+    }
+
+    private static byte[] token(String token) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(DaemonProtocol.VERSION);
+        writeString(out, token);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] request(String workingDirectory, int argCount) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, DaemonProtocol.CLEANUP);
+        writeString(out, workingDirectory);
+        out.writeInt(argCount);
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
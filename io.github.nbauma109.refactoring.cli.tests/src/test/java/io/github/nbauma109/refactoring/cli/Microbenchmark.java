@@ -0,0 +1,186 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * A small benchmark harness in the spirit of JMH, for code that has to run inside the Eclipse platform. Each
+ * benchmark runs warmup iterations that are discarded, then measurement iterations. In average time mode an
+ * iteration calls the operation in a loop for a fixed time and records the mean time per call; in single shot mode
+ * an iteration calls it once, after an unmeasured setup.
+ * <p>
+ * Results are written in the JSON layout of JMH ({@code -rf json}), so the usual tools for comparing JMH runs can
+ * be used to diff releases. The score error is the half-width of the 99.9% confidence interval, as in JMH.
+ */
+final class Microbenchmark {
+
+    static final String AVERAGE_TIME = "avgt";
+    static final String SINGLE_SHOT = "ss";
+
+    // Student's t quantiles at 0.9995 for 1 to 10 degrees of freedom, the normal quantile is used beyond
+    private static final double[] T_QUANTILES = { 636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781,
+            4.587 };
+    private static final double NORMAL_QUANTILE = 3.291;
+
+    // results are stored here so that the JIT cannot drop the measured calls as dead code
+    private static volatile Object sink;
+
+    private final CleanupLog log;
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final List<Result> results = new ArrayList<>();
+
+    Microbenchmark(CleanupLog log, int warmupIterations, int measurementIterations, long iterationNanos) {
+        this.log = log;
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = iterationNanos;
+    }
+
+    Result averageTime(String benchmark, Map<String, String> params, Callable<?> operation) throws Exception {
+        for (int iteration = 0; iteration < warmupIterations; iteration++) {
+            timedIteration(operation);
+        }
+        double[] raw = new double[measurementIterations];
+        for (int iteration = 0; iteration < measurementIterations; iteration++) {
+            raw[iteration] = timedIteration(operation);
+        }
+        return add(new Result(benchmark, AVERAGE_TIME, params, warmupIterations, raw));
+    }
+
+    Result singleShot(String benchmark, Map<String, String> params, Callable<?> setup, Callable<?> operation)
+            throws Exception {
+        for (int iteration = 0; iteration < warmupIterations; iteration++) {
+            setup.call();
+            sink = operation.call();
+        }
+        double[] raw = new double[measurementIterations];
+        for (int iteration = 0; iteration < measurementIterations; iteration++) {
+            setup.call();
+            long start = System.nanoTime();
+            sink = operation.call();
+            raw[iteration] = System.nanoTime() - start;
+        }
+        return add(new Result(benchmark, SINGLE_SHOT, params, warmupIterations, raw));
+    }
+
+    private double timedIteration(Callable<?> operation) throws Exception {
+        long calls = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink = operation.call();
+            calls = calls + 1;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        return (double) elapsed / calls;
+    }
+
+    private Result add(Result result) {
+        results.add(result);
+        log.always(String.format(Locale.ROOT, "%-55s %-30s %14.3f +- %12.3f %s", result.benchmark(),
+                result.params(), result.score(), result.scoreError(), result.unit()));
+        return result;
+    }
+
+    void writeJson(Path file) throws IOException {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int index = 0; index < results.size(); index++) {
+            Result result = results.get(index);
+            json.append("    {\n");
+            json.append("        \"benchmark\" : ").append(Json.quote(result.benchmark())).append(",\n");
+            json.append("        \"mode\" : ").append(Json.quote(result.mode())).append(",\n");
+            json.append("        \"threads\" : 1,\n");
+            json.append("        \"forks\" : 0,\n");
+            json.append("        \"jvm\" : ").append(Json.quote(System.getProperty("java.home"))).append(",\n");
+            json.append("        \"jdkVersion\" : ").append(Json.quote(System.getProperty("java.version"))).append(",\n");
+            json.append("        \"warmupIterations\" : ").append(result.warmupIterations()).append(",\n");
+            json.append("        \"measurementIterations\" : ").append(result.raw().length).append(",\n");
+            json.append("        \"params\" : {");
+            String separator = "\n";
+            for (Map.Entry<String, String> param : result.params().entrySet()) {
+                json.append(separator).append("            ").append(Json.quote(param.getKey())).append(" : ")
+                        .append(Json.quote(param.getValue()));
+                separator = ",\n";
+            }
+            json.append(result.params().isEmpty() ? "},\n" : "\n        },\n");
+            json.append("        \"primaryMetric\" : {\n");
+            json.append("            \"score\" : ").append(Json.number(result.score())).append(",\n");
+            json.append("            \"scoreError\" : ").append(Json.number(result.scoreError())).append(",\n");
+            json.append("            \"scoreUnit\" : ").append(Json.quote(result.unit())).append(",\n");
+            json.append("            \"rawData\" : [\n                [\n");
+            double[] raw = result.raw();
+            for (int iteration = 0; iteration < raw.length; iteration++) {
+                json.append("                    ").append(Json.number(result.convert(raw[iteration])))
+                        .append(iteration + 1 < raw.length ? ",\n" : "\n");
+            }
+            json.append("                ]\n            ]\n        }\n");
+            json.append(index + 1 < results.size() ? "    },\n" : "    }\n");
+        }
+        json.append("]\n");
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(file, json, StandardCharsets.UTF_8);
+        log.info("Wrote " + results.size() + " results to " + file);
+    }
+
+    static Map<String, String> params(String... keysAndValues) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < keysAndValues.length; i += 2) {
+            params.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return params;
+    }
+
+    /**
+     * @param raw the time of each measurement iteration in nanoseconds, per call in average time mode
+     */
+    record Result(String benchmark, String mode, Map<String, String> params, int warmupIterations, double[] raw) {
+
+        String unit() {
+            return AVERAGE_TIME.equals(mode) ? "us/op" : "ms/op";
+        }
+
+        double convert(double nanos) {
+            return AVERAGE_TIME.equals(mode) ? nanos / 1_000.0 : nanos / 1_000_000.0;
+        }
+
+        double score() {
+            double total = 0;
+            for (double value : raw) {
+                total = total + value;
+            }
+            return convert(total / raw.length);
+        }
+
+        double scoreError() {
+            int n = raw.length;
+            if (n < 2) {
+                return Double.NaN;
+            }
+            double mean = 0;
+            for (double value : raw) {
+                mean = mean + convert(value) / n;
+            }
+            double squares = 0;
+            for (double value : raw) {
+                double deviation = convert(value) - mean;
+                squares = squares + deviation * deviation;
+            }
+            double quantile = n - 1 <= T_QUANTILES.length ? T_QUANTILES[n - 2] : NORMAL_QUANTILE;
+            return quantile * Math.sqrt(squares / (n - 1)) / Math.sqrt(n);
+        }
+    }
+}
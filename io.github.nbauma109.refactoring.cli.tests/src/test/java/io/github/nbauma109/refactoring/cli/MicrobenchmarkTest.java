@@ -0,0 +1,62 @@
+package io.github.nbauma109.refactoring.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MicrobenchmarkTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void averageTimeIsReportedInMicroseconds() {
+        Microbenchmark.Result result = new Microbenchmark.Result("b", Microbenchmark.AVERAGE_TIME, Map.of(), 0,
+                new double[] { 1_000.0, 3_000.0 });
+        assertEquals("us/op", result.unit());
+        assertEquals(2.0, result.score(), 1e-9);
+    }
+
+    @Test
+    void singleShotIsReportedInMilliseconds() {
+        Microbenchmark.Result result = new Microbenchmark.Result("b", Microbenchmark.SINGLE_SHOT, Map.of(), 0,
+                new double[] { 2_000_000.0 });
+        assertEquals("ms/op", result.unit());
+        assertEquals(2.0, result.score(), 1e-9);
+        assertTrue(Double.isNaN(result.scoreError()));
+    }
+
+    @Test
+    void scoreErrorIsTheHalfWidthOfTheConfidenceInterval() {
+        Microbenchmark.Result result = new Microbenchmark.Result("b", Microbenchmark.AVERAGE_TIME, Map.of(), 0,
+                new double[] { 1_000.0, 3_000.0 });
+        // a standard deviation of sqrt(2) over two iterations, and the t quantile for one degree of freedom
+        assertEquals(636.619, result.scoreError(), 1e-6);
+    }
+
+    @Test
+    void writesResultsInTheLayoutOfJmh() throws Exception {
+        CleanupLog log = new CleanupLog(LogLevel.QUIET, null);
+        Microbenchmark harness = new Microbenchmark(log, 0, 2, 0L);
+        harness.singleShot("Example.run", Microbenchmark.params("size", "10", "mode", "fast"), () -> null,
+                () -> "result");
+        Path file = tempDir.resolve("results/bench.json");
+        harness.writeJson(file);
+        log.close();
+
+        String json = Files.readString(file, StandardCharsets.UTF_8);
+        assertTrue(json.startsWith("[\n    {\n        \"benchmark\" : \"Example.run\",\n"), json);
+        assertTrue(json.contains("\"mode\" : \"ss\""), json);
+        assertTrue(json.contains("\"measurementIterations\" : 2,"), json);
+        assertTrue(json.contains("\"size\" : \"10\",\n            \"mode\" : \"fast\"\n"), json);
+        assertTrue(json.contains("\"scoreUnit\" : \"ms/op\""), json);
+        assertTrue(json.endsWith("    }\n]\n"), json);
+    }
+}
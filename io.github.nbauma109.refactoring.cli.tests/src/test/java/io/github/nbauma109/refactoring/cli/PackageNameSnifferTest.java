@@ -0,0 +1,119 @@
+package io.github.nbauma109.refactoring.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PackageNameSnifferTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsThePackageDeclaration() throws IOException {
+        assertSameAsParser("package com.example;\n\npublic class A {\n}\n", "com.example");
+    }
+
+    @Test
+    void skipsLicenseHeadersAndComments() throws IOException {
+        assertSameAsParser("/*\n * Licensed under the Apache License.\n */\n// a line comment\n/** doc */\n"
+                + "package com.example.app;\n", "com.example.app");
+    }
+
+    @Test
+    void allowsCommentsAroundTheDots() throws IOException {
+        assertSameAsParser("package com /* a */ . example\n// b\n.app ;\n", "com.example.app");
+    }
+
+    @Test
+    void readsTheDefaultPackage() throws IOException {
+        assertSameAsParser("import java.util.List;\n\nclass A {\n}\n", "");
+        assertSameAsParser("// only a comment\n", "");
+        assertSameAsParser("", "");
+    }
+
+    @Test
+    void skipsTheByteOrderMark() throws IOException {
+        String source = "package com.example;\nclass A {\n}\n";
+        assertEquals("com.example", sniff("\uFEFF" + source));
+        // the workspace strips the mark before JDT reads the file
+        assertEquals("com.example", ProjectScanner.parsePackageName(write(source)));
+    }
+
+    @Test
+    void skipsAnnotationsBeforeThePackage() throws IOException {
+        assertSameAsParser("@Deprecated\n@SuppressWarnings({ \"a)\", \"(b\" })\n"
+                + "@javax.annotation.Generated(value = 'x')\npackage com.example;\n", "com.example");
+    }
+
+    @Test
+    void skipsTextBlocksInAnnotationArguments() throws IOException {
+        assertSameAsParser("@Ann(value = \"\"\"\n    ) \" \"\" \\\"\"\" (\n    \"\"\")\npackage com.example;\n",
+                "com.example");
+    }
+
+    @Test
+    void readsAnAnnotationTypeDeclarationAsTheDefaultPackage() throws IOException {
+        assertSameAsParser("@Retention(RUNTIME)\n@interface A {\n}\n", "");
+    }
+
+    @Test
+    void leavesUnicodeEscapesToTheParser() throws IOException {
+        String source = "package com.\\u0065xample;\n";
+        assertNull(sniff(source));
+        assertEquals("com.example", ProjectScanner.parsePackageName(write(source)));
+
+        String hiddenKeyword = "\\u0070ackage com.example;\n";
+        assertNull(sniff(hiddenKeyword));
+        assertEquals("com.example", ProjectScanner.parsePackageName(write(hiddenKeyword)));
+    }
+
+    @Test
+    void readsAnEscapedBackslashFollowedByU() throws IOException {
+        assertSameAsParser("@Ann(\"\\\\u0041\")\npackage com.example;\n", "com.example");
+    }
+
+    @Test
+    void givesUpOnUnbalancedAnnotationArguments() throws IOException {
+        assertNull(sniff("@Ann(\"x\"\npackage com.example;\n"));
+        assertNull(sniff("@Ann(\"unterminated\n) package com.example;\n"));
+    }
+
+    @Test
+    void givesUpOnHeadersLongerThanTheLimit() throws IOException {
+        String comment = "/*" + "x".repeat(PackageNameSniffer.MAX_HEADER_CHARS) + "*/\n";
+        assertNull(sniff(comment + "package com.example;\n"));
+    }
+
+    @Test
+    void givesUpOnInvalidUtf8() throws IOException {
+        Path file = tempDir.resolve("A.java");
+        Files.write(file, new byte[] { 'p', 'a', (byte) 0xC3, (byte) 0x28 });
+        assertNull(PackageNameSniffer.sniff(file));
+    }
+
+    private void assertSameAsParser(String source, String expected) throws IOException {
+        assertEquals(expected, sniff(source));
+        Path file = write(source);
+        assertEquals(expected, PackageNameSniffer.sniff(file));
+        assertEquals(expected, ProjectScanner.parsePackageName(file));
+    }
+
+    private static String sniff(String source) throws IOException {
+        return PackageNameSniffer.sniff(new StringReader(source));
+    }
+
+    private Path write(String source) throws IOException {
+        Path file = Files.createTempFile(tempDir, "A", ".java");
+        Files.writeString(file, source, StandardCharsets.UTF_8);
+        return file;
+    }
+}
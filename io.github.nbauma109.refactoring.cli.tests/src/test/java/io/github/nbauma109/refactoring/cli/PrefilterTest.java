@@ -0,0 +1,62 @@
+package io.github.nbauma109.refactoring.cli;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PrefilterTest {
+
+    @Test
+    void findsACastToTheTestedType() {
+        assertTrue(Prefilter.mayHaveInstanceofCast("if (o instanceof String) { return ((String) o).length(); }"));
+        assertTrue(Prefilter.mayHaveInstanceofCast("if (o instanceof String)\n{\n  use(( String )o);\n}"));
+    }
+
+    @Test
+    void needsBothTheTestAndTheCast() {
+        assertFalse(Prefilter.mayHaveInstanceofCast("return ((String) o).length();"));
+        assertFalse(Prefilter.mayHaveInstanceofCast("if (o instanceof String) { return o.hashCode(); }"));
+        assertFalse(Prefilter.mayHaveInstanceofCast("if (o instanceof Integer) { return ((String) o).length(); }"));
+        assertFalse(Prefilter.mayHaveInstanceofCast(""));
+    }
+
+    @Test
+    void matchesWholeWordsOnly() {
+        assertFalse(Prefilter.mayHaveInstanceofCast("int notinstanceof = 0; Object x = (String) o;"));
+        assertFalse(Prefilter.mayHaveInstanceofCast("if (o instanceof String) { return ((StringBuilder) o); }"));
+        assertFalse(Prefilter.mayHaveInstanceofCast("if (o instanceof Builder) { return ((StringBuilder) o); }"));
+    }
+
+    @Test
+    void matchesQualifiedNamesEitherWay() {
+        assertTrue(Prefilter.mayHaveInstanceofCast("if (o instanceof java.lang.String) { ((String) o).trim(); }"));
+        assertTrue(Prefilter.mayHaveInstanceofCast("if (o instanceof String) { ((java.lang.String) o).trim(); }"));
+        assertTrue(Prefilter.mayHaveInstanceofCast("if (o instanceof java . lang . String) { ((lang . String) o); }"));
+        assertTrue(Prefilter.mayHaveInstanceofCast("if (e instanceof Map.Entry) { ((Map.Entry<?, ?>) e).getKey(); }"));
+    }
+
+    @Test
+    void skipsTypeAnnotations() {
+        assertTrue(Prefilter.mayHaveInstanceofCast("if (o instanceof @NonNull String) { ((@NonNull String) o); }"));
+        assertTrue(Prefilter.mayHaveInstanceofCast(
+                "if (o instanceof @A String) { ((@Size(max = 3) @org.B String) o).trim(); }"));
+    }
+
+    @Test
+    void matchesGenericAndUnicodeTypes() {
+        assertTrue(Prefilter.mayHaveInstanceofCast("if (o instanceof List<?>) { ((List<String>) o).size(); }"));
+        assertTrue(Prefilter.mayHaveInstanceofCast(
+                "if (o instanceof Gr\u00f6\u00dfe) { ((Gr\u00f6\u00dfe) o).wert(); }"));
+        assertTrue(Prefilter.mayHaveInstanceofCast("if (o instanceof $Proxy) { (($Proxy) o).call(); }"));
+    }
+
+    @Test
+    void findsWholeWords() {
+        assertTrue(Prefilter.containsWord("switch (x) {", "switch"));
+        assertTrue(Prefilter.containsWord("a.switch", "switch"));
+        assertTrue(Prefilter.containsWord("switched; switch", "switch"));
+        assertFalse(Prefilter.containsWord("switched $switch switch_ switch2", "switch"));
+        assertFalse(Prefilter.containsWord("", "switch"));
+    }
+}
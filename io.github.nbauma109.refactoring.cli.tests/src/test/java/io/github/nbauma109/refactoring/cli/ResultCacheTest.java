@@ -0,0 +1,138 @@
+package io.github.nbauma109.refactoring.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ResultCacheTest {
+
+    private static final String LOG_FILE = "clean-units-v1.bin";
+
+    @TempDir
+    Path tempDir;
+
+    private final CleanupLog log = new CleanupLog(LogLevel.QUIET, null);
+
+    @Test
+    void writesEachKeyAsTwoBigEndianLongs() throws IOException {
+        ResultCache cache = new ResultCache(tempDir, 100, log);
+        cache.record(List.of(new ResultCache.Key(1L, 2L), new ResultCache.Key(-1L, 0x0102030405060708L)));
+
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(tempDir.resolve(LOG_FILE)));
+        assertEquals(32, content.remaining());
+        assertEquals(1L, content.getLong());
+        assertEquals(2L, content.getLong());
+        assertEquals(-1L, content.getLong());
+        assertEquals(0x0102030405060708L, content.getLong());
+    }
+
+    @Test
+    void loadsTheKeysRecordedByAnotherInstance() throws IOException {
+        new ResultCache(tempDir, 100, log).record(List.of(new ResultCache.Key(1L, 2L), new ResultCache.Key(3L, 4L)));
+
+        ResultCache cache = new ResultCache(tempDir, 100, log);
+        cache.load();
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains(new ResultCache.Key(1L, 2L)));
+        assertTrue(cache.contains(new ResultCache.Key(3L, 4L)));
+        assertFalse(cache.contains(new ResultCache.Key(1L, 4L)));
+    }
+
+    @Test
+    void dropsATornRecordBeforeAppending() throws IOException {
+        ResultCache cache = new ResultCache(tempDir, 100, log);
+        cache.record(List.of(new ResultCache.Key(1L, 2L)));
+        Files.write(tempDir.resolve(LOG_FILE), new byte[] { 9, 9, 9, 9, 9 }, StandardOpenOption.APPEND);
+
+        cache.record(List.of(new ResultCache.Key(3L, 4L)));
+
+        assertEquals(32, Files.size(tempDir.resolve(LOG_FILE)));
+        ResultCache reloaded = new ResultCache(tempDir, 100, log);
+        reloaded.load();
+        assertEquals(2, reloaded.size());
+        assertTrue(reloaded.contains(new ResultCache.Key(3L, 4L)));
+    }
+
+    @Test
+    void keepsTheMostRecentKeysWhenCompacting() throws IOException {
+        ResultCache cache = new ResultCache(tempDir, 2, log);
+        for (long index = 1; index <= 4; index++) {
+            cache.record(List.of(new ResultCache.Key(index, index)));
+        }
+        // recording the first key again makes it recent, the fifth record goes past twice the limit
+        cache.record(List.of(new ResultCache.Key(1L, 1L)));
+
+        assertEquals(32, Files.size(tempDir.resolve(LOG_FILE)));
+        ResultCache reloaded = new ResultCache(tempDir, 2, log);
+        reloaded.load();
+        assertEquals(2, reloaded.size());
+        assertTrue(reloaded.contains(new ResultCache.Key(4L, 4L)));
+        assertTrue(reloaded.contains(new ResultCache.Key(1L, 1L)));
+    }
+
+    @Test
+    void keepsEveryKeyAppendedConcurrently() throws Exception {
+        int writers = 8;
+        int batches = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int writer = 0; writer < writers; writer++) {
+                long high = writer;
+                futures.add(executor.submit(() -> {
+                    ResultCache cache = new ResultCache(tempDir, 1_000_000, log);
+                    for (long batch = 0; batch < batches; batch++) {
+                        cache.record(List.of(new ResultCache.Key(high, 2 * batch),
+                                new ResultCache.Key(high, 2 * batch + 1)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(16L * writers * batches * 2, Files.size(tempDir.resolve(LOG_FILE)));
+        ResultCache cache = new ResultCache(tempDir, 1_000_000, log);
+        cache.load();
+        assertEquals(writers * batches * 2, cache.size());
+    }
+
+    @Test
+    void keysDependOnTheContextAndTheContent() throws IOException {
+        Path file = tempDir.resolve("A.java");
+        Files.writeString(file, "class A {}\n", StandardCharsets.UTF_8);
+        byte[] context = ResultCache.contextHash(List.of("21", "profile"));
+
+        ResultCache.Key key = ResultCache.key(context, file);
+
+        assertEquals(key, ResultCache.key(ResultCache.contextHash(List.of("21", "profile")), file));
+        assertNotEquals(key, ResultCache.key(ResultCache.contextHash(List.of("17", "profile")), file));
+        // the parts are length prefixed, so moving a boundary changes the hash
+        assertNotEquals(ResultCache.key(ResultCache.contextHash(List.of("ab", "c")), file),
+                ResultCache.key(ResultCache.contextHash(List.of("a", "bc")), file));
+
+        Files.writeString(file, "class A { }\n", StandardCharsets.UTF_8);
+        assertNotEquals(key, ResultCache.key(context, file));
+    }
+}
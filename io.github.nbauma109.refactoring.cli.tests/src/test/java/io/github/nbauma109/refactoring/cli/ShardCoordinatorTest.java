@@ -0,0 +1,86 @@
+package io.github.nbauma109.refactoring.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ShardCoordinatorTest {
+
+    private static final int UNITS = 5 * SyntheticCodebase.UNITS_PER_PACKAGE;
+    private static final int SHARDS = 3;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reachesEveryShard() {
+        for (int count = 1; count <= 16; count++) {
+            Set<Integer> shards = new HashSet<>();
+            for (int unit = 0; unit < 1_000; unit++) {
+                int shard = ShardCoordinator.shardOf("module-0/src/main/java/com/example/Unit" + unit + ".java", count);
+                assertTrue(shard >= 1 && shard <= count, shard + "/" + count);
+                shards.add(shard);
+            }
+            assertEquals(count, shards.size(), "shards reached out of " + count);
+        }
+    }
+
+    @Test
+    void partitionsTheSameWayInEveryProcess() {
+        // the CRC32 of the key, unlike String.hashCode, is specified, so shards started separately agree
+        String path = "module-0/src/main/java/com/example/m0/p0/Unit0.java";
+        assertEquals(3, ShardCoordinator.shardOf(path, 3));
+        assertEquals(5, ShardCoordinator.shardOf(path, 8));
+        assertEquals(2, ShardCoordinator.shardOf("com.example.m0.p0", 3));
+        assertEquals(ShardCoordinator.shardOf(path, 8), ShardCoordinator.shardOf(new String(path), 8));
+    }
+
+    @Test
+    void shardsCleanLikeASingleRunByPath() throws Exception {
+        assertShardsCleanLikeASingleRun(ShardKey.PATH);
+    }
+
+    @Test
+    void shardsCleanLikeASingleRunByPackage() throws Exception {
+        assertShardsCleanLikeASingleRun(ShardKey.PACKAGE);
+    }
+
+    private void assertShardsCleanLikeASingleRun(ShardKey key) throws Exception {
+        Path profile = tempDir.resolve("profile.xml");
+        SyntheticCodebase.writeProfile(profile, Map.of("cleanup.instanceof", "true",
+                "cleanup.use_this_for_non_static_field_access", "true",
+                "cleanup.always_use_this_for_non_static_field_access", "true"));
+        Path original = tempDir.resolve("original");
+        SyntheticCodebase.generate(original, UNITS);
+
+        Map<String, String> single = clean(tempDir.resolve("single"), profile, key, 1);
+        Map<String, String> sharded = clean(tempDir.resolve("sharded"), profile, key, SHARDS);
+
+        assertNotEquals(CleanupBenchmarkApp.fingerprint(original), single, "the profile changed nothing");
+        assertEquals(single, sharded);
+    }
+
+    /**
+     * Runs the shards one after the other in this process, as the coordinator would run them side by side.
+     */
+    private static Map<String, String> clean(Path tree, Path profile, ShardKey key, int shards) throws Exception {
+        SyntheticCodebase.generate(tree, UNITS);
+        for (int index = 1; index <= shards; index++) {
+            CleanupOptions options = new CleanupOptions();
+            options.setLogLevel(LogLevel.QUIET);
+            options.setShardKey(key);
+            options.setShard(index, shards);
+            new CleanupRunner(tree, profile, "21", List.of(), options).run();
+        }
+        return CleanupBenchmarkApp.fingerprint(tree);
+    }
+}
@@ -0,0 +1,181 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Generates Maven-like source trees of arbitrary size for the benchmarks. The output only depends on the
+ * requested sizes, so two trees generated with the same arguments are identical.
+ */
+final class SyntheticCodebase {
+
+    static final int UNITS_PER_PACKAGE = 20;
+    static final int PACKAGES_PER_MODULE = 50;
+
+    private static final String LICENSE_HEADER = """
+            /*
+             * Copyright (c) 2024 Example Corp.
+             *
+             * Licensed under the Apache License, Version 2.0 (the "License");
+             * you may not use this file except in compliance with the License.
+             * You may obtain a copy of the License at
+             *
+             *     http://www.apache.org/licenses/LICENSE-2.0
+             */
+            """;
+
+    private SyntheticCodebase() {
+    }
+
+    /**
+     * Writes {@code units} compilation units under {@code root}, spread over modules of
+     * {@value #PACKAGES_PER_MODULE} packages of {@value #UNITS_PER_PACKAGE} units each.
+     */
+    static void generate(Path root, int units) throws IOException {
+        for (int index = 0; index < units; index++) {
+            int packageIndex = index / UNITS_PER_PACKAGE;
+            int moduleIndex = packageIndex / PACKAGES_PER_MODULE;
+
+            String packageName = "com.example.m" + moduleIndex + ".p" + packageIndex;
+            String className = "Unit" + index;
+
+            Path packageDir = root.resolve("module-" + moduleIndex).resolve("src/main/java")
+                    .resolve(packageName.replace('.', '/'));
+            Files.createDirectories(packageDir);
+            Files.writeString(packageDir.resolve(className + ".java"), unitSource(packageName, className),
+                    StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Writes a Maven reactor of {@code modules} modules under {@code root}, each depending on the previous one, with
+     * {@code units} compilation units spread evenly over their {@code src/main/java} folders.
+     */
+    static void generateReactor(Path root, int modules, int units) throws IOException {
+        StringBuilder pom = new StringBuilder();
+        pom.append("<project>\n");
+        pom.append("  <modelVersion>4.0.0</modelVersion>\n");
+        pom.append("  <groupId>com.example</groupId>\n");
+        pom.append("  <artifactId>reactor</artifactId>\n");
+        pom.append("  <version>1.0.0</version>\n");
+        pom.append("  <packaging>pom</packaging>\n");
+        pom.append("  <modules>\n");
+        for (int module = 0; module < modules; module++) {
+            pom.append("    <module>module-").append(module).append("</module>\n");
+        }
+        pom.append("  </modules>\n");
+        pom.append("</project>\n");
+        Files.createDirectories(root);
+        Files.writeString(root.resolve("pom.xml"), pom, StandardCharsets.UTF_8);
+
+        for (int module = 0; module < modules; module++) {
+            StringBuilder modulePom = new StringBuilder();
+            modulePom.append("<project>\n");
+            modulePom.append("  <modelVersion>4.0.0</modelVersion>\n");
+            modulePom.append("  <parent>\n");
+            modulePom.append("    <groupId>com.example</groupId>\n");
+            modulePom.append("    <artifactId>reactor</artifactId>\n");
+            modulePom.append("    <version>1.0.0</version>\n");
+            modulePom.append("  </parent>\n");
+            modulePom.append("  <artifactId>module-").append(module).append("</artifactId>\n");
+            if (module > 0) {
+                modulePom.append("  <dependencies>\n");
+                modulePom.append("    <dependency>\n");
+                modulePom.append("      <groupId>com.example</groupId>\n");
+                modulePom.append("      <artifactId>module-").append(module - 1).append("</artifactId>\n");
+                modulePom.append("      <version>${project.version}</version>\n");
+                modulePom.append("    </dependency>\n");
+                modulePom.append("  </dependencies>\n");
+            }
+            modulePom.append("</project>\n");
+            Path moduleDir = root.resolve("module-" + module);
+            Files.createDirectories(moduleDir.resolve("src/main/java"));
+            Files.writeString(moduleDir.resolve("pom.xml"), modulePom, StandardCharsets.UTF_8);
+        }
+
+        for (int index = 0; index < units; index++) {
+            int module = index % modules;
+            String packageName = "com.example.m" + module + ".p" + index / modules / UNITS_PER_PACKAGE;
+            String className = "Unit" + index;
+            Path packageDir = root.resolve("module-" + module).resolve("src/main/java")
+                    .resolve(packageName.replace('.', '/'));
+            Files.createDirectories(packageDir);
+            Files.writeString(packageDir.resolve(className + ".java"), unitSource(packageName, className),
+                    StandardCharsets.UTF_8);
+        }
+    }
+
+    static String unitSource(String packageName, String className) {
+        return LICENSE_HEADER
+                + "package " + packageName + ";\n"
+                + "\n"
+                + "import java.util.ArrayList;\n"
+                + "import java.util.List;\n"
+                + "\n"
+                + "public class " + className + " {\n"
+                + "\n"
+                + "    private List<Object> values = new ArrayList<>();\n"
+                + "\n"
+                + "    public int length(Object value) {\n"
+                + "        if (value instanceof String) {\n"
+                + "            return ((String) value).length();\n"
+                + "        }\n"
+                + "        return -1;\n"
+                + "    }\n"
+                + "\n"
+                + "    public void add(Object value) {\n"
+                + "        values.add(value);\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    /**
+     * @return a unit with one method holding {@code depth} nested {@code if (oN instanceof String)} statements, each
+     *         with a cast in its then block, the shape of generated parsers that makes the instanceof fallback slow
+     */
+    static String nestedInstanceofSource(String className, int depth) {
+        StringBuilder source = new StringBuilder();
+        source.append("public class ").append(className).append(" {\n");
+        source.append("\n");
+        source.append("    public int nested(Object[] values) {\n");
+        source.append("        int total = 0;\n");
+        for (int level = 0; level < depth; level++) {
+            source.append("        Object o").append(level).append(" = values[").append(level).append("];\n");
+        }
+        String indent = "        ";
+        for (int level = 0; level < depth; level++) {
+            source.append(indent).append("if (o").append(level).append(" instanceof String) {\n");
+            indent = indent + "    ";
+            source.append(indent).append("total += ((String) o").append(level).append(").length();\n");
+        }
+        for (int level = depth - 1; level >= 0; level--) {
+            indent = indent.substring(4);
+            source.append(indent).append("}\n");
+        }
+        source.append("        return total;\n");
+        source.append("    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Writes a cleanup profile with the given settings in the format exported by Eclipse.
+     */
+    static void writeProfile(Path file, Map<String, String> settings) throws IOException {
+        StringBuilder profile = new StringBuilder();
+        profile.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+        profile.append("<profiles version=\"2\">\n");
+        profile.append("<profile kind=\"CleanUpProfile\" name=\"Synthetic\" version=\"2\">\n");
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            profile.append("<setting id=\"").append(setting.getKey()).append("\" value=\"")
+                    .append(setting.getValue()).append("\"/>\n");
+        }
+        profile.append("</profile>\n");
+        profile.append("</profiles>\n");
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.writeString(file, profile, StandardCharsets.UTF_8);
+    }
+}
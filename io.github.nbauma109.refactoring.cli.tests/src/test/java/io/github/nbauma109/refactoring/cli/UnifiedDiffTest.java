@@ -0,0 +1,192 @@
+package io.github.nbauma109.refactoring.cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UnifiedDiffTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void identicalVersionsHaveNoDiff() {
+        assertEquals("", UnifiedDiff.diff("A.java", "a\nb\n", "a\nb\n"));
+    }
+
+    @Test
+    void writesTheFormatOfGitDiff() {
+        assertEquals("diff --git a/src/A.java b/src/A.java\n"
+                + "--- a/src/A.java\n"
+                + "+++ b/src/A.java\n"
+                + "@@ -1,3 +1,3 @@\n"
+                + " a\n"
+                + "-b\n"
+                + "+B\n"
+                + " c\n", UnifiedDiff.diff("src/A.java", "a\nb\nc\n", "a\nB\nc\n"));
+    }
+
+    @Test
+    void marksAMissingNewlineAtTheEnd() {
+        assertEquals("diff --git a/A.java b/A.java\n"
+                + "--- a/A.java\n"
+                + "+++ b/A.java\n"
+                + "@@ -1,2 +1,2 @@\n"
+                + " a\n"
+                + "-b\n"
+                + "\\ No newline at end of file\n"
+                + "+b\n", UnifiedDiff.diff("A.java", "a\nb", "a\nb\n"));
+    }
+
+    @Test
+    void writesAnEmptyRangeAsTheLineBeforeIt() {
+        assertTrue(UnifiedDiff.diff("A.java", "", "x\n").contains("@@ -0,0 +1 @@\n+x\n"));
+        assertTrue(UnifiedDiff.diff("A.java", "a\nb\n", "a\nx\nb\n").contains("@@ -1,2 +1,3 @@\n a\n+x\n b\n"));
+    }
+
+    @Test
+    void mergesChangesSeparatedByAtMostTwiceTheContext() {
+        List<String> lines = numberedLines(40);
+        List<String> close = new ArrayList<>(lines);
+        close.set(10, "changed\n");
+        close.set(11 + 2 * UnifiedDiff.CONTEXT_LINES, "changed\n");
+        assertEquals(1, hunks(UnifiedDiff.diff("A.java", String.join("", lines), String.join("", close))));
+
+        List<String> far = new ArrayList<>(lines);
+        far.set(10, "changed\n");
+        far.set(12 + 2 * UnifiedDiff.CONTEXT_LINES, "changed\n");
+        assertEquals(2, hunks(UnifiedDiff.diff("A.java", String.join("", lines), String.join("", far))));
+    }
+
+    @Test
+    void findsAShortestEditScript() {
+        List<UnifiedDiff.Edit> edits = UnifiedDiff.compare(List.of("a", "b", "c", "a", "b", "b", "a"),
+                List.of("c", "b", "a", "b", "a", "c"));
+        long changes = edits.stream().filter(edit -> edit.type() != ' ').count();
+        // the example of the paper of Myers, whose shortest edit script has five insertions and deletions
+        assertEquals(5, changes);
+    }
+
+    @Test
+    void patchesApplyWithGit() throws Exception {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            String original = String.join("", randomLines(random, 60));
+            String revised = mutate(random, original);
+            assertAppliesWithGit("Round" + round + ".java", original, revised);
+        }
+        assertAppliesWithGit("Empty.java", "", "class Empty {}\n");
+        assertAppliesWithGit("NoNewline.java", "class A {\n}", "class A {\n    int a;\n}");
+        assertAppliesWithGit("LineEndings.java", "class A {\r\n}\r\n", "class A {\n}\n");
+    }
+
+    @Test
+    void patchesApplyWithGitBeyondTheMaximumEditDistance() throws Exception {
+        List<String> original = numberedLines(3_000);
+        List<String> revised = new ArrayList<>();
+        for (String line : original) {
+            revised.add("changed " + line);
+        }
+        assertAppliesWithGit("Large.java", String.join("", original), String.join("", revised));
+    }
+
+    @Test
+    void patchOutputWritesPathsRelativeToTheRoot() throws IOException {
+        Path root = Files.createDirectories(tempDir.resolve("root"));
+        Path unchanged = write(root.resolve("src/Unchanged.java"), "class Unchanged {}\n");
+        Path changed = write(root.resolve("src/Changed.java"), "class Changed {}\n");
+        Path patch = tempDir.resolve("out/changes.patch");
+        CleanupLog log = new CleanupLog(LogLevel.QUIET, null);
+
+        try (PatchOutput output = new PatchOutput(root, patch, log)) {
+            assertFalse(output.write(unchanged, "class Unchanged {}\n"));
+            assertTrue(output.write(changed, "final class Changed {}\n"));
+            assertEquals(List.of(changed), output.getFiles());
+        }
+        log.close();
+
+        String content = Files.readString(patch, StandardCharsets.UTF_8);
+        assertTrue(content.startsWith("diff --git a/src/Changed.java b/src/Changed.java\n"), content);
+        assertEquals("class Changed {}\n", Files.readString(changed, StandardCharsets.UTF_8));
+    }
+
+    private void assertAppliesWithGit(String name, String original, String revised) throws Exception {
+        Path directory = Files.createDirectories(tempDir.resolve("apply-" + name));
+        Path file = write(directory.resolve(name), original);
+        Path patch = write(tempDir.resolve(name + ".patch"), UnifiedDiff.diff(name, original, revised));
+
+        Process process = new ProcessBuilder("git", "apply", "--whitespace=nowarn", patch.toString())
+                .directory(directory.toFile()).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, process.waitFor(), output);
+        assertEquals(revised, Files.readString(file, StandardCharsets.UTF_8), name);
+    }
+
+    private static String mutate(Random random, String original) {
+        List<String> lines = new ArrayList<>(UnifiedDiff.splitLines(original));
+        int changes = 1 + random.nextInt(8);
+        for (int change = 0; change < changes; change++) {
+            int index = random.nextInt(lines.size() + 1);
+            switch (random.nextInt(3)) {
+                case 0:
+                    lines.add(index, "inserted " + random.nextInt(1000) + "\n");
+                    break;
+                case 1:
+                    if (index < lines.size()) {
+                        lines.remove(index);
+                    }
+                    break;
+                default:
+                    if (index < lines.size()) {
+                        lines.set(index, "replaced " + random.nextInt(1000) + "\n");
+                    }
+                    break;
+            }
+        }
+        return String.join("", lines);
+    }
+
+    private static List<String> randomLines(Random random, int count) {
+        List<String> lines = new ArrayList<>();
+        for (int index = 0; index < count; index++) {
+            // few distinct lines, so that the diff has to choose between many matches
+            lines.add("line " + random.nextInt(5) + "\n");
+        }
+        return lines;
+    }
+
+    private static List<String> numberedLines(int count) {
+        List<String> lines = new ArrayList<>();
+        for (int index = 0; index < count; index++) {
+            lines.add("line " + index + "\n");
+        }
+        return lines;
+    }
+
+    private static int hunks(String diff) {
+        int count = 0;
+        for (String line : UnifiedDiff.splitLines(diff)) {
+            if (line.startsWith("@@ ")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Path write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.nbauma109.refactoring.cli;
+
+/**
+ * How often the external archives of the Java model are refreshed once files have changed.
+ */
+public enum ArchiveRefreshMode {
+
+    /**
+     * After every change that modified at least one file.
+     */
+    CHANGE("change"),
+
+    /**
+     * Once at the end of each cleanup pass that modified at least one file.
+     */
+    PASS("pass"),
+
+    /**
+     * Once at the end of the run if any file was modified.
+     */
+    RUN("run");
+
+    private final String argument;
+
+    ArchiveRefreshMode(String argument) {
+        this.argument = argument;
+    }
+
+    public String getArgument() {
+        return argument;
+    }
+
+    public static ArchiveRefreshMode fromArgument(String value) {
+        for (ArchiveRefreshMode mode : values()) {
+            if (mode.argument.equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown archive refresh mode: " + value);
+    }
+}
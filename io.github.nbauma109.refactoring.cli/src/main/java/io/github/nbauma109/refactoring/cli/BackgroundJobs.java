@@ -0,0 +1,160 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceDescription;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.jdt.internal.core.JavaModelManager;
+
+/**
+ * Turns off autobuild and holds back the Java indexer for the duration of a run, as chosen by
+ * {@code --background-jobs}, and measures the time of the background jobs that did run.
+ */
+final class BackgroundJobs extends JobChangeAdapter implements Closeable {
+
+    static final String BUILD = "build";
+    static final String INDEXING = "indexing";
+    static final String OTHER = "other";
+
+    private static final String INDEXING_THREAD = "Java indexing";
+
+    private final BackgroundMode mode;
+    private final CleanupLog log;
+    private final Map<Job, Long> runningSince = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> jobNanos = new ConcurrentHashMap<>();
+    private long indexingCpuStart;
+    private boolean started;
+    private boolean autoBuildSuspended;
+    private boolean indexingSuspended;
+
+    BackgroundJobs(BackgroundMode mode, CleanupLog log) {
+        this.mode = mode;
+        this.log = log;
+    }
+
+    void start() throws CoreException {
+        Job.getJobManager().addJobChangeListener(this);
+        indexingCpuStart = indexingCpuNanos();
+        started = true;
+
+        if (mode == BackgroundMode.RUN) {
+            return;
+        }
+        IWorkspace workspace = ResourcesPlugin.getWorkspace();
+        IWorkspaceDescription description = workspace.getDescription();
+        if (description.isAutoBuilding()) {
+            description.setAutoBuilding(false);
+            workspace.setDescription(description);
+            autoBuildSuspended = true;
+            log.info("Autobuild turned off for the run.");
+        }
+        if (mode == BackgroundMode.SUSPEND) {
+            JavaModelManager.getIndexManager().disable();
+            indexingSuspended = true;
+            log.info("Java indexing held back until the end of the run.");
+        }
+    }
+
+    @Override
+    public void running(IJobChangeEvent event) {
+        runningSince.put(event.getJob(), System.nanoTime());
+    }
+
+    @Override
+    public void done(IJobChangeEvent event) {
+        Long since = runningSince.remove(event.getJob());
+        if (since != null) {
+            jobNanos.computeIfAbsent(kindOf(event.getJob()), key -> new AtomicLong())
+                    .addAndGet(System.nanoTime() - since);
+        }
+    }
+
+    /**
+     * Records the time taken by background jobs in the metrics and prints it.
+     */
+    void report(CleanupMetrics metrics) {
+        if (!started) {
+            return;
+        }
+        Map<String, Long> nanos = new TreeMap<>();
+        nanos.put(BUILD, 0L);
+        nanos.put(INDEXING, Math.max(0, indexingCpuNanos() - indexingCpuStart));
+        nanos.put(OTHER, 0L);
+        for (Map.Entry<String, AtomicLong> entry : jobNanos.entrySet()) {
+            nanos.merge(entry.getKey(), entry.getValue().get(), Long::sum);
+        }
+        for (Map.Entry<String, Long> entry : nanos.entrySet()) {
+            metrics.backgroundJob(entry.getKey(), entry.getValue());
+        }
+
+        log.info("Background jobs during the run: build " + TimeUnit.NANOSECONDS.toMillis(nanos.get(BUILD))
+                + " ms, indexing " + TimeUnit.NANOSECONDS.toMillis(nanos.get(INDEXING)) + " ms of CPU, other jobs "
+                + TimeUnit.NANOSECONDS.toMillis(nanos.get(OTHER)) + " ms (--background-jobs " + mode.getArgument()
+                + ").");
+        if (indexingSuspended) {
+            log.info(JavaModelManager.getIndexManager().awaitingJobsCount()
+                    + " indexing jobs were held back and run once the cleanup finished.");
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        Job.getJobManager().removeJobChangeListener(this);
+        if (indexingSuspended) {
+            JavaModelManager.getIndexManager().enable();
+            indexingSuspended = false;
+        }
+        if (autoBuildSuspended) {
+            try {
+                IWorkspace workspace = ResourcesPlugin.getWorkspace();
+                IWorkspaceDescription description = workspace.getDescription();
+                description.setAutoBuilding(true);
+                workspace.setDescription(description);
+            } catch (CoreException e) {
+                log.error("Could not turn autobuild back on: " + e.getMessage());
+            }
+            autoBuildSuspended = false;
+        }
+    }
+
+    private static String kindOf(Job job) {
+        if (job.belongsTo(ResourcesPlugin.FAMILY_AUTO_BUILD) || job.belongsTo(ResourcesPlugin.FAMILY_MANUAL_BUILD)) {
+            return BUILD;
+        }
+        return OTHER;
+    }
+
+    /**
+     * @return the CPU time used so far by the indexer thread, {@code 0} if it cannot be measured
+     */
+    private static long indexingCpuNanos() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadCpuTimeSupported() || !threads.isThreadCpuTimeEnabled()) {
+            return 0;
+        }
+        long nanos = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && INDEXING_THREAD.equals(info.getThreadName())) {
+                nanos = nanos + Math.max(0, threads.getThreadCpuTime(info.getThreadId()));
+            }
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,42 @@
+package io.github.nbauma109.refactoring.cli;
+
+/**
+ * What the workspace may do in the background while a cleanup runs.
+ */
+public enum BackgroundMode {
+
+    /**
+     * Leave autobuild and the Java indexer as configured in the workspace.
+     */
+    RUN("run"),
+
+    /**
+     * Turn autobuild off for the run, so that linking folders, setting the classpath and writing changes do not
+     * schedule builds.
+     */
+    NO_BUILD("no-build"),
+
+    /**
+     * Also hold back the Java indexer until the cleanup finished; the cleanups do not search the index.
+     */
+    SUSPEND("suspend");
+
+    private final String argument;
+
+    BackgroundMode(String argument) {
+        this.argument = argument;
+    }
+
+    public String getArgument() {
+        return argument;
+    }
+
+    public static BackgroundMode fromArgument(String value) {
+        for (BackgroundMode mode : values()) {
+            if (mode.argument.equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown background mode: " + value);
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the number of units put into one {@link org.eclipse.jdt.internal.corext.fix.CleanUpRefactoring}. With
+ * {@code --units-per-refactoring auto} the size starts at {@value #INITIAL_SIZE} and doubles while the throughput
+ * improves by at least {@value #MIN_GAIN_PERCENT}%, and is halved when the heap or the time of a batch runs high.
+ * The size is chosen separately for each cleanup, and only full batches are taken into account.
+ */
+final class BatchSizer {
+
+    static final int INITIAL_SIZE = 8;
+    static final int MAX_SIZE = 256;
+    static final double DEFAULT_HEAP_FRACTION = 0.8;
+
+    private static final long TARGET_BATCH_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int MIN_GAIN_PERCENT = 5;
+    private static final int SAMPLES_PER_SIZE = 2;
+
+    private final boolean adaptive;
+    private final double maxHeapFraction;
+    private final CleanupMetrics metrics;
+    private final CleanupLog log;
+    private final int fixedSize;
+    private final Map<String, Pass> passes = new HashMap<>();
+
+    /**
+     * @param size            the fixed size, ignored when adaptive
+     * @param maxHeapFraction the heap fraction above which batches shrink, {@code 0} for the default
+     */
+    BatchSizer(boolean adaptive, int size, double maxHeapFraction, CleanupMetrics metrics, CleanupLog log) {
+        this.adaptive = adaptive;
+        this.fixedSize = size;
+        this.maxHeapFraction = maxHeapFraction > 0 ? maxHeapFraction : DEFAULT_HEAP_FRACTION;
+        this.metrics = metrics;
+        this.log = log;
+    }
+
+    /**
+     * @param key the name of the cleanup, or of the cleanups run together
+     */
+    int size(String key) {
+        return adaptive ? pass(key).size : fixedSize;
+    }
+
+    boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Records a batch of the current size, or smaller, cleaned in the given time and adapts the size.
+     */
+    void batchFinished(String key, int units, long nanos) {
+        if (!adaptive) {
+            metrics.batch(fixedSize, units, nanos);
+            return;
+        }
+        Pass pass = pass(key);
+        metrics.batch(pass.size, units, nanos);
+        if (units < pass.size) {
+            return;
+        }
+
+        double heap = MemoryMonitor.heapFractionAfterGc();
+        if (heap > maxHeapFraction || nanos > TARGET_BATCH_NANOS) {
+            shrink(key, pass, heap > maxHeapFraction
+                    ? String.format(Locale.ROOT, "heap at %.0f%% after collection", heap * 100)
+                    : "batch took " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms");
+            return;
+        }
+
+        long[] current = pass.samples.computeIfAbsent(pass.size, ignored -> new long[3]);
+        current[0]++;
+        current[1] = current[1] + units;
+        current[2] = current[2] + nanos;
+        if (!pass.growing || current[0] < SAMPLES_PER_SIZE) {
+            return;
+        }
+
+        long[] previous = pass.samples.get(pass.size / 2);
+        if (previous != null && throughput(current) * 100 < throughput(previous) * (100 + MIN_GAIN_PERCENT)) {
+            pass.growing = false;
+            if (throughput(current) < throughput(previous)) {
+                pass.size = pass.size / 2;
+            }
+            log.info(String.format(Locale.ROOT, "Settled on %d units per refactoring for %s (%.1f units/s).",
+                    pass.size, key, throughput(pass.samples.get(pass.size))));
+        } else if (pass.size < MAX_SIZE) {
+            pass.size = Math.min(MAX_SIZE, pass.size * 2);
+            log.verbose("Growing refactorings for " + key + " to " + pass.size + " units.");
+        } else {
+            pass.growing = false;
+        }
+    }
+
+    private void shrink(String key, Pass pass, String reason) {
+        pass.growing = false;
+        if (pass.size > 1) {
+            pass.size = pass.size / 2;
+            log.info("Reducing refactorings for " + key + " to " + pass.size + " units, " + reason + ".");
+        }
+    }
+
+    private Pass pass(String key) {
+        return passes.computeIfAbsent(key, ignored -> new Pass());
+    }
+
+    private static double throughput(long[] sample) {
+        return sample[2] > 0 ? sample[1] * 1e9 / sample[2] : 0;
+    }
+
+    private static final class Pass {
+
+        private final Map<Integer, long[]> samples = new HashMap<>();
+        private int size = INITIAL_SIZE;
+        private boolean growing = true;
+    }
+}
@@ -0,0 +1,742 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads the layout of a project from its build files instead of walking the tree: Maven modules, Gradle source
+ * sets and Eclipse {@code .classpath} entries. Dependency jars are looked up offline in the local Maven repository
+ * and the Gradle cache. {@link #read()} returns {@code null} when the caller should fall back to
+ * {@link ProjectScanner}.
+ */
+final class BuildModelReader {
+
+    private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)\\}");
+    private static final Pattern GRADLE_INCLUDE = Pattern.compile("(?m)^\\s*include\\s*\\(?((?:\\s*['\"][^'\"]+['\"]\\s*,?)+)\\)?");
+    private static final Pattern GRADLE_PROJECT_DIR = Pattern.compile(
+            "project\\s*\\(\\s*['\"]([^'\"]+)['\"]\\s*\\)\\.projectDir\\s*=\\s*(?:file|new File)\\s*\\(?\\s*['\"]([^'\"]+)['\"]");
+    private static final Pattern GRADLE_SRC_DIRS = Pattern.compile(
+            "java\\s*\\.\\s*srcDirs?\\s*(?:=|\\+=)?\\s*\\(?\\s*\\[?((?:\\s*(?:file\\s*\\(\\s*)?['\"][^'\"]+['\"]\\s*\\)?\\s*,?)+)"
+                    + "|srcDirs?\\s*(?:=|\\+=)?\\s*\\(?\\s*\\[?((?:\\s*(?:file\\s*\\(\\s*)?['\"][^'\"]+['\"]\\s*\\)?\\s*,?)+)");
+    private static final Pattern GRADLE_DEPENDENCY = Pattern.compile(
+            "(?:implementation|api|compileOnly|runtimeOnly|testImplementation|testCompileOnly|testRuntimeOnly"
+                    + "|compile|testCompile|annotationProcessor)\\s*\\(?\\s*['\"]([^'\":\\s]+):([^'\":\\s]+):([^'\":@\\s]+)"
+                    + "(?::([^'\"@\\s]+))?(?:@\\w+)?['\"]");
+    private static final Pattern QUOTED = Pattern.compile("['\"]([^'\"]+)['\"]");
+
+    private static final List<String> GRADLE_SETTINGS = List.of("settings.gradle", "settings.gradle.kts");
+    private static final List<String> GRADLE_BUILDS = List.of("build.gradle", "build.gradle.kts");
+    private static final Set<String> TRANSITIVE_SCOPES = Set.of("compile", "runtime");
+
+    private final Path root;
+    private final ProjectScanner scanner;
+    private final Path mavenRepository;
+    private final Path gradleCache;
+    private final CleanupLog log;
+    private final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    private final Map<Path, Pom> poms = new HashMap<>();
+    private final Set<String> reactor = new HashSet<>();
+    private final Map<String, Path> eclipseProjects = new HashMap<>();
+
+    private final Set<Path> moduleDirectories = new LinkedHashSet<>();
+    private final Set<Path> sourceFolders = new LinkedHashSet<>();
+    private final Set<String> requiredBundles = new LinkedHashSet<>();
+    private final Set<Path> manifestLibraries = new LinkedHashSet<>();
+    private final Set<Path> libraries = new LinkedHashSet<>();
+    private final List<Dependency> directDependencies = new ArrayList<>();
+    private final Set<String> missingLibraries = new LinkedHashSet<>();
+
+    /**
+     * @param scanner the scanner whose excludes apply to the modules and source folders
+     */
+    BuildModelReader(Path root, ProjectScanner scanner, Path mavenRepository, Path gradleCache, CleanupLog log) {
+        this.root = root;
+        this.scanner = scanner;
+        this.mavenRepository = mavenRepository;
+        this.gradleCache = gradleCache;
+        this.log = log;
+        factory.setNamespaceAware(false);
+        factory.setIgnoringComments(true);
+        // build files come from the codebase and the local repositories: no document type, no external entity
+        factory.setXIncludeAware(false);
+        factory.setExpandEntityReferences(false);
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("XML parser without the features to read untrusted build files", e);
+        }
+    }
+
+    /**
+     * @return the local Maven repository: {@code maven.repo.local} if set, otherwise {@code ~/.m2/repository}
+     */
+    static Path defaultMavenRepository() {
+        String local = System.getProperty("maven.repo.local");
+        return local != null ? Paths.get(local) : Paths.get(System.getProperty("user.home"), ".m2", "repository");
+    }
+
+    /**
+     * @return the Gradle dependency cache under {@code GRADLE_USER_HOME}, by default {@code ~/.gradle}
+     */
+    static Path defaultGradleCache() {
+        String home = System.getenv("GRADLE_USER_HOME");
+        Path gradleHome = home != null ? Paths.get(home) : Paths.get(System.getProperty("user.home"), ".gradle");
+        return gradleHome.resolve("caches").resolve("modules-2").resolve("files-2.1");
+    }
+
+    int getModules() {
+        return moduleDirectories.size();
+    }
+
+    Set<String> getMissingLibraries() {
+        return Collections.unmodifiableSet(missingLibraries);
+    }
+
+    /**
+     * @return the layout read from the build files, without the list of Java files, or {@code null} if the build
+     *         files are missing or could not be read
+     */
+    ProjectScanner.ProjectScan read() throws IOException {
+        try {
+            if (Files.isRegularFile(root.resolve("pom.xml"))) {
+                readMavenModule(root);
+            } else if (hasAny(root, GRADLE_SETTINGS) || hasAny(root, GRADLE_BUILDS)) {
+                readGradleBuild();
+            } else {
+                readEclipseProjects();
+            }
+        } catch (BuildFileException e) {
+            log.info("Could not read the build files: " + e.getMessage());
+            return null;
+        }
+        if (sourceFolders.isEmpty()) {
+            return null;
+        }
+
+        resolveDependencies();
+        return new ProjectScanner.ProjectScan(sourceFolders, requiredBundles, manifestLibraries, libraries, List.of());
+    }
+
+    private void readMavenModule(Path directory) throws IOException, BuildFileException {
+        Path file = directory.resolve("pom.xml");
+        if (!Files.isRegularFile(file)) {
+            throw new BuildFileException("missing module " + file);
+        }
+        Pom pom = loadPom(file);
+        if (pom == null) {
+            throw new BuildFileException("unreadable pom " + file);
+        }
+        reactor.add(pom.key());
+        if (!acceptModule(directory)) {
+            return;
+        }
+
+        addSourceFolder(directory, pom.resolve(pom.sourceDirectory, "src/main/java"));
+        addSourceFolder(directory, pom.resolve(pom.testSourceDirectory, "src/test/java"));
+        for (Dependency dependency : pom.effectiveDependencies()) {
+            if (!"import".equals(dependency.scope)) {
+                directDependencies.add(dependency);
+            }
+        }
+        readEclipseClasspath(directory);
+
+        for (String module : pom.modules) {
+            readMavenModule(directory.resolve(module).normalize());
+        }
+    }
+
+    private void readGradleBuild() throws IOException {
+        Map<String, Path> projects = new LinkedHashMap<>();
+        projects.put(":", root);
+        for (String settingsName : GRADLE_SETTINGS) {
+            Path settings = root.resolve(settingsName);
+            if (!Files.isRegularFile(settings)) {
+                continue;
+            }
+            String content = Files.readString(settings, StandardCharsets.UTF_8);
+            Matcher include = GRADLE_INCLUDE.matcher(content);
+            while (include.find()) {
+                Matcher name = QUOTED.matcher(include.group(1));
+                while (name.find()) {
+                    String path = name.group(1).startsWith(":") ? name.group(1) : ":" + name.group(1);
+                    projects.put(path, root.resolve(path.substring(1).replace(':', '/')).normalize());
+                }
+            }
+            Matcher projectDir = GRADLE_PROJECT_DIR.matcher(content);
+            while (projectDir.find()) {
+                String path = projectDir.group(1).startsWith(":") ? projectDir.group(1) : ":" + projectDir.group(1);
+                projects.put(path, root.resolve(projectDir.group(2)).normalize());
+            }
+        }
+
+        for (Path directory : projects.values()) {
+            if (!Files.isDirectory(directory) || !acceptModule(directory)) {
+                continue;
+            }
+            addSourceFolder(directory, "src/main/java");
+            addSourceFolder(directory, "src/test/java");
+            for (String buildName : GRADLE_BUILDS) {
+                Path build = directory.resolve(buildName);
+                if (Files.isRegularFile(build)) {
+                    readGradleBuildFile(directory, Files.readString(build, StandardCharsets.UTF_8));
+                }
+            }
+            readEclipseClasspath(directory);
+        }
+    }
+
+    private void readGradleBuildFile(Path directory, String content) {
+        Matcher srcDirs = GRADLE_SRC_DIRS.matcher(content);
+        while (srcDirs.find()) {
+            String list = srcDirs.group(1) != null ? srcDirs.group(1) : srcDirs.group(2);
+            Matcher dir = QUOTED.matcher(list);
+            while (dir.find()) {
+                addSourceFolder(directory, dir.group(1));
+            }
+        }
+        Matcher dependency = GRADLE_DEPENDENCY.matcher(content);
+        while (dependency.find()) {
+            directDependencies.add(new Dependency(dependency.group(1), dependency.group(2), dependency.group(3),
+                    "jar", dependency.group(4), "compile", false, Set.of()));
+        }
+    }
+
+    /**
+     * Reads the {@code .classpath} files of the root and of the directories up to two levels below it.
+     */
+    private void readEclipseProjects() throws IOException {
+        Deque<Path> directories = new ArrayDeque<>();
+        directories.add(root);
+        Map<Path, Integer> depths = new HashMap<>();
+        depths.put(root, 0);
+        List<Path> projects = new ArrayList<>();
+        while (!directories.isEmpty()) {
+            Path directory = directories.poll();
+            if (Files.isRegularFile(directory.resolve(".classpath")) && acceptModule(directory)) {
+                projects.add(directory);
+                eclipseProjects.putIfAbsent(eclipseProjectName(directory), directory);
+            }
+            int depth = depths.get(directory);
+            if (depth == 2) {
+                continue;
+            }
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory, Files::isDirectory)) {
+                for (Path child : children) {
+                    if (!scanner.isExcludedDirectory(child)) {
+                        depths.put(child, depth + 1);
+                        directories.add(child);
+                    }
+                }
+            }
+        }
+        for (Path project : projects) {
+            readEclipseClasspath(project);
+        }
+    }
+
+    /**
+     * @return the name in the {@code .project} file of the directory, or the name of the directory
+     */
+    private String eclipseProjectName(Path directory) {
+        Path file = directory.resolve(".project");
+        if (Files.isRegularFile(file)) {
+            Document document = parse(file);
+            Element name = document != null ? child(document.getDocumentElement(), "name") : null;
+            if (name != null && !name.getTextContent().isBlank()) {
+                return name.getTextContent().trim();
+            }
+        }
+        Path fileName = directory.toAbsolutePath().normalize().getFileName();
+        return fileName != null ? fileName.toString() : "";
+    }
+
+    /**
+     * Resolves the path of a {@code lib} entry: relative to the project, or, starting with {@code /}, a workspace
+     * path whose first segment names a project, or else a file system path.
+     */
+    private Path resolveLibrary(Path directory, String path) {
+        if (!path.startsWith("/")) {
+            return directory.resolve(path).normalize();
+        }
+        String workspacePath = path.substring(1);
+        int slash = workspacePath.indexOf('/');
+        if (slash > 0) {
+            String project = workspacePath.substring(0, slash);
+            String rest = workspacePath.substring(slash + 1);
+            List<Path> candidates = new ArrayList<>();
+            if (eclipseProjects.containsKey(project)) {
+                candidates.add(eclipseProjects.get(project));
+            }
+            if (project.equals(eclipseProjectName(directory))) {
+                candidates.add(directory);
+            }
+            Path parent = directory.toAbsolutePath().normalize().getParent();
+            if (parent != null) {
+                candidates.add(parent.resolve(project));
+            }
+            candidates.add(root.resolve(project));
+            for (Path candidate : candidates) {
+                Path library = candidate.resolve(rest).normalize();
+                if (Files.exists(library)) {
+                    return library;
+                }
+            }
+        }
+        return Paths.get(path);
+    }
+
+    private void readEclipseClasspath(Path directory) throws IOException {
+        Path file = directory.resolve(".classpath");
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        Document document = parse(file);
+        if (document == null) {
+            return;
+        }
+        NodeList entries = document.getElementsByTagName("classpathentry");
+        for (int i = 0; i < entries.getLength(); i++) {
+            Element entry = (Element) entries.item(i);
+            String kind = entry.getAttribute("kind");
+            String path = entry.getAttribute("path");
+            if (path.isEmpty()) {
+                continue;
+            }
+            if ("src".equals(kind) && !path.startsWith("/")) {
+                addSourceFolder(directory, path);
+            } else if ("lib".equals(kind)) {
+                Path library = resolveLibrary(directory, path);
+                if (Files.exists(library)) {
+                    libraries.add(library);
+                } else {
+                    missingLibraries.add(path);
+                }
+            } else if ("var".equals(kind) && path.startsWith("M2_REPO/")) {
+                Path library = mavenRepository.resolve(path.substring("M2_REPO/".length()));
+                if (Files.exists(library)) {
+                    libraries.add(library);
+                } else {
+                    missingLibraries.add(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} if the directory is excluded or was already read
+     */
+    private boolean acceptModule(Path directory) throws IOException {
+        if (scanner.isExcludedDirectory(directory) || !moduleDirectories.add(directory.normalize())) {
+            return false;
+        }
+        Path manifest = directory.resolve("META-INF").resolve("MANIFEST.MF");
+        if (Files.isRegularFile(manifest)) {
+            try (InputStream in = Files.newInputStream(manifest)) {
+                ProjectScanner.readManifest(manifest, new Manifest(in), requiredBundles, manifestLibraries);
+            }
+        }
+        return true;
+    }
+
+    private void addSourceFolder(Path directory, String path) {
+        Path folder = directory.resolve(path).normalize();
+        if (Files.isDirectory(folder) && !scanner.isExcludedDirectory(folder)) {
+            sourceFolders.add(folder);
+        }
+    }
+
+    /**
+     * Resolves the dependencies level by level, keeping the first version met of every artifact as Maven does.
+     */
+    private void resolveDependencies() {
+        Set<String> resolved = new HashSet<>(reactor);
+        Deque<Dependency> level = new ArrayDeque<>(directDependencies);
+        while (!level.isEmpty()) {
+            Deque<Dependency> next = new ArrayDeque<>();
+            for (Dependency dependency : level) {
+                if (dependency.version == null || !resolved.add(dependency.key())) {
+                    continue;
+                }
+                if ("system".equals(dependency.scope)) {
+                    continue;
+                }
+                if (!"pom".equals(dependency.type)) {
+                    Path jar = findArtifact(dependency.groupId, dependency.artifactId, dependency.version,
+                            dependency.fileName());
+                    if (jar != null) {
+                        libraries.add(jar);
+                    } else {
+                        missingLibraries.add(dependency.coordinates());
+                    }
+                }
+                Pom pom = loadRepositoryPom(dependency.groupId, dependency.artifactId, dependency.version);
+                if (pom == null) {
+                    continue;
+                }
+                for (Dependency transitive : pom.effectiveDependencies()) {
+                    if (transitive.optional || !TRANSITIVE_SCOPES.contains(transitive.scope)
+                            || dependency.excludes(transitive)) {
+                        continue;
+                    }
+                    next.add(transitive.withExclusions(dependency.exclusions));
+                }
+            }
+            level = next;
+        }
+    }
+
+    private Path findArtifact(String groupId, String artifactId, String version, String fileName) {
+        Path inRepository = mavenRepository.resolve(groupId.replace('.', '/')).resolve(artifactId).resolve(version)
+                .resolve(fileName);
+        if (Files.isRegularFile(inRepository)) {
+            return inRepository;
+        }
+        // the Gradle cache keeps each file in a directory named after its hash
+        Path inCache = gradleCache.resolve(groupId).resolve(artifactId).resolve(version);
+        if (!Files.isDirectory(inCache)) {
+            return null;
+        }
+        try (DirectoryStream<Path> hashes = Files.newDirectoryStream(inCache)) {
+            for (Path hash : hashes) {
+                Path file = hash.resolve(fileName);
+                if (Files.isRegularFile(file)) {
+                    return file;
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return null;
+    }
+
+    private Pom loadRepositoryPom(String groupId, String artifactId, String version) {
+        Path file = findArtifact(groupId, artifactId, version, artifactId + "-" + version + ".pom");
+        return file != null ? loadPom(file) : null;
+    }
+
+    private Pom loadPom(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        if (poms.containsKey(key)) {
+            return poms.get(key);
+        }
+        // registered first so that a parent cycle ends instead of recursing
+        poms.put(key, null);
+        Document document = parse(file);
+        Pom pom = document != null ? new Pom(file, document.getDocumentElement()) : null;
+        poms.put(key, pom);
+        return pom;
+    }
+
+    private Document parse(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            // errors are thrown and logged below rather than printed by the default handler
+            builder.setErrorHandler(new DefaultHandler());
+            return builder.parse(in);
+        } catch (Exception e) {
+            log.verbose(() -> "Could not parse " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean hasAny(Path directory, List<String> names) {
+        for (String name : names) {
+            if (Files.isRegularFile(directory.resolve(name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Element child(Element parent, String name) {
+        if (parent == null) {
+            return null;
+        }
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && name.equals(node.getNodeName())) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> result = new ArrayList<>();
+        if (parent == null) {
+            return result;
+        }
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && name.equals(node.getNodeName())) {
+                result.add((Element) node);
+            }
+        }
+        return result;
+    }
+
+    private static String text(Element parent, String name) {
+        Element element = child(parent, name);
+        if (element == null) {
+            return null;
+        }
+        String value = element.getTextContent().trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * A pom with its parent, read from the reactor or from the repositories.
+     */
+    private final class Pom {
+
+        private final Pom parent;
+        private final String groupId;
+        private final String artifactId;
+        private final String version;
+        private final Map<String, String> properties = new HashMap<>();
+        private final List<String> modules = new ArrayList<>();
+        private final String sourceDirectory;
+        private final String testSourceDirectory;
+        private final Element dependencies;
+        private final Element managedDependencies;
+        private Map<String, Dependency> managed;
+
+        Pom(Path file, Element project) {
+            Element parentElement = child(project, "parent");
+            parent = parentElement != null ? loadParent(file, parentElement) : null;
+            groupId = text(project, "groupId") != null ? text(project, "groupId")
+                    : parentElement != null ? text(parentElement, "groupId") : null;
+            artifactId = text(project, "artifactId");
+            version = text(project, "version") != null ? text(project, "version")
+                    : parentElement != null ? text(parentElement, "version") : null;
+
+            Element propertiesElement = child(project, "properties");
+            if (propertiesElement != null) {
+                for (Node node = propertiesElement.getFirstChild(); node != null; node = node.getNextSibling()) {
+                    if (node.getNodeType() == Node.ELEMENT_NODE) {
+                        properties.put(node.getNodeName(), node.getTextContent().trim());
+                    }
+                }
+            }
+            for (Element module : children(child(project, "modules"), "module")) {
+                modules.add(module.getTextContent().trim());
+            }
+            Element build = child(project, "build");
+            sourceDirectory = text(build, "sourceDirectory");
+            testSourceDirectory = text(build, "testSourceDirectory");
+            dependencies = child(project, "dependencies");
+            managedDependencies = child(child(project, "dependencyManagement"), "dependencies");
+        }
+
+        private Pom loadParent(Path file, Element parentElement) {
+            String relativePath = text(parentElement, "relativePath");
+            Path parentFile = file.getParent().resolve(relativePath != null ? relativePath : "../pom.xml").normalize();
+            if (Files.isDirectory(parentFile)) {
+                parentFile = parentFile.resolve("pom.xml");
+            }
+            if (Files.isRegularFile(parentFile)) {
+                Pom local = loadPom(parentFile);
+                if (local != null && local.artifactId != null
+                        && local.artifactId.equals(text(parentElement, "artifactId"))) {
+                    return local;
+                }
+            }
+            String parentGroup = text(parentElement, "groupId");
+            String parentArtifact = text(parentElement, "artifactId");
+            String parentVersion = text(parentElement, "version");
+            if (parentGroup == null || parentArtifact == null || parentVersion == null) {
+                return null;
+            }
+            return loadRepositoryPom(parentGroup, parentArtifact, parentVersion);
+        }
+
+        String key() {
+            return interpolate(groupId) + ":" + interpolate(artifactId);
+        }
+
+        String resolve(String directory, String defaultDirectory) {
+            return directory != null ? interpolate(directory) : defaultDirectory;
+        }
+
+        String property(String name) {
+            if ("project.version".equals(name) || "pom.version".equals(name) || "version".equals(name)) {
+                return version;
+            }
+            if ("project.groupId".equals(name) || "pom.groupId".equals(name) || "groupId".equals(name)) {
+                return groupId;
+            }
+            if ("project.artifactId".equals(name) || "artifactId".equals(name)) {
+                return artifactId;
+            }
+            if ("project.parent.version".equals(name)) {
+                return parent != null ? parent.version : null;
+            }
+            for (Pom pom = this; pom != null; pom = pom.parent) {
+                String value = pom.properties.get(name);
+                if (value != null) {
+                    return value;
+                }
+            }
+            return System.getProperty(name);
+        }
+
+        String interpolate(String value) {
+            if (value == null || value.indexOf('$') < 0) {
+                return value;
+            }
+            String result = value;
+            // properties may refer to other properties, a few rounds are enough for real poms
+            for (int round = 0; round < 10 && result.indexOf('$') >= 0; round++) {
+                Matcher matcher = PROPERTY.matcher(result);
+                StringBuilder replaced = new StringBuilder();
+                while (matcher.find()) {
+                    String property = property(matcher.group(1));
+                    matcher.appendReplacement(replaced,
+                            Matcher.quoteReplacement(property != null ? property : matcher.group()));
+                }
+                matcher.appendTail(replaced);
+                if (replaced.toString().equals(result)) {
+                    break;
+                }
+                result = replaced.toString();
+            }
+            return result;
+        }
+
+        /**
+         * @return the managed dependencies of this pom and its parents, and of the boms they import
+         */
+        Map<String, Dependency> managed() {
+            if (managed != null) {
+                return managed;
+            }
+            managed = new HashMap<>();
+            if (parent != null) {
+                managed.putAll(parent.managed());
+            }
+            for (Element element : children(managedDependencies, "dependency")) {
+                Dependency dependency = toDependency(element, Map.of());
+                if ("import".equals(dependency.scope) && "pom".equals(dependency.type) && dependency.version != null) {
+                    Pom bom = loadRepositoryPom(dependency.groupId, dependency.artifactId, dependency.version);
+                    if (bom != null) {
+                        for (Map.Entry<String, Dependency> imported : bom.managed().entrySet()) {
+                            managed.putIfAbsent(imported.getKey(), imported.getValue());
+                        }
+                    }
+                } else {
+                    managed.put(dependency.key(), dependency);
+                }
+            }
+            return managed;
+        }
+
+        /**
+         * @return the dependencies declared by this pom and its parents, with the managed versions and scopes
+         */
+        List<Dependency> effectiveDependencies() {
+            List<Dependency> result = parent != null ? new ArrayList<>(parent.effectiveDependencies())
+                    : new ArrayList<>();
+            for (Element element : children(dependencies, "dependency")) {
+                result.add(toDependency(element, managed()));
+            }
+            return result;
+        }
+
+        private Dependency toDependency(Element element, Map<String, Dependency> managedDependencies) {
+            String dependencyGroup = interpolate(text(element, "groupId"));
+            String dependencyArtifact = interpolate(text(element, "artifactId"));
+            Dependency managedDependency = managedDependencies.get(dependencyGroup + ":" + dependencyArtifact);
+            String dependencyVersion = interpolate(text(element, "version"));
+            if (dependencyVersion == null && managedDependency != null) {
+                dependencyVersion = managedDependency.version;
+            }
+            String scope = text(element, "scope");
+            if (scope == null) {
+                scope = managedDependency != null ? managedDependency.scope : "compile";
+            }
+            String type = text(element, "type");
+            Set<String> exclusions = new HashSet<>();
+            for (Element exclusion : children(child(element, "exclusions"), "exclusion")) {
+                exclusions.add(interpolate(text(exclusion, "groupId")) + ":" + interpolate(text(exclusion, "artifactId")));
+            }
+            if (managedDependency != null) {
+                exclusions.addAll(managedDependency.exclusions);
+            }
+            return new Dependency(dependencyGroup, dependencyArtifact, dependencyVersion,
+                    type != null ? type : "jar", interpolate(text(element, "classifier")), scope,
+                    Boolean.parseBoolean(text(element, "optional")), exclusions);
+        }
+    }
+
+    private record Dependency(String groupId, String artifactId, String version, String type, String classifier,
+            String scope, boolean optional, Set<String> exclusions) {
+
+        String key() {
+            return groupId + ":" + artifactId;
+        }
+
+        String coordinates() {
+            return key() + ":" + version + (classifier != null ? ":" + classifier : "");
+        }
+
+        String fileName() {
+            String suffix = "test-jar".equals(type) ? "-tests" : classifier != null ? "-" + classifier : "";
+            return artifactId + "-" + version + suffix + ".jar";
+        }
+
+        boolean excludes(Dependency dependency) {
+            return exclusions.contains(dependency.key()) || exclusions.contains(dependency.groupId + ":*")
+                    || exclusions.contains("*:*");
+        }
+
+        Dependency withExclusions(Set<String> inherited) {
+            if (inherited.isEmpty()) {
+                return this;
+            }
+            Set<String> all = new HashSet<>(exclusions);
+            all.addAll(inherited);
+            return new Dependency(groupId, artifactId, version, type, classifier, scope, optional, all);
+        }
+    }
+
+    private static final class BuildFileException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        BuildFileException(String message) {
+            super(message);
+        }
+    }
+}
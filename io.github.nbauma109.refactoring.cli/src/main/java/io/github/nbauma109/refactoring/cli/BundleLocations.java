@@ -0,0 +1,227 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.Platform;
+import org.osgi.framework.Bundle;
+
+/**
+ * Finds the local directory of the bundles named by {@code Require-Bundle}. {@link FileLocator#toFileURL(URL)}
+ * extracts a jarred bundle into the configuration area, so the locations are remembered in a file and reused while
+ * the bundle and the located directory are unchanged.
+ */
+final class BundleLocations {
+
+    private static final String CACHE_FILE = "bundle-locations-v1.txt";
+
+    // bundles do not move while the platform runs, so a daemon locates each of them once
+    private static final Map<String, Entry> RESOLVED = new ConcurrentHashMap<>();
+
+    private final Path cacheFile;
+    private final CleanupLog log;
+
+    /**
+     * @param directory the directory of the file of remembered locations, {@code null} to only remember them
+     *                  while the platform runs
+     */
+    BundleLocations(Path directory, CleanupLog log) {
+        this.cacheFile = directory != null ? directory.resolve(CACHE_FILE) : null;
+        this.log = log;
+    }
+
+    /**
+     * @return the local directory of each bundle that could be located, in the order of {@code bundleIds}
+     */
+    Map<String, Path> resolve(Collection<String> bundleIds) {
+        long start = System.nanoTime();
+        Map<String, Entry> stored = read();
+
+        Map<String, Path> result = new LinkedHashMap<>();
+        Map<String, Bundle> misses = new LinkedHashMap<>();
+        long savedNanos = 0;
+        int hits = 0;
+        for (String bundleId : bundleIds) {
+            Bundle bundle = Platform.getBundle(bundleId);
+            if (bundle == null) {
+                log.info("Could not resolve required bundle on running platform: " + bundleId);
+                continue;
+            }
+            String key = keyOf(bundle);
+            Entry entry = RESOLVED.get(key);
+            if (entry == null) {
+                entry = stored.get(key);
+                if (entry != null && !entry.isValid(bundle)) {
+                    entry = null;
+                }
+            }
+            if (entry != null) {
+                RESOLVED.put(key, entry);
+                result.put(bundleId, entry.path());
+                savedNanos = savedNanos + entry.locateNanos();
+                hits++;
+            } else {
+                result.put(bundleId, null);
+                misses.put(bundleId, bundle);
+            }
+        }
+
+        long locateStart = System.nanoTime();
+        for (Map.Entry<String, Entry> located : locateAll(misses).entrySet()) {
+            Entry entry = located.getValue();
+            result.put(located.getKey(), entry.path());
+            String key = keyOf(misses.get(located.getKey()));
+            RESOLVED.put(key, entry);
+            stored.put(key, entry);
+        }
+        long locateNanos = System.nanoTime() - locateStart;
+        result.values().removeIf(path -> path == null);
+
+        if (!misses.isEmpty()) {
+            write(stored);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        if (hits + misses.size() > 0) {
+            log.info("Resolved " + result.size() + " required bundles in " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+                    + " ms: " + hits + " remembered, " + misses.size() + " located in "
+                    + TimeUnit.NANOSECONDS.toMillis(locateNanos) + " ms, saving about "
+                    + TimeUnit.NANOSECONDS.toMillis(Math.max(0, savedNanos - (elapsedNanos - locateNanos)))
+                    + " ms.");
+        }
+        return result;
+    }
+
+    private Map<String, Entry> locateAll(Map<String, Bundle> bundles) {
+        Map<String, Entry> located = new LinkedHashMap<>();
+        if (bundles.isEmpty()) {
+            return located;
+        }
+        int threads = Math.min(bundles.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "bundle-locator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Map<String, Future<Entry>> futures = new LinkedHashMap<>();
+            for (Map.Entry<String, Bundle> bundle : bundles.entrySet()) {
+                futures.put(bundle.getKey(), executor.submit(() -> locate(bundle.getKey(), bundle.getValue())));
+            }
+            for (Map.Entry<String, Future<Entry>> future : futures.entrySet()) {
+                Entry entry = future.getValue().get();
+                if (entry != null) {
+                    located.put(future.getKey(), entry);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.info("Failed to resolve required bundle paths: " + e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return located;
+    }
+
+    private Entry locate(String bundleId, Bundle bundle) {
+        long start = System.nanoTime();
+        try {
+            URL root = bundle.getEntry("/");
+            if (root == null) {
+                log.info("Bundle has no root entry: " + bundleId);
+                return null;
+            }
+
+            URL localUrl = FileLocator.toFileURL(root);
+            URI uri = localUrl.toURI();
+            Path path = Paths.get(uri);
+            return new Entry(path, bundle.getLastModified(), lastModified(path), System.nanoTime() - start);
+        } catch (Exception e) {
+            log.info("Failed to resolve required bundle path for " + bundleId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Map<String, Entry> read() {
+        Map<String, Entry> entries = new TreeMap<>();
+        if (cacheFile == null || !Files.exists(cacheFile)) {
+            return entries;
+        }
+        try {
+            for (String line : Files.readAllLines(cacheFile, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 5) {
+                    entries.put(fields[0], new Entry(Paths.get(fields[4]), Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // a damaged file only costs locating the bundles again
+            log.info("Ignoring unreadable bundle location cache " + cacheFile + ": " + e.getMessage());
+            entries.clear();
+        }
+        return entries;
+    }
+
+    /**
+     * Replaces the file atomically, so that concurrent runs read either version.
+     */
+    private void write(Map<String, Entry> entries) {
+        if (cacheFile == null) {
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            lines.add(entry.getKey() + "\t" + value.bundleModified() + "\t" + value.pathModified() + "\t"
+                    + value.locateNanos() + "\t" + value.path());
+        }
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            Path temporary = Files.createTempFile(cacheFile.getParent(), CACHE_FILE, ".tmp");
+            Files.write(temporary, lines, StandardCharsets.UTF_8);
+            Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.info("Could not write bundle location cache " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    private static String keyOf(Bundle bundle) {
+        return bundle.getSymbolicName() + "_" + bundle.getVersion();
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private record Entry(Path path, long bundleModified, long pathModified, long locateNanos) {
+
+        boolean isValid(Bundle bundle) {
+            return bundle.getLastModified() == bundleModified && pathModified >= 0
+                    && lastModified(path) == pathModified;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Determines which files an incremental run should clean. Git is only queried through local plumbing commands,
+ * so no remote is ever contacted.
+ */
+final class ChangedFiles {
+
+    private ChangedFiles() {
+    }
+
+    /**
+     * Returns the real paths of the files that differ between {@code revision} and the working tree of the
+     * repository containing {@code projectRoot}, including untracked files that are not ignored.
+     */
+    static Set<Path> changedSince(Path projectRoot, String revision) throws IOException {
+        Path topLevel = Paths.get(git(projectRoot, "rev-parse", "--show-toplevel").trim());
+
+        Set<Path> result = new LinkedHashSet<>();
+        addNulSeparated(result, topLevel,
+                git(projectRoot, "diff", "--name-only", "--no-renames", "--no-ext-diff", "--diff-filter=d", "-z",
+                        "--end-of-options", revision, "--"));
+        addNulSeparated(result, topLevel,
+                git(projectRoot, "ls-files", "--others", "--exclude-standard", "--full-name", "-z"));
+        return result;
+    }
+
+    /**
+     * Reads a list of files, one per line, and returns their real paths. Blank lines and lines starting with
+     * {@code #} are ignored, and relative paths are resolved against {@code projectRoot}.
+     */
+    static Set<Path> readList(Path listFile, Path projectRoot) throws IOException {
+        Set<Path> result = new LinkedHashSet<>();
+        for (String line : Files.readAllLines(listFile, StandardCharsets.UTF_8)) {
+            String entry = line.trim();
+            if (entry.isEmpty() || entry.startsWith("#")) {
+                continue;
+            }
+            result.add(realPath(projectRoot.resolve(entry)));
+        }
+        return result;
+    }
+
+    static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Resolves symbolic links, since git reports paths below the real top level of the repository while the units
+     * are located below the project root as given, e.g. a symbolic link to the checkout or {@code /tmp} on macOS.
+     * A file that does not exist is only normalized.
+     */
+    static Path realPath(Path path) {
+        try {
+            return path.toRealPath();
+        } catch (IOException e) {
+            return normalize(path);
+        }
+    }
+
+    private static void addNulSeparated(Set<Path> result, Path base, String output) {
+        for (String entry : output.split("\0")) {
+            if (!entry.isEmpty()) {
+                result.add(realPath(base.resolve(entry)));
+            }
+        }
+    }
+
+    private static String git(Path directory, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.add("-C");
+        command.add(directory.toString());
+        for (String arg : args) {
+            command.add(arg);
+        }
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.environment().put("GIT_TERMINAL_PROMPT", "0");
+        builder.environment().put("GIT_OPTIONAL_LOCKS", "0");
+        Process process = builder.start();
+        process.getOutputStream().close();
+
+        CompletableFuture<String> error = CompletableFuture.supplyAsync(() -> readQuietly(process.getErrorStream()));
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("git " + String.join(" ", args) + " failed with exit code " + exitCode + ": "
+                        + error.join().trim());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            throw new IOException("Interrupted while running git", e);
+        }
+
+        return output;
+    }
+
+    private static String readQuietly(InputStream in) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            in.transferTo(buffer);
+            return buffer.toString(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+    }
+}
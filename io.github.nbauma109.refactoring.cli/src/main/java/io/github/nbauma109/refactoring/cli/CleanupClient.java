@@ -0,0 +1,127 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thin client for the cleanup daemon. It runs on a plain JVM without Eclipse, passes its arguments to a daemon
+ * started with {@code --daemon}, prints the output of the run as it arrives and exits with the exit code of the
+ * run.
+ */
+public final class CleanupClient {
+
+    private CleanupClient() {
+    }
+
+    public static void main(String[] args) {
+        Integer port = null;
+        Path socket = null;
+        boolean stop = false;
+        List<String> forwarded = new ArrayList<>();
+
+        int i = 0;
+        while (i < args.length) {
+            String arg = args[i];
+            if ("--port".equals(arg) && i + 1 < args.length) {
+                port = Integer.valueOf(args[++i]);
+            } else if ("--socket".equals(arg) && i + 1 < args.length) {
+                socket = Paths.get(args[++i]);
+            } else if ("--stop".equals(arg)) {
+                stop = true;
+            } else {
+                forwarded.add(arg);
+            }
+            i++;
+        }
+
+        if (!stop && forwarded.isEmpty()) {
+            System.err.println("Missing arguments. Usage:");
+            System.err.println("  [--socket <file>|--port <n>] <cleanup arguments>");
+            System.err.println("  [--socket <file>|--port <n>] --stop");
+            System.exit(1);
+        }
+
+        SocketAddress address = DaemonProtocol.address(port, socket);
+        String command = stop ? DaemonProtocol.STOP : DaemonProtocol.CLEANUP;
+        Path tokenFile = DaemonProtocol.tokenFile(address);
+        String token;
+        try {
+            token = Files.readString(tokenFile, StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            System.err.println("Could not read the token of the cleanup daemon on " + address + " from " + tokenFile
+                    + ", is it running as this user? " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        try {
+            System.exit(send(address, token, command, forwarded));
+        } catch (IOException e) {
+            System.err.println("Could not reach the cleanup daemon on " + address + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static int send(SocketAddress address, String token, String command, List<String> args)
+            throws IOException {
+        long start = System.nanoTime();
+        try (SocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open()) {
+            channel.connect(address);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+
+            DaemonProtocol.writeRequest(out, token, command, Paths.get("").toAbsolutePath(), args);
+
+            byte[] buffer = new byte[8192];
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    throw new IOException("the daemon closed the connection before the run finished", e);
+                }
+                if (type == DaemonProtocol.EXIT) {
+                    int exitCode = in.readInt();
+                    int requestNumber = in.readInt();
+                    long daemonNanos = in.readLong();
+                    if (DaemonProtocol.CLEANUP.equals(command)) {
+                        System.err.println("Request " + requestNumber + " took "
+                                + TimeUnit.NANOSECONDS.toMillis(daemonNanos) + " ms in the daemon, "
+                                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms end to end.");
+                    }
+                    return exitCode;
+                }
+
+                PrintStream target = type == DaemonProtocol.ERR ? System.err : System.out;
+                int remaining = in.readInt();
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new EOFException();
+                    }
+                    target.write(buffer, 0, read);
+                    remaining = remaining - read;
+                }
+                target.flush();
+            }
+        }
+    }
+}
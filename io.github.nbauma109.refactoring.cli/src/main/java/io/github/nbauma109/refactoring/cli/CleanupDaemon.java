@@ -0,0 +1,312 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.Selector;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves cleanup requests from {@link CleanupClient} one at a time in a long-lived platform, sending the output
+ * of each run to the client that requested it. A request must carry the token of the daemon, see
+ * {@link DaemonProtocol}, and arrive within {@value #REQUEST_READ_TIMEOUT_MILLIS} ms of connecting.
+ */
+final class CleanupDaemon {
+
+    @FunctionalInterface
+    interface Command {
+        int run(List<String> args, Path workingDirectory) throws Exception;
+    }
+
+    static final long REQUEST_READ_TIMEOUT_MILLIS = 10_000L;
+
+    private final SocketAddress address;
+    private final long idleTimeoutMillis;
+    private final Command command;
+    private final PrintStream log;
+
+    private volatile boolean stopped;
+    private volatile Selector selector;
+    private ScheduledExecutorService deadlines;
+    private String token;
+    private int requests;
+    private long coldNanos;
+    private long warmNanos;
+
+    /**
+     * @param idleTimeoutMillis time without requests after which the daemon exits, {@code 0} to never time out
+     */
+    CleanupDaemon(SocketAddress address, long idleTimeoutMillis, Command command) {
+        this.address = address;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.command = command;
+        this.log = System.out;
+    }
+
+    void serve() throws IOException {
+        DaemonProtocol.createStateDirectory();
+        Path tokenFile = DaemonProtocol.tokenFile(address);
+        Path socketFile = address instanceof UnixDomainSocketAddress unix ? unix.getPath().toAbsolutePath() : null;
+        Path bindDirectory = null;
+        if (socketFile != null) {
+            // a socket file left by a daemon that did not shut down cleanly would make the bind fail
+            Files.deleteIfExists(socketFile);
+            Files.createDirectories(socketFile.getParent());
+        }
+
+        try (ServerSocketChannel server = socketFile != null
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+                Selector acceptSelector = Selector.open()) {
+            if (socketFile != null && Files.getFileStore(socketFile.getParent()).supportsFileAttributeView("posix")) {
+                // temporary directories are created readable by their owner only
+                bindDirectory = Files.createTempDirectory(socketFile.getParent(), ".cleanup-daemon");
+                Path bound = bindDirectory.resolve("daemon.sock");
+                server.bind(UnixDomainSocketAddress.of(bound));
+                Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+                Files.move(bound, socketFile, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                server.bind(address);
+            }
+            token = writeToken(tokenFile);
+            server.configureBlocking(false);
+            server.register(acceptSelector, SelectionKey.OP_ACCEPT);
+            selector = acceptSelector;
+            deadlines = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "daemon-request-deadline");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            log.println("Cleanup daemon listening on " + (socketFile != null ? socketFile : server.getLocalAddress())
+                    + (idleTimeoutMillis > 0 ? ", idle timeout " + TimeUnit.MILLISECONDS.toSeconds(idleTimeoutMillis)
+                            + " s" : "") + ", token in " + tokenFile + ".");
+
+            long idleSince = System.nanoTime();
+            while (!stopped) {
+                long waitMillis = 0;
+                if (idleTimeoutMillis > 0) {
+                    long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - idleSince);
+                    if (idleMillis >= idleTimeoutMillis) {
+                        log.println("No request for " + TimeUnit.MILLISECONDS.toSeconds(idleMillis)
+                                + " s, shutting down.");
+                        break;
+                    }
+                    waitMillis = idleTimeoutMillis - idleMillis;
+                }
+                acceptSelector.select(waitMillis);
+                acceptSelector.selectedKeys().clear();
+
+                SocketChannel client = server.accept();
+                if (client == null) {
+                    continue;
+                }
+                try (client) {
+                    client.configureBlocking(true);
+                    if (handle(client)) {
+                        idleSince = System.nanoTime();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.println("Request failed: " + e);
+                }
+            }
+        } finally {
+            selector = null;
+            if (deadlines != null) {
+                deadlines.shutdownNow();
+            }
+            Files.deleteIfExists(tokenFile);
+            if (socketFile != null) {
+                Files.deleteIfExists(socketFile);
+            }
+            if (bindDirectory != null) {
+                Files.deleteIfExists(bindDirectory);
+            }
+            printSummary();
+        }
+    }
+
+    void stop() {
+        stopped = true;
+        Selector current = selector;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    /**
+     * @return whether the request carried the token of the daemon
+     */
+    private boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+
+        // closing the channel from the deadline thread makes the blocked read throw
+        ScheduledFuture<?> deadline = deadlines.schedule(() -> {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // the read fails either way
+            }
+        }, REQUEST_READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        boolean valid;
+        DaemonProtocol.Request request = null;
+        try {
+            valid = DaemonProtocol.isValidToken(token, DaemonProtocol.readToken(in));
+            if (valid) {
+                request = DaemonProtocol.readRequest(in);
+            }
+        } finally {
+            if (!deadline.cancel(false)) {
+                throw new IOException("No request within " + REQUEST_READ_TIMEOUT_MILLIS + " ms");
+            }
+        }
+
+        if (!valid) {
+            log.println("Rejected a request without the daemon token.");
+            byte[] message = ("The request does not carry the token of the daemon, run the client as the user who"
+                    + " started it.\n").getBytes(StandardCharsets.UTF_8);
+            new FrameOutputStream(out, DaemonProtocol.ERR).write(message, 0, message.length);
+            DaemonProtocol.writeExit(out, 1, requests, 0L);
+            return false;
+        }
+        if (DaemonProtocol.STOP.equals(request.command())) {
+            log.println("Stop requested.");
+            DaemonProtocol.writeExit(out, 0, requests, 0L);
+            stopped = true;
+            return true;
+        }
+        if (!DaemonProtocol.CLEANUP.equals(request.command())) {
+            throw new IOException("Unknown command: " + request.command());
+        }
+
+        requests = requests + 1;
+        log.println("Request " + requests + " from " + request.workingDirectory() + ": "
+                + String.join(" ", request.args()));
+
+        PrintStream previousOut = System.out;
+        PrintStream previousErr = System.err;
+        // output of a client that went away is dropped by the print streams, the run itself carries on
+        PrintStream clientOut = new PrintStream(new FrameOutputStream(out, DaemonProtocol.OUT), true,
+                StandardCharsets.UTF_8);
+        PrintStream clientErr = new PrintStream(new FrameOutputStream(out, DaemonProtocol.ERR), true,
+                StandardCharsets.UTF_8);
+        int exitCode;
+        long start = System.nanoTime();
+        System.setOut(clientOut);
+        System.setErr(clientErr);
+        try {
+            exitCode = command.run(request.args(), request.workingDirectory());
+        } catch (Exception e) {
+            e.printStackTrace();
+            exitCode = 1;
+        } finally {
+            clientOut.flush();
+            clientErr.flush();
+            System.setOut(previousOut);
+            System.setErr(previousErr);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (requests == 1) {
+            coldNanos = elapsed;
+        } else {
+            warmNanos = warmNanos + elapsed;
+        }
+        log.println("Request " + requests + " (" + (requests == 1 ? "cold" : "warm") + ") finished with exit code "
+                + exitCode + " in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms.");
+
+        DaemonProtocol.writeExit(out, exitCode, requests, elapsed);
+        return true;
+    }
+
+    /**
+     * Writes a new random token to a file created readable by its owner only.
+     */
+    private static String writeToken(Path tokenFile) throws IOException {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        String value = HexFormat.of().formatHex(random);
+        Files.deleteIfExists(tokenFile);
+        if (Files.getFileStore(tokenFile.getParent()).supportsFileAttributeView("posix")) {
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(tokenFile);
+        }
+        Files.writeString(tokenFile, value, StandardCharsets.UTF_8);
+        return value;
+    }
+
+    private void printSummary() {
+        if (requests == 0) {
+            log.println("Cleanup daemon served no request.");
+            return;
+        }
+        StringBuilder summary = new StringBuilder("Cleanup daemon served ").append(requests)
+                .append(requests == 1 ? " request" : " requests").append(": first (cold) ")
+                .append(TimeUnit.NANOSECONDS.toMillis(coldNanos)).append(" ms");
+        if (requests > 1) {
+            summary.append(", warm average ").append(TimeUnit.NANOSECONDS.toMillis(warmNanos / (requests - 1)))
+                    .append(" ms");
+        }
+        log.println(summary.append('.'));
+    }
+
+    private static final class FrameOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+        private final byte type;
+
+        FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            // standard output and standard error share the connection
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
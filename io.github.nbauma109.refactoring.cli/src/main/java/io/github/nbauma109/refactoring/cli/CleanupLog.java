@@ -0,0 +1,306 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The log of a run. Messages below the {@link LogLevel} are dropped before they are formatted, and the others
+ * are written by a background thread to the console and, if a file was given, as JSON lines to it.
+ * {@link #close()} must be called at the end of the run.
+ */
+final class CleanupLog {
+
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    private static final int MAX_BATCH = 4096;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static final Event END = new Event(0L, null, false, false, null, null);
+
+    private final LogLevel level;
+    private final Path jsonFile;
+    private final String prefix;
+    private final BlockingQueue<Event> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+
+    private volatile Thread writer;
+    private boolean jsonStarted;
+
+    CleanupLog(LogLevel level, Path jsonFile) {
+        this(level, jsonFile, "");
+    }
+
+    /**
+     * @param prefix the text put before every line, telling apart the logs of runs sharing the console
+     */
+    CleanupLog(LogLevel level, Path jsonFile, String prefix) {
+        this.level = level;
+        this.jsonFile = jsonFile;
+        this.prefix = prefix;
+    }
+
+    boolean isEnabled(LogLevel messageLevel) {
+        return level.compareTo(messageLevel) >= 0;
+    }
+
+    /**
+     * Logs at every level, for the outcome of the run.
+     */
+    void always(String message) {
+        enqueue(LogLevel.QUIET, false, true, message);
+    }
+
+    void info(String message) {
+        if (isEnabled(LogLevel.NORMAL)) {
+            enqueue(LogLevel.NORMAL, false, true, message);
+        }
+    }
+
+    void info(Supplier<String> message) {
+        if (isEnabled(LogLevel.NORMAL)) {
+            enqueue(LogLevel.NORMAL, false, true, message.get());
+        }
+    }
+
+    void verbose(String message) {
+        if (isEnabled(LogLevel.VERBOSE)) {
+            enqueue(LogLevel.VERBOSE, false, true, message);
+        }
+    }
+
+    void verbose(Supplier<String> message) {
+        if (isEnabled(LogLevel.VERBOSE)) {
+            enqueue(LogLevel.VERBOSE, false, true, message.get());
+        }
+    }
+
+    void error(String message) {
+        enqueue(LogLevel.QUIET, true, true, message);
+    }
+
+    /**
+     * Writes text without a line break to the console only, for progress bars.
+     */
+    void progress(LogLevel messageLevel, String text) {
+        if (isEnabled(messageLevel)) {
+            enqueue(messageLevel, false, false, text);
+        }
+    }
+
+    /**
+     * Starts reporting the progress of a loop over {@code total} units every few seconds.
+     */
+    Progress startProgress(String label, int total, int changedFiles) {
+        return new Progress(label, total, changedFiles);
+    }
+
+    private void enqueue(LogLevel messageLevel, boolean error, boolean newline, String message) {
+        if (writer == null) {
+            startWriter();
+        }
+        put(new Event(System.currentTimeMillis(), messageLevel, error, newline, Thread.currentThread().getName(),
+                newline ? prefix + message : message));
+    }
+
+    private synchronized void startWriter() {
+        if (writer == null) {
+            writer = new Thread(this::writeLoop, "cleanup-log");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Writes every queued message and stops the writer thread. Logging again afterwards starts a new one.
+     */
+    synchronized void close() {
+        Thread current = writer;
+        if (current == null) {
+            return;
+        }
+        writer = null;
+        put(END);
+        // holding the lock keeps a new writer from starting while the queue still holds the end marker
+        try {
+            current.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void put(Event event) {
+        try {
+            queue.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        BufferedWriter json = null;
+        try {
+            if (jsonFile != null) {
+                json = openJson();
+            }
+            List<Event> batch = new ArrayList<>();
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH);
+                boolean end = write(batch, json);
+                batch.clear();
+                if (end) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write the log to " + jsonFile + ": " + e.getMessage());
+            drainToConsole();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (json != null) {
+                try {
+                    json.close();
+                } catch (IOException e) {
+                    System.err.println("Could not close the log " + jsonFile + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private BufferedWriter openJson() throws IOException {
+        Path parent = jsonFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        // the first writer of the run starts a new file, writers restarted after close append to it
+        StandardOpenOption mode = jsonStarted ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+        jsonStarted = true;
+        return Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, mode);
+    }
+
+    private boolean write(List<Event> batch, BufferedWriter json) throws IOException {
+        StringBuilder console = new StringBuilder();
+        boolean consoleIsError = false;
+        boolean end = false;
+        for (Event event : batch) {
+            if (event == END) {
+                end = true;
+                break;
+            }
+            if (event.error() != consoleIsError && console.length() > 0) {
+                flushConsole(console, consoleIsError);
+            }
+            consoleIsError = event.error();
+            console.append(event.message());
+            if (event.newline()) {
+                console.append(System.lineSeparator());
+            }
+            if (json != null && event.newline()) {
+                json.write(toJson(event));
+                json.newLine();
+            }
+        }
+        flushConsole(console, consoleIsError);
+        if (json != null) {
+            json.flush();
+        }
+        return end;
+    }
+
+    private void flushConsole(StringBuilder console, boolean error) {
+        if (console.length() == 0) {
+            return;
+        }
+        PrintStream stream = error ? System.err : System.out;
+        stream.print(console);
+        stream.flush();
+        console.setLength(0);
+    }
+
+    private void drainToConsole() {
+        List<Event> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH);
+                if (write(batch, null)) {
+                    return;
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String toJson(Event event) {
+        String levelName;
+        if (event.error()) {
+            levelName = "error";
+        } else if (event.level() == LogLevel.VERBOSE) {
+            levelName = "debug";
+        } else {
+            levelName = "info";
+        }
+        return "{\"time\":" + Json.quote(Instant.ofEpochMilli(event.epochMillis()).toString())
+                + ",\"level\":" + Json.quote(levelName)
+                + ",\"thread\":" + Json.quote(event.thread())
+                + ",\"message\":" + Json.quote(event.message()) + "}";
+    }
+
+    private record Event(long epochMillis, LogLevel level, boolean error, boolean newline, String thread,
+            String message) {
+    }
+
+    /**
+     * Periodic summary of a loop over units. Must be advanced from a single thread.
+     */
+    final class Progress {
+
+        private final String label;
+        private final int total;
+        private final int changedFilesAtStart;
+        private final long start = System.nanoTime();
+        private long lastReport = start;
+        private int done;
+
+        private Progress(String label, int total, int changedFiles) {
+            this.label = label;
+            this.total = total;
+            this.changedFilesAtStart = changedFiles;
+        }
+
+        void advance(int units, int changedFiles) {
+            done = done + units;
+            if (!isEnabled(LogLevel.NORMAL)) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - lastReport >= PROGRESS_INTERVAL_NANOS && done < total) {
+                lastReport = now;
+                info(label + ": " + done + "/" + total + " units, " + (changedFiles - changedFilesAtStart)
+                        + " files changed so far.");
+            }
+        }
+
+        void finish(int changedFiles) {
+            info(() -> label + ": " + done + " units in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                    + " ms, " + (changedFiles - changedFilesAtStart) + " files changed.");
+        }
+    }
+}
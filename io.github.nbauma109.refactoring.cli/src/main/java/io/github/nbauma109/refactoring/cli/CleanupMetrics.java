@@ -0,0 +1,661 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the time spent in each phase of the cleanup refactorings, per cleanup, and the outcome of every
+ * refactoring. Cleanups run together are accounted under {@link #COMBINED}. Safe to use from worker threads.
+ */
+final class CleanupMetrics {
+
+    static final String COMBINED = "combined";
+
+    /**
+     * Upper bounds of the histogram buckets, from 100 microseconds to 10 seconds.
+     */
+    private static final long[] BUCKET_BOUNDS_NANOS = { 100_000L, 250_000L, 500_000L, 1_000_000L, 2_500_000L,
+            5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L, 100_000_000L, 250_000_000L, 500_000_000L,
+            1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L };
+
+    private static final String PREFIX = "refactoring_cli_";
+
+    enum Phase {
+        CHECK_INITIAL_CONDITIONS("checkInitialConditions"),
+        CHECK_FINAL_CONDITIONS("checkFinalConditions"),
+        CREATE_CHANGE("createChange"),
+        INITIALIZE_VALIDATION_DATA("initializeValidationData"),
+        IS_VALID("isValid"),
+        PERFORM("perform"),
+        REFRESH("refresh"),
+        FALLBACK("fallback");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        String getLabel() {
+            return label;
+        }
+    }
+
+    enum Outcome {
+        /** The change modified at least one file. */
+        CHANGED("changed"),
+        /** The refactoring had nothing to change. */
+        NO_CHANGE("no_change"),
+        /** A condition check or the validation of the change reported a fatal error. */
+        FATAL("fatal"),
+        /** The prefilter of the cleanup found that it cannot change the unit, which was not parsed. */
+        PREFILTERED("prefiltered"),
+        /** The refactoring was canceled by the watchdog of {@code --unit-timeout}. */
+        TIMED_OUT("timed_out");
+
+        private final String label;
+
+        Outcome(String label) {
+            this.label = label;
+        }
+
+        String getLabel() {
+            return label;
+        }
+    }
+
+    private final Map<Key, Histogram> phases = new ConcurrentHashMap<>();
+    private final Map<Key, AtomicLong> outcomes = new ConcurrentHashMap<>();
+    private final Map<Key, AtomicLong> fatalStatuses = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> skippedUnits = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> unitNanos = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> peakMemory = new ConcurrentHashMap<>();
+    private final Set<String> timedOutUnits = new ConcurrentSkipListSet<>();
+    private final Map<Integer, BatchTotals> batches = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> backgroundJobs = new ConcurrentHashMap<>();
+    private final long start = System.nanoTime();
+
+    /**
+     * Records the time of one phase of a refactoring, shared evenly between its units.
+     */
+    void record(String cleanUp, Phase phase, Collection<String> units, long nanos) {
+        phases.computeIfAbsent(new Key(cleanUp, phase.getLabel()), key -> new Histogram()).add(nanos);
+        if (!units.isEmpty()) {
+            long share = nanos / units.size();
+            for (String unit : units) {
+                unitNanos.computeIfAbsent(unit, key -> new AtomicLong()).addAndGet(share);
+            }
+        }
+    }
+
+    void outcome(String cleanUp, Outcome outcome) {
+        outcome(cleanUp, outcome, 1);
+    }
+
+    void outcome(String cleanUp, Outcome outcome, long count) {
+        if (count > 0) {
+            outcomes.computeIfAbsent(new Key(cleanUp, outcome.getLabel()), key -> new AtomicLong()).addAndGet(count);
+        }
+    }
+
+    void fatal(String cleanUp, Phase phase) {
+        fatalStatuses.computeIfAbsent(new Key(cleanUp, phase.getLabel()), key -> new AtomicLong()).incrementAndGet();
+        outcome(cleanUp, Outcome.FATAL);
+    }
+
+    /**
+     * Counts units that were not cleaned at all, e.g. because the result cache knows them to be clean.
+     */
+    void skipped(String reason, int units) {
+        if (units > 0) {
+            skippedUnits.computeIfAbsent(reason, key -> new AtomicLong()).addAndGet(units);
+        }
+    }
+
+    void batch(int size, int units, long nanos) {
+        batches.computeIfAbsent(size, key -> new BatchTotals()).add(1, units, nanos);
+    }
+
+    /**
+     * Prints the throughput of each batch size, unless every refactoring held a single unit.
+     */
+    void printBatchThroughput(CleanupLog log) {
+        if (!log.isEnabled(LogLevel.NORMAL) || batches.keySet().stream().allMatch(size -> size == 1)) {
+            return;
+        }
+        log.info("Throughput by units per refactoring:");
+        for (Map.Entry<Integer, BatchTotals> entry : new TreeMap<>(batches).entrySet()) {
+            BatchTotals totals = entry.getValue();
+            log.info(String.format(Locale.ROOT, "  %5d per refactoring  %8d batches  %10d units  %10.1f units/s",
+                    entry.getKey(), totals.batches.get(), totals.units.get(), totals.throughput()));
+        }
+    }
+
+    /**
+     * Adds time spent by background jobs of the given kind, such as {@code build} or {@code indexing}.
+     */
+    void backgroundJob(String kind, long nanos) {
+        backgroundJobs.computeIfAbsent(kind, key -> new AtomicLong()).addAndGet(nanos);
+    }
+
+    void timedOut(String unit) {
+        timedOutUnits.add(unit);
+    }
+
+    /**
+     * Prints the units that timed out, whatever the log level, since they were left uncleaned.
+     */
+    void printTimeouts(CleanupLog log) {
+        if (timedOutUnits.isEmpty()) {
+            return;
+        }
+        log.error(timedOutUnits.size() + " units timed out and were skipped:");
+        for (String unit : timedOutUnits) {
+            log.error("  " + unit);
+        }
+    }
+
+    /**
+     * Keeps the largest value reported for a peak memory figure, ignoring negative values for unavailable ones.
+     */
+    void peakMemory(String kind, long bytes) {
+        if (bytes >= 0) {
+            peakMemory.computeIfAbsent(kind, key -> new AtomicLong()).accumulateAndGet(bytes, Math::max);
+        }
+    }
+
+    long phaseNanos(Phase phase) {
+        long nanos = 0;
+        for (Map.Entry<Key, Histogram> entry : phases.entrySet()) {
+            if (entry.getKey().second().equals(phase.getLabel())) {
+                nanos = nanos + entry.getValue().sum();
+            }
+        }
+        return nanos;
+    }
+
+    /**
+     * Prints the cleanups that took the most time and the slowest units.
+     */
+    void printSummary(CleanupLog log, int slowest) {
+        if (!log.isEnabled(LogLevel.NORMAL)) {
+            return;
+        }
+        Map<String, Long> cleanUpNanos = new TreeMap<>();
+        for (Map.Entry<Key, Histogram> entry : phases.entrySet()) {
+            cleanUpNanos.merge(entry.getKey().first(), entry.getValue().sum(), Long::sum);
+        }
+        if (cleanUpNanos.isEmpty()) {
+            return;
+        }
+
+        log.info("Time per cleanup:");
+        cleanUpNanos.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(entry -> log.info(String.format(Locale.ROOT, "  %10d ms  %s",
+                        TimeUnit.NANOSECONDS.toMillis(entry.getValue()), entry.getKey())));
+
+        List<Map.Entry<String, Long>> units = slowestUnits(slowest);
+        if (!units.isEmpty()) {
+            log.info("Slowest units:");
+            for (Map.Entry<String, Long> unit : units) {
+                log.info(String.format(Locale.ROOT, "  %10d ms  %s",
+                        TimeUnit.NANOSECONDS.toMillis(unit.getValue()), unit.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Prints the summary, the batch throughput and the timed out units, then writes {@code --metrics-out}.
+     */
+    void report(CleanupLog log, CleanupOptions options) throws IOException {
+        printSummary(log, options.getSlowestUnits());
+        printBatchThroughput(log);
+        printTimeouts(log);
+        if (options.getMetricsOut() != null) {
+            write(options.getMetricsOut(), options.getMetricsFormat(), options.getSlowestUnits());
+            log.info("Wrote " + options.getMetricsFormat().getArgument() + " metrics to " + options.getMetricsOut());
+        }
+    }
+
+    void write(Path file, MetricsFormat format, int slowest) throws IOException {
+        String content = format == MetricsFormat.PROMETHEUS ? toPrometheus(slowest) : toJson(slowest);
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends the raw counters of the run in the form read back by {@link #mergeState(String)}.
+     */
+    void appendState(StringBuilder out, int slowest) {
+        for (Map.Entry<Key, Histogram> entry : sorted(phases)) {
+            Histogram histogram = entry.getValue().snapshot();
+            out.append("phase\t").append(entry.getKey().first()).append('\t').append(entry.getKey().second())
+                    .append('\t').append(histogram.count()).append('\t').append(histogram.sum()).append('\t')
+                    .append(histogram.max());
+            for (long count : histogram.bucketCounts()) {
+                out.append('\t').append(count);
+            }
+            out.append('\n');
+        }
+        for (Map.Entry<Key, AtomicLong> entry : sorted(outcomes)) {
+            out.append("outcome\t").append(entry.getKey().first()).append('\t').append(entry.getKey().second())
+                    .append('\t').append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<Key, AtomicLong> entry : sorted(fatalStatuses)) {
+            out.append("fatal\t").append(entry.getKey().first()).append('\t').append(entry.getKey().second())
+                    .append('\t').append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(skippedUnits).entrySet()) {
+            out.append("skipped\t").append(entry.getKey()).append('\t').append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, Long> unit : slowestUnits(slowest)) {
+            out.append("unit\t").append(unit.getKey()).append('\t').append(unit.getValue()).append('\n');
+        }
+        for (String unit : timedOutUnits) {
+            out.append("timeout\t").append(unit).append('\n');
+        }
+        for (Map.Entry<Integer, BatchTotals> entry : new TreeMap<>(batches).entrySet()) {
+            BatchTotals totals = entry.getValue();
+            out.append("batch\t").append(entry.getKey()).append('\t').append(totals.batches.get()).append('\t')
+                    .append(totals.units.get()).append('\t').append(totals.nanos.get()).append('\n');
+        }
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(backgroundJobs).entrySet()) {
+            out.append("background\t").append(entry.getKey()).append('\t').append(entry.getValue().get())
+                    .append('\n');
+        }
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(peakMemory).entrySet()) {
+            out.append("memory\t").append(entry.getKey()).append('\t').append(entry.getValue().get()).append('\n');
+        }
+    }
+
+    /**
+     * Adds one line written by {@link #appendState(StringBuilder, int)} to these metrics.
+     *
+     * @return {@code false} if the line does not hold metrics
+     */
+    boolean mergeState(String line) {
+        String[] fields = line.split("\t", -1);
+        if ("phase".equals(fields[0]) && fields.length == 6 + BUCKET_BOUNDS_NANOS.length + 1) {
+            phases.computeIfAbsent(new Key(fields[1], fields[2]), key -> new Histogram()).merge(fields, 3);
+        } else if ("outcome".equals(fields[0]) && fields.length == 4) {
+            outcomes.computeIfAbsent(new Key(fields[1], fields[2]), key -> new AtomicLong())
+                    .addAndGet(Long.parseLong(fields[3]));
+        } else if ("fatal".equals(fields[0]) && fields.length == 4) {
+            fatalStatuses.computeIfAbsent(new Key(fields[1], fields[2]), key -> new AtomicLong())
+                    .addAndGet(Long.parseLong(fields[3]));
+        } else if ("skipped".equals(fields[0]) && fields.length == 3) {
+            skippedUnits.computeIfAbsent(fields[1], key -> new AtomicLong()).addAndGet(Long.parseLong(fields[2]));
+        } else if ("unit".equals(fields[0]) && fields.length == 3) {
+            unitNanos.computeIfAbsent(fields[1], key -> new AtomicLong()).addAndGet(Long.parseLong(fields[2]));
+        } else if ("timeout".equals(fields[0]) && fields.length == 2) {
+            timedOutUnits.add(fields[1]);
+        } else if ("batch".equals(fields[0]) && fields.length == 5) {
+            batches.computeIfAbsent(Integer.parseInt(fields[1]), key -> new BatchTotals())
+                    .add(Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+        } else if ("background".equals(fields[0]) && fields.length == 3) {
+            backgroundJob(fields[1], Long.parseLong(fields[2]));
+        } else if ("memory".equals(fields[0]) && fields.length == 3) {
+            // the runs are separate processes, the peak of the whole is the peak of the largest one
+            peakMemory(fields[1], Long.parseLong(fields[2]));
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private List<Map.Entry<String, Long>> slowestUnits(int slowest) {
+        List<Map.Entry<String, Long>> units = new ArrayList<>();
+        for (Map.Entry<String, AtomicLong> entry : unitNanos.entrySet()) {
+            units.add(Map.entry(entry.getKey(), entry.getValue().get()));
+        }
+        units.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        return units.subList(0, Math.min(slowest, units.size()));
+    }
+
+    private String toJson(int slowest) {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"runSeconds\" : ").append(Json.number(seconds(System.nanoTime() - start))).append(",\n");
+
+        json.append("  \"phases\" : [");
+        String separator = "\n";
+        for (Map.Entry<Key, Histogram> entry : sorted(phases)) {
+            Histogram histogram = entry.getValue().snapshot();
+            json.append(separator).append("    { \"cleanup\" : ").append(Json.quote(entry.getKey().first()))
+                    .append(", \"phase\" : ").append(Json.quote(entry.getKey().second()))
+                    .append(", \"count\" : ").append(histogram.count())
+                    .append(", \"sumSeconds\" : ").append(Json.number(seconds(histogram.sum())))
+                    .append(", \"maxSeconds\" : ").append(Json.number(seconds(histogram.max())))
+                    .append(", \"p50Seconds\" : ").append(Json.number(seconds(histogram.quantile(0.50))))
+                    .append(", \"p90Seconds\" : ").append(Json.number(seconds(histogram.quantile(0.90))))
+                    .append(", \"p99Seconds\" : ").append(Json.number(seconds(histogram.quantile(0.99))))
+                    .append(", \"buckets\" : [");
+            long[] counts = histogram.bucketCounts();
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                json.append(bucket == 0 ? "" : ", ").append("{ \"le\" : ").append(bucketLabel(bucket))
+                        .append(", \"count\" : ").append(counts[bucket]).append(" }");
+            }
+            json.append("] }");
+            separator = ",\n";
+        }
+        json.append("\n  ],\n");
+
+        appendCounters(json, "outcomes", "outcome", outcomes);
+        appendCounters(json, "fatalStatuses", "phase", fatalStatuses);
+
+        json.append("  \"skippedUnits\" : {");
+        separator = " ";
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(skippedUnits).entrySet()) {
+            json.append(separator).append(Json.quote(entry.getKey())).append(" : ").append(entry.getValue().get());
+            separator = ", ";
+        }
+        json.append(" },\n");
+
+        json.append("  \"timedOutUnits\" : [");
+        separator = " ";
+        for (String unit : timedOutUnits) {
+            json.append(separator).append(Json.quote(unit));
+            separator = ", ";
+        }
+        json.append(" ],\n");
+
+        json.append("  \"batchSizes\" : [");
+        separator = "\n";
+        for (Map.Entry<Integer, BatchTotals> entry : new TreeMap<>(batches).entrySet()) {
+            BatchTotals totals = entry.getValue();
+            json.append(separator).append("    { \"unitsPerRefactoring\" : ").append(entry.getKey())
+                    .append(", \"batches\" : ").append(totals.batches.get())
+                    .append(", \"units\" : ").append(totals.units.get())
+                    .append(", \"seconds\" : ").append(Json.number(seconds(totals.nanos.get())))
+                    .append(", \"unitsPerSecond\" : ").append(Json.number(totals.throughput())).append(" }");
+            separator = ",\n";
+        }
+        json.append("\n  ],\n");
+
+        json.append("  \"backgroundJobSeconds\" : {");
+        separator = " ";
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(backgroundJobs).entrySet()) {
+            json.append(separator).append(Json.quote(entry.getKey())).append(" : ")
+                    .append(Json.number(seconds(entry.getValue().get())));
+            separator = ", ";
+        }
+        json.append(" },\n");
+
+        json.append("  \"peakMemoryBytes\" : {");
+        separator = " ";
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(peakMemory).entrySet()) {
+            json.append(separator).append(Json.quote(entry.getKey())).append(" : ").append(entry.getValue().get());
+            separator = ", ";
+        }
+        json.append(" },\n");
+
+        json.append("  \"slowestUnits\" : [");
+        separator = "\n";
+        for (Map.Entry<String, Long> unit : slowestUnits(slowest)) {
+            json.append(separator).append("    { \"unit\" : ").append(Json.quote(unit.getKey()))
+                    .append(", \"seconds\" : ").append(Json.number(seconds(unit.getValue()))).append(" }");
+            separator = ",\n";
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    private void appendCounters(StringBuilder json, String name, String secondLabel, Map<Key, AtomicLong> counters) {
+        json.append("  ").append(Json.quote(name)).append(" : [");
+        String separator = "\n";
+        for (Map.Entry<Key, AtomicLong> entry : sorted(counters)) {
+            json.append(separator).append("    { \"cleanup\" : ").append(Json.quote(entry.getKey().first()))
+                    .append(", ").append(Json.quote(secondLabel)).append(" : ")
+                    .append(Json.quote(entry.getKey().second()))
+                    .append(", \"count\" : ").append(entry.getValue().get()).append(" }");
+            separator = ",\n";
+        }
+        json.append("\n  ],\n");
+    }
+
+    private String toPrometheus(int slowest) {
+        StringBuilder text = new StringBuilder();
+
+        String phaseMetric = PREFIX + "phase_seconds";
+        text.append("# HELP ").append(phaseMetric).append(" Time spent in each phase of the cleanup refactorings.\n");
+        text.append("# TYPE ").append(phaseMetric).append(" histogram\n");
+        for (Map.Entry<Key, Histogram> entry : sorted(phases)) {
+            Histogram histogram = entry.getValue().snapshot();
+            String labels = "cleanup=\"" + escapeLabel(entry.getKey().first()) + "\",phase=\""
+                    + escapeLabel(entry.getKey().second()) + "\"";
+            long cumulative = 0;
+            long[] counts = histogram.bucketCounts();
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                cumulative = cumulative + counts[bucket];
+                String bound = bucket < BUCKET_BOUNDS_NANOS.length
+                        ? prometheusNumber(seconds(BUCKET_BOUNDS_NANOS[bucket]))
+                        : "+Inf";
+                text.append(phaseMetric).append("_bucket{").append(labels).append(",le=\"").append(bound)
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            text.append(phaseMetric).append("_sum{").append(labels).append("} ")
+                    .append(prometheusNumber(seconds(histogram.sum()))).append('\n');
+            text.append(phaseMetric).append("_count{").append(labels).append("} ").append(histogram.count())
+                    .append('\n');
+        }
+
+        appendPrometheusCounters(text, PREFIX + "refactorings_total", "Refactorings by cleanup and outcome.",
+                "outcome", outcomes);
+        appendPrometheusCounters(text, PREFIX + "fatal_statuses_total",
+                "Fatal refactoring statuses by cleanup and phase.", "phase", fatalStatuses);
+
+        String skippedMetric = PREFIX + "skipped_units_total";
+        text.append("# HELP ").append(skippedMetric).append(" Units that were not cleaned, by reason.\n");
+        text.append("# TYPE ").append(skippedMetric).append(" counter\n");
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(skippedUnits).entrySet()) {
+            text.append(skippedMetric).append("{reason=\"").append(escapeLabel(entry.getKey())).append("\"} ")
+                    .append(entry.getValue().get()).append('\n');
+        }
+
+        String unitMetric = PREFIX + "slowest_unit_seconds";
+        text.append("# HELP ").append(unitMetric).append(" Time spent on the slowest units, all phases included.\n");
+        text.append("# TYPE ").append(unitMetric).append(" gauge\n");
+        for (Map.Entry<String, Long> unit : slowestUnits(slowest)) {
+            text.append(unitMetric).append("{unit=\"").append(escapeLabel(unit.getKey())).append("\"} ")
+                    .append(prometheusNumber(seconds(unit.getValue()))).append('\n');
+        }
+
+        String timeoutMetric = PREFIX + "timed_out_unit";
+        text.append("# HELP ").append(timeoutMetric).append(" Units skipped because their cleanup timed out.\n");
+        text.append("# TYPE ").append(timeoutMetric).append(" gauge\n");
+        for (String unit : timedOutUnits) {
+            text.append(timeoutMetric).append("{unit=\"").append(escapeLabel(unit)).append("\"} 1\n");
+        }
+
+        String batchUnitsMetric = PREFIX + "batch_units_total";
+        text.append("# HELP ").append(batchUnitsMetric).append(" Units cleaned, by units per refactoring.\n");
+        text.append("# TYPE ").append(batchUnitsMetric).append(" counter\n");
+        for (Map.Entry<Integer, BatchTotals> entry : new TreeMap<>(batches).entrySet()) {
+            text.append(batchUnitsMetric).append("{size=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().units.get()).append('\n');
+        }
+        String batchSecondsMetric = PREFIX + "batch_seconds_total";
+        text.append("# HELP ").append(batchSecondsMetric)
+                .append(" Time spent in refactoring batches, by units per refactoring.\n");
+        text.append("# TYPE ").append(batchSecondsMetric).append(" counter\n");
+        for (Map.Entry<Integer, BatchTotals> entry : new TreeMap<>(batches).entrySet()) {
+            text.append(batchSecondsMetric).append("{size=\"").append(entry.getKey()).append("\"} ")
+                    .append(prometheusNumber(seconds(entry.getValue().nanos.get()))).append('\n');
+        }
+
+        String backgroundMetric = PREFIX + "background_job_seconds_total";
+        text.append("# HELP ").append(backgroundMetric)
+                .append(" Time spent by background jobs during the run, by kind.\n");
+        text.append("# TYPE ").append(backgroundMetric).append(" counter\n");
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(backgroundJobs).entrySet()) {
+            text.append(backgroundMetric).append("{kind=\"").append(escapeLabel(entry.getKey())).append("\"} ")
+                    .append(prometheusNumber(seconds(entry.getValue().get()))).append('\n');
+        }
+
+        String memoryMetric = PREFIX + "peak_memory_bytes";
+        text.append("# HELP ").append(memoryMetric).append(" Peak memory of the run, by kind.\n");
+        text.append("# TYPE ").append(memoryMetric).append(" gauge\n");
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(peakMemory).entrySet()) {
+            text.append(memoryMetric).append("{kind=\"").append(escapeLabel(entry.getKey())).append("\"} ")
+                    .append(entry.getValue().get()).append('\n');
+        }
+
+        String runMetric = PREFIX + "run_seconds";
+        text.append("# HELP ").append(runMetric).append(" Duration of the run.\n");
+        text.append("# TYPE ").append(runMetric).append(" gauge\n");
+        text.append(runMetric).append(' ').append(prometheusNumber(seconds(System.nanoTime() - start))).append('\n');
+        return text.toString();
+    }
+
+    private void appendPrometheusCounters(StringBuilder text, String metric, String help, String secondLabel,
+            Map<Key, AtomicLong> counters) {
+        text.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(metric).append(" counter\n");
+        for (Map.Entry<Key, AtomicLong> entry : sorted(counters)) {
+            text.append(metric).append("{cleanup=\"").append(escapeLabel(entry.getKey().first())).append("\",")
+                    .append(secondLabel).append("=\"").append(escapeLabel(entry.getKey().second())).append("\"} ")
+                    .append(entry.getValue().get()).append('\n');
+        }
+    }
+
+    private static <V> List<Map.Entry<Key, V>> sorted(Map<Key, V> map) {
+        List<Map.Entry<Key, V>> entries = new ArrayList<>(map.entrySet());
+        entries.sort(Comparator.comparing((Map.Entry<Key, V> entry) -> entry.getKey().first())
+                .thenComparing(entry -> entry.getKey().second()));
+        return entries;
+    }
+
+    private static String bucketLabel(int bucket) {
+        return bucket < BUCKET_BOUNDS_NANOS.length ? Json.number(seconds(BUCKET_BOUNDS_NANOS[bucket])) : "\"+Inf\"";
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String prometheusNumber(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1_000_000_000.0;
+    }
+
+    private record Key(String first, String second) {
+    }
+
+    /**
+     * Number of batches of one size, with the units they held and the time they took.
+     */
+    private static final class BatchTotals {
+
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong units = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+
+        void add(long batchCount, long unitCount, long batchNanos) {
+            batches.addAndGet(batchCount);
+            units.addAndGet(unitCount);
+            nanos.addAndGet(batchNanos);
+        }
+
+        double throughput() {
+            long total = nanos.get();
+            return total > 0 ? units.get() * 1e9 / total : 0;
+        }
+    }
+
+    /**
+     * Counts per bucket, plus one overflow bucket, and the sum and maximum of the recorded times.
+     */
+    private static final class Histogram {
+
+        private final long[] counts = new long[BUCKET_BOUNDS_NANOS.length + 1];
+        private long count;
+        private long sum;
+        private long max;
+
+        synchronized void add(long nanos) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_NANOS.length && nanos > BUCKET_BOUNDS_NANOS[bucket]) {
+                bucket = bucket + 1;
+            }
+            counts[bucket] = counts[bucket] + 1;
+            count = count + 1;
+            sum = sum + nanos;
+            max = Math.max(max, nanos);
+        }
+
+        /**
+         * Adds the count, sum, maximum and bucket counts stored in {@code fields} from {@code offset} on.
+         */
+        synchronized void merge(String[] fields, int offset) {
+            count = count + Long.parseLong(fields[offset]);
+            sum = sum + Long.parseLong(fields[offset + 1]);
+            max = Math.max(max, Long.parseLong(fields[offset + 2]));
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                counts[bucket] = counts[bucket] + Long.parseLong(fields[offset + 3 + bucket]);
+            }
+        }
+
+        synchronized Histogram snapshot() {
+            Histogram copy = new Histogram();
+            System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+            copy.count = count;
+            copy.sum = sum;
+            copy.max = max;
+            return copy;
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        synchronized long sum() {
+            return sum;
+        }
+
+        synchronized long max() {
+            return max;
+        }
+
+        synchronized long[] bucketCounts() {
+            return counts.clone();
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the quantile, or the maximum for the overflow bucket
+         */
+        synchronized long quantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_BOUNDS_NANOS.length; bucket++) {
+                seen = seen + counts[bucket];
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS_NANOS[bucket], max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optional settings of a {@link CleanupRunner} run.
+ */
+public class CleanupOptions implements Cloneable {
+
+    private EngineMode engineMode = EngineMode.CLEANUP_MAJOR;
+    private int unitsPerRefactoring = 1;
+    private boolean adaptiveUnitsPerRefactoring;
+    private int threads = 1;
+    private RefreshMode refreshMode = RefreshMode.TOUCHED;
+    private BackgroundMode backgroundMode = BackgroundMode.RUN;
+    private ArchiveRefreshMode archiveRefreshMode = ArchiveRefreshMode.RUN;
+    private boolean defaultExcludes = true;
+    private final List<String> excludes = new ArrayList<>();
+    private int scanThreads = 1;
+    private ProjectModel projectModel = ProjectModel.SCAN;
+    private String changedSince;
+    private Path filesFrom;
+    private Path cacheDir;
+    private int cacheMaxEntries = 1_000_000;
+    private boolean reuseWorkspace;
+    private Path metricsOut;
+    private MetricsFormat metricsFormat = MetricsFormat.JSON;
+    private int slowestUnits = 10;
+    private LogLevel logLevel = LogLevel.NORMAL;
+    private Path logJson;
+    private boolean dryRun;
+    private Path patchOut;
+    private int shardIndex = 1;
+    private int shardCount = 1;
+    private ShardKey shardKey = ShardKey.PATH;
+    private Path shardReport;
+    private int streamBatch;
+    private double maxHeapFraction;
+    private int fallbackBatch = 50;
+    private boolean prefilter = true;
+    private long unitTimeoutSeconds;
+    private int rootThreads;
+
+    public EngineMode getEngineMode() {
+        return engineMode;
+    }
+
+    public void setEngineMode(EngineMode engineMode) {
+        this.engineMode = engineMode;
+    }
+
+    public int getUnitsPerRefactoring() {
+        return unitsPerRefactoring;
+    }
+
+    public void setUnitsPerRefactoring(int unitsPerRefactoring) {
+        if (unitsPerRefactoring < 1) {
+            throw new IllegalArgumentException("Units per refactoring must be at least 1: " + unitsPerRefactoring);
+        }
+        this.unitsPerRefactoring = unitsPerRefactoring;
+    }
+
+    public boolean isAdaptiveUnitsPerRefactoring() {
+        return adaptiveUnitsPerRefactoring;
+    }
+
+    /**
+     * Lets the run choose the number of units per refactoring from the measured throughput and the heap headroom,
+     * instead of {@link #getUnitsPerRefactoring()}.
+     */
+    public void setAdaptiveUnitsPerRefactoring(boolean adaptiveUnitsPerRefactoring) {
+        this.adaptiveUnitsPerRefactoring = adaptiveUnitsPerRefactoring;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    public RefreshMode getRefreshMode() {
+        return refreshMode;
+    }
+
+    public void setRefreshMode(RefreshMode refreshMode) {
+        this.refreshMode = refreshMode;
+    }
+
+    public BackgroundMode getBackgroundMode() {
+        return backgroundMode;
+    }
+
+    public void setBackgroundMode(BackgroundMode backgroundMode) {
+        this.backgroundMode = backgroundMode;
+    }
+
+    public ArchiveRefreshMode getArchiveRefreshMode() {
+        return archiveRefreshMode;
+    }
+
+    public void setArchiveRefreshMode(ArchiveRefreshMode archiveRefreshMode) {
+        this.archiveRefreshMode = archiveRefreshMode;
+    }
+
+    public boolean isDefaultExcludes() {
+        return defaultExcludes;
+    }
+
+    public void setDefaultExcludes(boolean defaultExcludes) {
+        this.defaultExcludes = defaultExcludes;
+    }
+
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    public void addExclude(String glob) {
+        excludes.add(glob);
+    }
+
+    public ProjectModel getProjectModel() {
+        return projectModel;
+    }
+
+    public void setProjectModel(ProjectModel projectModel) {
+        this.projectModel = projectModel;
+    }
+
+    public int getScanThreads() {
+        return scanThreads;
+    }
+
+    public void setScanThreads(int scanThreads) {
+        if (scanThreads < 1) {
+            throw new IllegalArgumentException("Scan thread count must be at least 1: " + scanThreads);
+        }
+        this.scanThreads = scanThreads;
+    }
+
+    public String getChangedSince() {
+        return changedSince;
+    }
+
+    public void setChangedSince(String changedSince) {
+        if (changedSince != null && changedSince.startsWith("-")) {
+            throw new IllegalArgumentException("Revision must not start with '-': " + changedSince);
+        }
+        this.changedSince = changedSince;
+    }
+
+    public Path getFilesFrom() {
+        return filesFrom;
+    }
+
+    public void setFilesFrom(Path filesFrom) {
+        this.filesFrom = filesFrom;
+    }
+
+    public boolean isIncremental() {
+        return changedSince != null || filesFrom != null;
+    }
+
+    public Path getCacheDir() {
+        return cacheDir;
+    }
+
+    public void setCacheDir(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        if (cacheMaxEntries < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1: " + cacheMaxEntries);
+        }
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    public boolean isReuseWorkspace() {
+        return reuseWorkspace;
+    }
+
+    public void setReuseWorkspace(boolean reuseWorkspace) {
+        this.reuseWorkspace = reuseWorkspace;
+    }
+
+    public Path getMetricsOut() {
+        return metricsOut;
+    }
+
+    public void setMetricsOut(Path metricsOut) {
+        this.metricsOut = metricsOut;
+    }
+
+    public MetricsFormat getMetricsFormat() {
+        return metricsFormat;
+    }
+
+    public void setMetricsFormat(MetricsFormat metricsFormat) {
+        this.metricsFormat = metricsFormat;
+    }
+
+    public int getSlowestUnits() {
+        return slowestUnits;
+    }
+
+    public void setSlowestUnits(int slowestUnits) {
+        if (slowestUnits < 0) {
+            throw new IllegalArgumentException("Number of slowest units must not be negative: " + slowestUnits);
+        }
+        this.slowestUnits = slowestUnits;
+    }
+
+    public LogLevel getLogLevel() {
+        return logLevel;
+    }
+
+    public void setLogLevel(LogLevel logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    public Path getLogJson() {
+        return logJson;
+    }
+
+    public void setLogJson(Path logJson) {
+        this.logJson = logJson;
+    }
+
+    /**
+     * @return {@code true} if changes are only reported, which is implied by a patch file
+     */
+    public boolean isDryRun() {
+        return dryRun || patchOut != null;
+    }
+
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public Path getPatchOut() {
+        return patchOut;
+    }
+
+    public void setPatchOut(Path patchOut) {
+        this.patchOut = patchOut;
+    }
+
+    /**
+     * @return the shard to clean, from 1 to {@link #getShardCount()}
+     */
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Restricts the run to one of {@code shardCount} disjoint parts of the compilation units.
+     *
+     * @param shardIndex the part to clean, from 1 to {@code shardCount}
+     */
+    public void setShard(int shardIndex, int shardCount) {
+        if (shardCount < 1 || shardIndex < 1 || shardIndex > shardCount) {
+            throw new IllegalArgumentException("Shard must be between 1/" + shardCount + " and " + shardCount + "/"
+                    + shardCount + ": " + shardIndex + "/" + shardCount);
+        }
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Parses a shard given as {@code i/N}.
+     */
+    public void setShard(String shard) {
+        int slash = shard.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Shard must be given as <index>/<count>: " + shard);
+        }
+        setShard(Integer.parseInt(shard.substring(0, slash).trim()), Integer.parseInt(shard.substring(slash + 1).trim()));
+    }
+
+    public ShardKey getShardKey() {
+        return shardKey;
+    }
+
+    public void setShardKey(ShardKey shardKey) {
+        this.shardKey = shardKey;
+    }
+
+    public Path getShardReport() {
+        return shardReport;
+    }
+
+    /**
+     * Sets the file where the changed files and the raw metrics of the run are written for the shard coordinator.
+     */
+    public void setShardReport(Path shardReport) {
+        this.shardReport = shardReport;
+    }
+
+    public int getStreamBatch() {
+        return streamBatch;
+    }
+
+    public boolean isStreaming() {
+        return streamBatch > 0;
+    }
+
+    /**
+     * Sets the largest number of units loaded at once in streaming mode, {@code 0} to load every unit up front.
+     */
+    public void setStreamBatch(int streamBatch) {
+        if (streamBatch < 0) {
+            throw new IllegalArgumentException("Stream batch size must not be negative: " + streamBatch);
+        }
+        this.streamBatch = streamBatch;
+    }
+
+    public double getMaxHeapFraction() {
+        return maxHeapFraction;
+    }
+
+    /**
+     * Sets the fraction of the maximum heap that the live data may use after a collection before streaming mode
+     * shrinks its batches, {@code 0} for no back-pressure.
+     */
+    public void setMaxHeapFraction(double maxHeapFraction) {
+        if (maxHeapFraction < 0 || maxHeapFraction > 1) {
+            throw new IllegalArgumentException("Heap fraction must be between 0 and 1: " + maxHeapFraction);
+        }
+        this.maxHeapFraction = maxHeapFraction;
+    }
+
+    public boolean isPrefilter() {
+        return prefilter;
+    }
+
+    /**
+     * Sets whether units are tested for the tokens a cleanup needs before they are parsed for it.
+     */
+    public void setPrefilter(boolean prefilter) {
+        this.prefilter = prefilter;
+    }
+
+    public long getUnitTimeoutSeconds() {
+        return unitTimeoutSeconds;
+    }
+
+    /**
+     * Sets the time after which the work on a unit is canceled and the unit skipped, {@code 0} for no limit.
+     */
+    public void setUnitTimeoutSeconds(long unitTimeoutSeconds) {
+        if (unitTimeoutSeconds < 0) {
+            throw new IllegalArgumentException("Unit timeout must not be negative: " + unitTimeoutSeconds);
+        }
+        this.unitTimeoutSeconds = unitTimeoutSeconds;
+    }
+
+    public int getFallbackBatch() {
+        return fallbackBatch;
+    }
+
+    /**
+     * Sets the number of units whose bindings the instanceof fallback resolves together with one parser.
+     */
+    public void setFallbackBatch(int fallbackBatch) {
+        if (fallbackBatch < 1) {
+            throw new IllegalArgumentException("Fallback batch size must be at least 1: " + fallbackBatch);
+        }
+        this.fallbackBatch = fallbackBatch;
+    }
+
+    public int getRootThreads() {
+        return rootThreads;
+    }
+
+    /**
+     * Sets the number of project roots cleaned at the same time when several are given, {@code 0} to derive it from
+     * the processors and {@link #getThreads()}.
+     */
+    public void setRootThreads(int rootThreads) {
+        if (rootThreads < 1) {
+            throw new IllegalArgumentException("Root thread count must be at least 1: " + rootThreads);
+        }
+        this.rootThreads = rootThreads;
+    }
+
+    /**
+     * @return a copy of these options, sharing their excludes, for the run of one of several project roots
+     */
+    CleanupOptions copy() {
+        try {
+            return (CleanupOptions) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,2054 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IProjectDescription;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTMatcher;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.CastExpression;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.Expression;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.IfStatement;
+import org.eclipse.jdt.core.dom.InstanceofExpression;
+import org.eclipse.jdt.core.dom.ParenthesizedExpression;
+import org.eclipse.jdt.core.dom.SimpleName;
+import org.eclipse.jdt.core.dom.Type;
+import org.eclipse.jdt.internal.corext.dom.ASTNodes;
+import org.eclipse.jdt.internal.corext.fix.CleanUpRefactoring;
+import org.eclipse.jdt.internal.corext.fix.CleanUpRegistry;
+import org.eclipse.jdt.internal.ui.JavaPlugin;
+import org.eclipse.jdt.internal.ui.fix.MapCleanUpOptions;
+import org.eclipse.jdt.ui.cleanup.ICleanUp;
+import org.eclipse.ltk.core.refactoring.Change;
+import org.eclipse.ltk.core.refactoring.CompositeChange;
+import org.eclipse.ltk.core.refactoring.RefactoringStatus;
+import org.eclipse.ltk.core.refactoring.TextFileChange;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.TextEdit;
+import org.osgi.framework.Bundle;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+public class CleanupRunner {
+
+    private static final String PLUGIN_ID = "io.github.nbauma109.refactoring.cli";
+    static final String PROJECT_NAME = "refactoring-cli-project";
+    private static final String INSTANCEOF_FALLBACK = "InstanceofPatternFallback";
+    private static final int WORK_ITEMS_PER_THREAD = 4;
+
+    private static final List<String> CACHE_CONTEXT_BUNDLES = List.of(
+            "org.eclipse.jdt.core",
+            "org.eclipse.jdt.core.manipulation",
+            "org.eclipse.jdt.ui",
+            PLUGIN_ID);
+
+    private final Path projectRoot;
+    private final String projectName;
+    private final Path profileFile;
+    private final String sourceLevel;
+    private final List<String> extraClasspath;
+    private final CleanupOptions options;
+    private final CleanupMetrics metrics = new CleanupMetrics();
+    private final CleanupLog log;
+
+    private PatchOutput patch;
+    private boolean inMemory;
+    private boolean streamPatches;
+    private final Set<ICompilationUnit> patchedUnits = new HashSet<>();
+    private final Map<String, Prefilter> prefilters = new ConcurrentHashMap<>();
+    private final UnitWatchdog watchdog;
+    private final Set<ICompilationUnit> timedOutUnits = ConcurrentHashMap.newKeySet();
+    private final BatchSizer batchSizer;
+    private final BackgroundJobs backgroundJobs;
+    private ProjectScanner scanner;
+    private long collectionsAtShrink = -1;
+
+    public CleanupRunner(Path projectRoot, Path profileFile, String sourceLevel, List<String> extraClasspath) {
+        this(projectRoot, profileFile, sourceLevel, extraClasspath, new CleanupOptions());
+    }
+
+    public CleanupRunner(Path projectRoot, Path profileFile, String sourceLevel, List<String> extraClasspath,
+            CleanupOptions options) {
+        this(projectRoot, profileFile, sourceLevel, extraClasspath, options, null);
+    }
+
+    /**
+     * @param rootName the name of the root in a {@link MultiRootRunner} run, {@code null} for a run on its own
+     */
+    CleanupRunner(Path projectRoot, Path profileFile, String sourceLevel, List<String> extraClasspath,
+            CleanupOptions options, String rootName) {
+        this.projectRoot = projectRoot;
+        this.projectName = rootName != null ? PROJECT_NAME + "-" + rootName : PROJECT_NAME;
+        this.profileFile = profileFile;
+        this.sourceLevel = sourceLevel;
+        this.extraClasspath = extraClasspath;
+        this.options = options;
+        this.log = new CleanupLog(options.getLogLevel(), options.getLogJson(),
+                rootName != null ? "[" + rootName + "] " : "");
+        this.watchdog = new UnitWatchdog(TimeUnit.SECONDS.toMillis(options.getUnitTimeoutSeconds()), log);
+        this.batchSizer = new BatchSizer(options.isAdaptiveUnitsPerRefactoring(), options.getUnitsPerRefactoring(),
+                options.getMaxHeapFraction(), metrics, log);
+        this.backgroundJobs = rootName == null ? new BackgroundJobs(options.getBackgroundMode(), log) : null;
+    }
+
+    CleanupMetrics getMetrics() {
+        return metrics;
+    }
+
+    public List<Path> run() throws Exception {
+        try {
+            return runLogged();
+        } finally {
+            if (backgroundJobs != null) {
+                backgroundJobs.close();
+            }
+            watchdog.close();
+            log.close();
+        }
+    }
+
+    private List<Path> runLogged() throws Exception {
+
+        LoggingMonitor monitor = new LoggingMonitor(log);
+
+        log.info("=== Starting cleanup ===");
+        log.info("Project root: " + projectRoot);
+        log.info("Profile file: " + profileFile);
+        log.info("Source level: " + sourceLevel);
+        if (options.getEngineMode() == EngineMode.UNIT_MAJOR) {
+            log.error("The unit-major engine is experimental, its output may differ from the cleanup-major engine.");
+        }
+
+        if (backgroundJobs != null) {
+            backgroundJobs.start();
+        }
+
+        IWorkspace workspace = ResourcesPlugin.getWorkspace();
+        IWorkspaceRoot wsRoot = workspace.getRoot();
+
+        IProject project = wsRoot.getProject(projectName);
+        boolean reused = options.isReuseWorkspace() && project.exists();
+        if (reused) {
+            log.info("Reusing workspace project...");
+            if (!project.isOpen()) {
+                project.open(monitor);
+            }
+        } else {
+            log.info("Creating temporary workspace project...");
+            if (project.exists()) {
+                if (project.isOpen()) {
+                    project.close(monitor);
+                }
+                project.delete(true, true, monitor);
+            }
+            project.create(monitor);
+            project.open(monitor);
+        }
+
+        addJavaNature(project);
+        log.info("Java nature enabled.");
+
+        long layoutStart = System.nanoTime();
+        scanner = new ProjectScanner(projectRoot, options.isDefaultExcludes(), options.getExcludes(),
+                options.getScanThreads());
+        ProjectScanner.ProjectScan scan = null;
+        if (options.getProjectModel() == ProjectModel.BUILD_FILES) {
+            log.info("Reading build files...");
+            BuildModelReader reader = new BuildModelReader(projectRoot, scanner,
+                    BuildModelReader.defaultMavenRepository(), BuildModelReader.defaultGradleCache(), log);
+            scan = reader.read();
+            if (scan != null) {
+                log.info("Read " + reader.getModules() + " modules from build files, resolved "
+                        + scan.libraries().size() + " library jars offline.");
+                if (!reader.getMissingLibraries().isEmpty()) {
+                    log.info(reader.getMissingLibraries().size()
+                            + " dependencies are not in the local repositories and were left out.");
+                    log.verbose(() -> "Missing dependencies: " + String.join(", ", reader.getMissingLibraries()));
+                }
+            } else {
+                log.info("No usable build files, scanning the project root instead.");
+            }
+        }
+        if (scan == null) {
+            log.info("Scanning project root...");
+            scan = scanner.scan();
+            log.info("Found " + scan.javaFiles().size() + " Java files, read " + scanner.getSniffedPackages()
+                    + " package declarations from file headers and " + scanner.getParsedPackages()
+                    + " with the parser.");
+        }
+        Set<Path> sourceFolders = scan.sourceFolders();
+        log.info("Detected " + sourceFolders.size() + " source folders in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - layoutStart) + " ms.");
+
+        Set<String> requiredBundles = scan.requiredBundles();
+        Set<Path> manifestLibraries = scan.manifestLibraries();
+        Set<Path> libraries = new LinkedHashSet<>(manifestLibraries);
+        libraries.addAll(scan.libraries());
+        String setupFingerprint = describeSetup(sourceFolders, requiredBundles, libraries);
+
+        IJavaProject javaProject = JavaCore.create(project);
+        WorkspaceRefresher refresher =
+                new WorkspaceRefresher(project, javaProject, options.getRefreshMode(), options.getArchiveRefreshMode(), log);
+
+        if (reused && setupFingerprint.equals(readSetupFingerprint(project))) {
+            log.info("Workspace setup unchanged, keeping linked folders, classpath and indexes.");
+
+            refresher.refreshProject(monitor);
+            log.info("Workspace refreshed.");
+        } else {
+            log.info("Linking source folders...");
+            Map<IPath, IFolder> linkedFolders = linkSourceFolders(project, sourceFolders, monitor);
+
+            refresher.refreshProject(monitor);
+            log.info("Workspace refreshed.");
+
+            setEncoding(project);
+            log.info("Encoding set to UTF-8.");
+
+            log.info("Configuring classpath...");
+            if (!requiredBundles.isEmpty()) {
+                log.info("Detected " + requiredBundles.size() + " required OSGi bundles from MANIFEST.MF.");
+            }
+            if (!manifestLibraries.isEmpty()) {
+                log.info("Detected " + manifestLibraries.size() + " local MANIFEST.MF library entries.");
+            }
+            configureClasspath(javaProject, linkedFolders, requiredBundles, libraries);
+
+            log.info("Configuring compiler options...");
+            configureCompilerOptions(javaProject);
+
+            writeSetupFingerprint(project, setupFingerprint);
+        }
+
+        if (options.isStreaming()) {
+            return runStreaming(javaProject, refresher, monitor);
+        }
+        if (options.getMaxHeapFraction() > 0 && !batchSizer.isAdaptive()) {
+            log.info("--max-heap-fraction only applies with --stream-batch or --units-per-refactoring auto, ignoring it.");
+        }
+
+        log.info("Collecting compilation units...");
+        List<ICompilationUnit> units = collectCompilationUnits(javaProject);
+        log.info("Found " + units.size() + " compilation units.");
+
+        int linkedUnits = units.size();
+        units = withoutExcluded(units);
+        if (units.size() < linkedUnits) {
+            log.info("Left out " + (linkedUnits - units.size())
+                    + " compilation units in excluded directories of the source folders.");
+        }
+
+        if (options.getShardCount() > 1) {
+            int found = units.size();
+            units = selectShard(units);
+            log.info("Shard " + options.getShardIndex() + "/" + options.getShardCount() + ": selected " + units.size()
+                    + " compilation units out of " + found + " by " + options.getShardKey().getArgument() + ".");
+            metrics.skipped("other_shards", found - units.size());
+        }
+
+        int totalUnits = units.size();
+        if (options.isIncremental()) {
+            Set<Path> selectedFiles = readSelectedFiles();
+            units = selectChangedUnits(units, selectedFiles);
+            log.info("Selected " + units.size() + " changed compilation units out of " + totalUnits + ".");
+            Path realRoot = ChangedFiles.realPath(projectRoot);
+            if (units.isEmpty() && selectedFiles.stream()
+                    .anyMatch(file -> file.startsWith(realRoot) && file.toString().endsWith(".java"))) {
+                log.info("None of the selected Java files below the project root is in a detected source folder.");
+            }
+            metrics.skipped("unselected", totalUnits - units.size());
+        }
+
+        if (units.isEmpty()) {
+            log.always("Nothing to clean.");
+            reportMetrics(List.of());
+            return new ArrayList<>();
+        }
+
+        log.info("Loading cleanup settings...");
+        Map<String, String> cleanupSettings = loadCleanupSettingsFromProfile(profileFile);
+        cleanupSettings.put("cleanup.organize_imports", "false");
+
+        log.info("Loading available cleanups...");
+        List<ICleanUp> enabledCleanUps = createEnabledCleanUps(cleanupSettings);
+        log.info("Enabled " + enabledCleanUps.size() + " cleanup modules from profile.");
+
+        ResultCache cache = null;
+        Map<ICompilationUnit, ResultCache.Key> cacheKeys = new HashMap<>();
+        if (options.getCacheDir() != null) {
+            cache = new ResultCache(options.getCacheDir(), options.getCacheMaxEntries(), log);
+            cache.load();
+            log.info("Loaded " + cache.size() + " result cache entries from " + options.getCacheDir() + ".");
+            int candidates = units.size();
+            units = skipCachedUnits(cache, cacheKeys, units, cacheContext(javaProject, cleanupSettings));
+            log.info("Result cache: " + (candidates - units.size()) + " of " + candidates
+                    + " units already clean, skipped.");
+            if (units.isEmpty()) {
+                cache.record(cacheKeys.values());
+                log.always("Nothing to clean.");
+                reportMetrics(List.of());
+                return new ArrayList<>();
+            }
+        }
+
+        List<Path> changed = new ArrayList<>();
+        long cleanupStart = System.nanoTime();
+
+        boolean fallback = prepareEngine(cleanupSettings);
+        try {
+            cleanBatch(units, refresher, cleanupSettings, enabledCleanUps, fallback, changed, monitor);
+            if (patch != null) {
+                changed = new ArrayList<>(patch.getFiles());
+            }
+        } finally {
+            if (patch != null) {
+                patch.close();
+            }
+        }
+
+        refresher.runFinished(monitor);
+        long cleanupNanos = System.nanoTime() - cleanupStart;
+
+        if (cache != null) {
+            recordCleanUnits(cache, cacheKeys, changed);
+        }
+
+        return finishRun(refresher, changed, units.size(), totalUnits, cleanupNanos, monitor);
+    }
+
+    /**
+     * Cleans the units one {@link UnitStream} batch at a time, so that only the units of one batch, their working
+     * copies and their ASTs are held at once.
+     */
+    private List<Path> runStreaming(IJavaProject javaProject, WorkspaceRefresher refresher, LoggingMonitor monitor)
+            throws Exception {
+        log.info("Loading cleanup settings...");
+        Map<String, String> cleanupSettings = loadCleanupSettingsFromProfile(profileFile);
+        cleanupSettings.put("cleanup.organize_imports", "false");
+
+        log.info("Loading available cleanups...");
+        List<ICleanUp> enabledCleanUps = createEnabledCleanUps(cleanupSettings);
+        log.info("Enabled " + enabledCleanUps.size() + " cleanup modules from profile.");
+
+        // the selected files and the cache context are computed once, the units are matched against them per batch
+        Set<Path> selectedFiles = options.isIncremental() ? readSelectedFiles() : null;
+        ResultCache cache = null;
+        byte[] cacheContext = null;
+        if (options.getCacheDir() != null) {
+            cache = new ResultCache(options.getCacheDir(), options.getCacheMaxEntries(), log);
+            cache.load();
+            log.info("Loaded " + cache.size() + " result cache entries from " + options.getCacheDir() + ".");
+            cacheContext = cacheContext(javaProject, cleanupSettings);
+        }
+
+        List<Path> changed = new ArrayList<>();
+        long cleanupStart = System.nanoTime();
+        int totalUnits = 0;
+        int cachedUnits = 0;
+        int cleanedUnits = 0;
+        int batches = 0;
+
+        boolean fallback = prepareEngine(cleanupSettings);
+        UnitStream stream = new UnitStream(javaProject, options.getStreamBatch());
+        log.info("Streaming compilation units in batches of at most " + options.getStreamBatch() + " units"
+                + (options.getMaxHeapFraction() > 0
+                        ? ", shrinking them while the heap is above " + Math.round(options.getMaxHeapFraction() * 100)
+                                + "% of its maximum"
+                        : "")
+                + ".");
+        try {
+            List<ICompilationUnit> batch = stream.next();
+            while (!batch.isEmpty()) {
+                batches++;
+                List<ICompilationUnit> units = withoutExcluded(batch);
+                if (options.getShardCount() > 1) {
+                    int candidates = units.size();
+                    units = selectShard(units);
+                    metrics.skipped("other_shards", candidates - units.size());
+                }
+                totalUnits = totalUnits + units.size();
+                if (selectedFiles != null) {
+                    int candidates = units.size();
+                    units = selectChangedUnits(units, selectedFiles);
+                    metrics.skipped("unselected", candidates - units.size());
+                }
+                Map<ICompilationUnit, ResultCache.Key> cacheKeys = new HashMap<>();
+                if (cache != null) {
+                    int candidates = units.size();
+                    units = skipCachedUnits(cache, cacheKeys, units, cacheContext);
+                    cachedUnits = cachedUnits + candidates - units.size();
+                }
+
+                log.verbose("Batch of " + batch.size() + " units, cleaning " + units.size() + ".");
+                if (!units.isEmpty()) {
+                    cleanBatch(units, refresher, cleanupSettings, enabledCleanUps, fallback, changed, monitor);
+                    cleanedUnits = cleanedUnits + units.size();
+                }
+                if (cache != null) {
+                    recordCleanUnits(cache, cacheKeys, patch != null ? patch.getFiles() : changed);
+                }
+
+                stream.release(batch);
+                patchedUnits.clear();
+                stream.setBatchSize(nextBatchSize(stream.getBatchSize()));
+                batch = stream.next();
+            }
+            if (patch != null) {
+                changed = new ArrayList<>(patch.getFiles());
+            }
+        } finally {
+            if (patch != null) {
+                patch.close();
+            }
+        }
+
+        refresher.runFinished(monitor);
+        long cleanupNanos = System.nanoTime() - cleanupStart;
+
+        log.info("Streamed " + stream.getVisited() + " compilation units in " + batches + " batches.");
+        if (options.getShardCount() > 1) {
+            log.info("Shard " + options.getShardIndex() + "/" + options.getShardCount() + ": selected " + totalUnits
+                    + " compilation units out of " + stream.getVisited() + " by "
+                    + options.getShardKey().getArgument() + ".");
+        }
+        if (cache != null) {
+            log.info("Result cache: " + cachedUnits + " units already clean, skipped.");
+        }
+
+        return finishRun(refresher, changed, cleanedUnits, totalUnits, cleanupNanos, monitor);
+    }
+
+    /**
+     * @return the size of the next streamed batch, adapted to the heap used after the last collection
+     */
+    private int nextBatchSize(int batchSize) {
+        double maxFraction = options.getMaxHeapFraction();
+        if (maxFraction <= 0) {
+            return batchSize;
+        }
+        double used = MemoryMonitor.heapFractionAfterGc();
+        long collections = MemoryMonitor.collectionCount();
+        if (used > maxFraction) {
+            if (collections == collectionsAtShrink) {
+                return batchSize;
+            }
+            collectionsAtShrink = collections;
+            int smaller = Math.max(1, batchSize / 2);
+            if (smaller < batchSize) {
+                log.info(String.format(Locale.ROOT, "Heap at %.0f%% after collection, reducing batches to %d units.",
+                        used * 100, smaller));
+            }
+            return smaller;
+        }
+        if (used < maxFraction * 0.75 && batchSize < options.getStreamBatch()) {
+            int larger = Math.min(options.getStreamBatch(), batchSize * 2);
+            log.verbose(() -> "Heap headroom recovered, growing batches to " + larger + " units.");
+            return larger;
+        }
+        return batchSize;
+    }
+
+    /**
+     * @return whether the instanceof fallback runs after the cleanups
+     */
+    private boolean prepareEngine(Map<String, String> cleanupSettings) throws IOException {
+        boolean fallback = isOptionEnabled(cleanupSettings, "cleanup.instanceof");
+        inMemory = options.getEngineMode() == EngineMode.WORKING_COPY || options.isDryRun();
+        if (options.isDryRun()) {
+            log.info("Dry run: keeping changes in working copies, no file will be written.");
+            patch = new PatchOutput(projectRoot, options.getPatchOut(), log);
+            // in unit-major mode a unit is final once its refactoring is applied, unless the fallback runs after
+            streamPatches = options.getEngineMode() == EngineMode.UNIT_MAJOR && !fallback;
+        }
+        return fallback;
+    }
+
+    private void cleanBatch(List<ICompilationUnit> units, WorkspaceRefresher refresher,
+            Map<String, String> cleanupSettings, List<ICleanUp> enabledCleanUps, boolean fallback, List<Path> changed,
+            LoggingMonitor monitor) throws CoreException, IOException {
+        boolean workingCopyEngine = options.getEngineMode() == EngineMode.WORKING_COPY;
+        try {
+            if (patch != null && !workingCopyEngine) {
+                openWorkingCopies(units, monitor);
+            }
+            if (workingCopyEngine) {
+                runWorkingCopies(units, refresher, enabledCleanUps, fallback, changed, monitor);
+            } else if (options.getThreads() > 1) {
+                runParallel(refresher, units, cleanupSettings, enabledCleanUps, changed, monitor);
+            } else if (options.getEngineMode() == EngineMode.UNIT_MAJOR) {
+                runUnitMajor(refresher, units, enabledCleanUps, changed, monitor);
+            } else {
+                runCleanupMajor(refresher, units, enabledCleanUps, changed, monitor);
+            }
+
+            if (fallback && !workingCopyEngine) {
+                log.info("Running fallback transformation for cleanup.instanceof...");
+                runInstanceofPatternFallback(units, changed, monitor);
+            }
+
+            if (patch != null && !workingCopyEngine) {
+                writePatches(units);
+            }
+        } finally {
+            if (patch != null) {
+                discardWorkingCopies(units);
+            }
+        }
+    }
+
+    private List<Path> finishRun(WorkspaceRefresher refresher, List<Path> changed, int cleanedUnits, int totalUnits, long cleanupNanos,
+            IProgressMonitor monitor) throws CoreException, IOException {
+        ResourcesPlugin.getWorkspace().save(true, monitor);
+
+        log.info("=== Cleanup complete ===");
+        if (!inMemory) {
+            refresher.printSummary();
+        }
+        if (options.isIncremental() && cleanedUnits > 0) {
+            printIncrementalSummary(cleanedUnits, totalUnits, cleanupNanos);
+        }
+        if (patch != null) {
+            log.always(changed.size() + " files would be modified"
+                    + (patch.getPatchFile() != null ? ", patch written to " + patch.getPatchFile() : "") + ".");
+        } else {
+            log.always("Modified " + changed.size() + " files.");
+        }
+
+        long peakHeap = MemoryMonitor.peakHeapBytes();
+        long peakRss = MemoryMonitor.peakRssBytes();
+        metrics.peakMemory("heap", peakHeap);
+        metrics.peakMemory("rss", peakRss);
+        log.info("Peak heap: " + MemoryMonitor.megabytes(peakHeap) + ", peak RSS: " + MemoryMonitor.megabytes(peakRss)
+                + ".");
+        if (backgroundJobs != null) {
+            backgroundJobs.report(metrics);
+        }
+
+        for (Prefilter prefilter : new TreeMap<>(prefilters).values()) {
+            prefilter.printSummary(log);
+        }
+        reportMetrics(changed);
+
+        return changed;
+    }
+
+    private void reportMetrics(List<Path> changed) throws IOException {
+        metrics.report(log, options);
+        if (options.getShardReport() != null) {
+            ShardCoordinator.writeReport(options.getShardReport(), changed, metrics, options.getSlowestUnits());
+        }
+    }
+
+    private void openWorkingCopies(List<ICompilationUnit> units, IProgressMonitor monitor) throws CoreException {
+        for (ICompilationUnit unit : units) {
+            unit.becomeWorkingCopy(monitor);
+        }
+    }
+
+    private void discardWorkingCopies(List<ICompilationUnit> units) {
+        for (ICompilationUnit unit : units) {
+            try {
+                if (unit.isWorkingCopy()) {
+                    unit.discardWorkingCopy();
+                }
+            } catch (CoreException e) {
+                log.error("Could not discard the working copy of " + unit.getPath() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Applies the cleanups one after the other to the working copies of a batch of units and writes each modified
+     * file once.
+     */
+    private void runWorkingCopies(List<ICompilationUnit> units, WorkspaceRefresher refresher,
+            List<ICleanUp> enabledCleanUps, boolean fallback, List<Path> changed, LoggingMonitor monitor)
+            throws CoreException, IOException {
+        if (options.getThreads() > 1) {
+            log.info("The working-copy engine chains the cleanups of a unit on a single thread, ignoring --threads.");
+        }
+
+        log.info("=== Running " + enabledCleanUps.size() + " cleanups on working copies ("
+                + describeBatchSize() + " per refactoring) ===");
+
+        CleanupLog.Progress progress = log.startProgress("All cleanups", units.size(), changed.size());
+        int index = 0;
+        while (index < units.size()) {
+            List<ICompilationUnit> batch = units.subList(index,
+                    Math.min(index + batchSizer.size(metricsName(enabledCleanUps)), units.size()));
+            index = index + batch.size();
+            long batchStart = System.nanoTime();
+            log.verbose(() -> "Opening working copies for " + describeUnits(batch));
+            openWorkingCopies(batch, monitor);
+            try {
+                for (ICleanUp cleanUp : enabledCleanUps) {
+                    Prefilter prefilter = prefilter(List.of(cleanUp));
+                    List<ICompilationUnit> candidates = selectCandidates(prefilter, batch);
+                    if (candidates.isEmpty()) {
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    performBisecting(refresher, candidates, List.of(cleanUp), changed, monitor);
+                    stageFinished(prefilter, start);
+                }
+                if (fallback) {
+                    runInstanceofPatternFallback(batch, changed, monitor);
+                }
+                commitWorkingCopies(batch, changed, monitor);
+            } finally {
+                discardWorkingCopies(batch);
+            }
+            batchSizer.batchFinished(metricsName(enabledCleanUps), batch.size(), System.nanoTime() - batchStart);
+            progress.advance(batch.size(), changed.size());
+        }
+        progress.finish(changed.size());
+    }
+
+    private void commitWorkingCopies(List<ICompilationUnit> batch, List<Path> changed, IProgressMonitor monitor)
+            throws CoreException, IOException {
+        if (patch != null) {
+            writePatches(batch);
+            return;
+        }
+        for (ICompilationUnit unit : batch) {
+            if (!unit.hasUnsavedChanges()) {
+                continue;
+            }
+            Path file = unit.getResource() instanceof IFile resource ? toLocalPath(resource) : null;
+            String source = unit.getSource();
+            if (file != null && Files.readString(file, StandardCharsets.UTF_8).equals(source)) {
+                continue;
+            }
+            log.verbose(() -> "Writing " + unit.getPath());
+            unit.commitWorkingCopy(false, monitor);
+            if (file != null && !changed.contains(file)) {
+                changed.add(file);
+            }
+        }
+    }
+
+    private void unitsFinished(List<ICompilationUnit> batch) throws CoreException {
+        if (streamPatches) {
+            try {
+                writePatches(batch);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void writePatches(List<ICompilationUnit> batch) throws CoreException, IOException {
+        for (ICompilationUnit unit : batch) {
+            if (!unit.hasUnsavedChanges() || !patchedUnits.add(unit)) {
+                continue;
+            }
+            Path file = unit.getResource() instanceof IFile resource ? toLocalPath(resource) : null;
+            if (file != null) {
+                patch.write(file, unit.getSource());
+            }
+        }
+    }
+
+
+    /**
+     * Drops the units that the scan excludes. Those in a linked source folder stay on the classpath, but are not
+     * cleaned.
+     */
+    private List<ICompilationUnit> withoutExcluded(List<ICompilationUnit> units) {
+        List<ICompilationUnit> result = new ArrayList<>();
+        for (ICompilationUnit unit : units) {
+            Path file = unit.getResource() instanceof IFile resource ? toLocalPath(resource) : null;
+            if (file == null || !scanner.isExcludedFile(file)) {
+                result.add(unit);
+            }
+        }
+        metrics.skipped("excluded", units.size() - result.size());
+        return result;
+    }
+
+    private List<ICompilationUnit> selectShard(List<ICompilationUnit> units) {
+        List<ICompilationUnit> result = new ArrayList<>();
+        for (ICompilationUnit unit : units) {
+            String key;
+            if (options.getShardKey() == ShardKey.PACKAGE) {
+                key = unit.getParent().getElementName();
+            } else {
+                Path file = unit.getResource() instanceof IFile resource ? toLocalPath(resource) : null;
+                key = file != null
+                        ? ChangedFiles.normalize(projectRoot).relativize(ChangedFiles.normalize(file)).toString()
+                                .replace('\\', '/')
+                        : unit.getPath().toString();
+            }
+            if (ShardCoordinator.shardOf(key, options.getShardCount()) == options.getShardIndex()) {
+                result.add(unit);
+            }
+        }
+        return result;
+    }
+
+    private List<ICompilationUnit> selectChangedUnits(List<ICompilationUnit> units, Set<Path> selected) {
+        List<ICompilationUnit> result = new ArrayList<>();
+        for (ICompilationUnit unit : units) {
+            IResource resource = unit.getResource();
+            if (resource != null && resource.getLocation() != null
+                    && selected.contains(ChangedFiles.realPath(Paths.get(resource.getLocation().toOSString())))) {
+                result.add(unit);
+            }
+        }
+        return result;
+    }
+
+    private Set<Path> readSelectedFiles() throws IOException {
+        Set<Path> selected = new HashSet<>();
+        if (options.getChangedSince() != null) {
+            Set<Path> changedFiles = ChangedFiles.changedSince(projectRoot, options.getChangedSince());
+            log.info(changedFiles.size() + " files changed since " + options.getChangedSince() + ".");
+            selected.addAll(changedFiles);
+        }
+        if (options.getFilesFrom() != null) {
+            Set<Path> listedFiles = ChangedFiles.readList(options.getFilesFrom(), projectRoot);
+            log.info(listedFiles.size() + " files listed in " + options.getFilesFrom() + ".");
+            selected.addAll(listedFiles);
+        }
+        return selected;
+    }
+
+    /**
+     * Removes the units that an earlier run with the same context left unchanged, and puts the key of every unit
+     * in {@code cacheKeys}.
+     */
+    private List<ICompilationUnit> skipCachedUnits(ResultCache cache, Map<ICompilationUnit, ResultCache.Key> cacheKeys,
+            List<ICompilationUnit> units, byte[] context) throws IOException {
+        List<ICompilationUnit> result = new ArrayList<>();
+        for (ICompilationUnit unit : units) {
+            Path file = unit.getResource() instanceof IFile resource ? toLocalPath(resource) : null;
+            if (file == null) {
+                result.add(unit);
+                continue;
+            }
+
+            ResultCache.Key key = ResultCache.key(context, file);
+            cacheKeys.put(unit, key);
+            if (!cache.contains(key)) {
+                result.add(unit);
+            }
+        }
+
+        metrics.skipped("cached", units.size() - result.size());
+        return result;
+    }
+
+    private byte[] cacheContext(IJavaProject javaProject, Map<String, String> cleanupSettings) throws CoreException {
+        return ResultCache.contextHash(describeCacheContext(javaProject, cleanupSettings));
+    }
+
+    private void recordCleanUnits(ResultCache cache, Map<ICompilationUnit, ResultCache.Key> cacheKeys, List<Path> changed)
+            throws IOException {
+        Set<Path> changedFiles = new HashSet<>(changed);
+        List<ResultCache.Key> clean = new ArrayList<>();
+        for (Map.Entry<ICompilationUnit, ResultCache.Key> entry : cacheKeys.entrySet()) {
+            if (timedOutUnits.contains(entry.getKey())) {
+                continue;
+            }
+            Path file = entry.getKey().getResource() instanceof IFile resource ? toLocalPath(resource) : null;
+            if (file != null && !changedFiles.contains(file)) {
+                clean.add(entry.getValue());
+            }
+        }
+        cache.record(clean);
+    }
+
+    /**
+     * Everything besides the file content that can change what the cleanups do to a file.
+     */
+    private List<String> describeCacheContext(IJavaProject javaProject, Map<String, String> cleanupSettings)
+            throws CoreException {
+        List<String> parts = new ArrayList<>();
+
+        for (Map.Entry<String, String> setting : new TreeMap<>(cleanupSettings).entrySet()) {
+            parts.add("setting:" + setting.getKey() + "=" + setting.getValue());
+        }
+        parts.add("source:" + sourceLevel);
+
+        for (IClasspathEntry entry : javaProject.getRawClasspath()) {
+            if (entry.getEntryKind() == IClasspathEntry.CPE_SOURCE) {
+                continue;
+            }
+            java.io.File file = entry.getPath().toFile();
+            parts.add("classpath:" + entry.getEntryKind() + ":" + entry.getPath().toPortableString() + ":"
+                    + file.length() + ":" + file.lastModified());
+        }
+        parts.add("jre:" + System.getProperty("java.home") + ":" + System.getProperty("java.version"));
+
+        for (String bundleId : CACHE_CONTEXT_BUNDLES) {
+            Bundle bundle = Platform.getBundle(bundleId);
+            parts.add("bundle:" + bundleId + ":" + (bundle != null ? bundle.getVersion() : "missing"));
+        }
+
+        return parts;
+    }
+
+    private void printIncrementalSummary(int cleanedUnits, int totalUnits, long cleanupNanos) {
+        long cleanupMillis = TimeUnit.NANOSECONDS.toMillis(cleanupNanos);
+        long fullRunMillis = TimeUnit.NANOSECONDS.toMillis(cleanupNanos / cleanedUnits * totalUnits);
+        log.info("Incremental: cleaned " + cleanedUnits + " of " + totalUnits + " units in " + cleanupMillis
+                + " ms, a full run would take about " + fullRunMillis + " ms at the same per-unit cost, saving about "
+                + (fullRunMillis - cleanupMillis) + " ms.");
+    }
+
+    List<ICleanUp> createEnabledCleanUps(Map<String, String> cleanupSettings) {
+        CleanUpRegistry registry = JavaPlugin.getDefault().getCleanUpRegistry();
+        ICleanUp[] cleanUps = registry.createCleanUps(null);
+
+        MapCleanUpOptions cleanUpOptions = new MapCleanUpOptions(cleanupSettings);
+        List<ICleanUp> enabledCleanUps = new ArrayList<>();
+
+        for (ICleanUp cleanUp : cleanUps) {
+            cleanUp.setOptions(cleanUpOptions);
+            String[] steps = cleanUp.getStepDescriptions();
+            if (steps != null && steps.length > 0) {
+                enabledCleanUps.add(cleanUp);
+            }
+        }
+        return enabledCleanUps;
+    }
+
+    private void runCleanupMajor(WorkspaceRefresher refresher, List<ICompilationUnit> units,
+            List<ICleanUp> enabledCleanUps, List<Path> changed, LoggingMonitor monitor) throws CoreException {
+        for (ICleanUp cleanUp : enabledCleanUps) {
+
+            String name = cleanUp.getClass().getSimpleName();
+            log.info("=== Running cleanup: " + name + " ===");
+
+            Prefilter prefilter = prefilter(List.of(cleanUp));
+            List<ICompilationUnit> candidates = selectCandidates(prefilter, units);
+            long start = System.nanoTime();
+            CleanupLog.Progress progress = log.startProgress(name, candidates.size(), changed.size());
+            runBatches(refresher, candidates, List.of(cleanUp), false, changed, monitor, progress);
+            progress.finish(changed.size());
+            stageFinished(prefilter, start);
+
+            refresher.passFinished(monitor);
+        }
+    }
+
+    /**
+     * Registers every enabled cleanup on one refactoring per batch of units. {@link CleanUpRefactoring} only re-runs
+     * a cleanup on the updated source when its edits conflict with an earlier one, so a fix that only appears in the
+     * output of another cleanup is missed and the result may differ from cleanup-major.
+     */
+    private void runUnitMajor(WorkspaceRefresher refresher, List<ICompilationUnit> units,
+            List<ICleanUp> enabledCleanUps, List<Path> changed, LoggingMonitor monitor) throws CoreException {
+        log.info("=== Running " + enabledCleanUps.size() + " cleanups per unit ("
+                + describeBatchSize() + " per refactoring) ===");
+
+        Prefilter prefilter = prefilter(enabledCleanUps);
+        List<ICompilationUnit> candidates = selectCandidates(prefilter, units);
+        long start = System.nanoTime();
+        CleanupLog.Progress progress = log.startProgress("All cleanups", candidates.size(), changed.size());
+        runBatches(refresher, candidates, enabledCleanUps, true, changed, monitor, progress);
+        progress.finish(changed.size());
+        stageFinished(prefilter, start);
+    }
+
+    /**
+     * @param lastPass whether no later step of the run modifies the units, so that their diffs can be written
+     */
+    private void runBatches(WorkspaceRefresher refresher, List<ICompilationUnit> units, List<ICleanUp> cleanUps,
+            boolean lastPass, List<Path> changed, LoggingMonitor monitor, CleanupLog.Progress progress)
+            throws CoreException {
+        String name = metricsName(cleanUps);
+        int index = 0;
+        while (index < units.size()) {
+            List<ICompilationUnit> batch = units.subList(index, Math.min(index + batchSizer.size(name), units.size()));
+            index = index + batch.size();
+
+            log.verbose(() -> "Preparing refactoring for " + describeUnits(batch));
+            long start = System.nanoTime();
+            performBisecting(refresher, batch, cleanUps, changed, monitor);
+            batchSizer.batchFinished(name, batch.size(), System.nanoTime() - start);
+            if (lastPass) {
+                unitsFinished(batch);
+            }
+            progress.advance(batch.size(), changed.size());
+        }
+    }
+
+    private void performBisecting(WorkspaceRefresher refresher, List<ICompilationUnit> batch, List<ICleanUp> cleanUps,
+            List<Path> changed, LoggingMonitor monitor) throws CoreException {
+        PreparedChange prepared = prepareChange(batch, cleanUps, monitor);
+        if (!applyChange(refresher, batch, cleanUps, prepared, changed, monitor)) {
+            replayRejected(refresher, batch, cleanUps, prepared.expired(), changed, monitor);
+        }
+    }
+
+    /**
+     * Replays a rejected batch on both halves, recursively, or one unit at a time if it ran out of time, so that
+     * each unit gets its own deadline. Nothing was written by a rejected refactoring.
+     */
+    private void replayRejected(WorkspaceRefresher refresher, List<ICompilationUnit> batch, List<ICleanUp> cleanUps,
+            boolean expired, List<Path> changed, LoggingMonitor monitor) throws CoreException {
+        List<ICompilationUnit> units = withoutTimedOut(batch);
+        if (expired && units.size() > 1) {
+            log.verbose(() -> "Refactoring timed out, replaying one unit at a time " + describeUnits(units));
+            for (ICompilationUnit unit : units) {
+                performBisecting(refresher, List.of(unit), cleanUps, changed, monitor);
+            }
+        } else if (units.size() > 1) {
+            log.verbose(() -> "Refactoring rejected, splitting " + describeUnits(units));
+            int middle = units.size() / 2;
+            performBisecting(refresher, units.subList(0, middle), cleanUps, changed, monitor);
+            performBisecting(refresher, units.subList(middle, units.size()), cleanUps, changed, monitor);
+        } else if (units.size() == 1 && batch.size() > 1) {
+            performBisecting(refresher, units, cleanUps, changed, monitor);
+        } else if (units.size() == 1 && cleanUps.size() > 1) {
+            replayOneByOne(refresher, units, cleanUps, changed, monitor);
+        } else if (units.size() == 1) {
+            log.verbose(() -> "Refactoring rejected for " + describeUnits(units));
+        }
+    }
+
+    private String describeBatchSize() {
+        return batchSizer.isAdaptive() ? "adaptive units" : options.getUnitsPerRefactoring() + " unit(s)";
+    }
+
+    private void replayOneByOne(WorkspaceRefresher refresher, List<ICompilationUnit> batch,
+            List<ICleanUp> enabledCleanUps, List<Path> changed, LoggingMonitor monitor) throws CoreException {
+        log.verbose(() -> "Combined refactoring rejected, replaying cleanups one by one for " + describeUnits(batch));
+        for (ICompilationUnit unit : batch) {
+            for (ICleanUp cleanUp : enabledCleanUps) {
+                if (timedOutUnits.contains(unit)) {
+                    break;
+                }
+                performRefactoring(refresher, List.of(unit), List.of(cleanUp), changed, monitor);
+            }
+        }
+    }
+
+    /**
+     * Computes changes on worker threads and applies them on the calling thread, in the single-threaded order.
+     */
+    private void runParallel(WorkspaceRefresher refresher, List<ICompilationUnit> units,
+            Map<String, String> cleanupSettings, List<ICleanUp> enabledCleanUps, List<Path> changed,
+            LoggingMonitor monitor) throws CoreException {
+
+        int threads = options.getThreads();
+        log.info("Computing changes with " + threads + " worker threads...");
+
+        ThreadLocal<List<ICleanUp>> workerCleanUps =
+                ThreadLocal.withInitial(() -> createEnabledCleanUps(cleanupSettings));
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "cleanup-worker-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long start = System.nanoTime();
+        try {
+            if (options.getEngineMode() == EngineMode.UNIT_MAJOR) {
+                // the work items are laid out ahead of the workers, an adaptive size stays at its starting value
+                int batchSize = batchSizer.size(metricsName(enabledCleanUps));
+                log.info("=== Running " + enabledCleanUps.size() + " cleanups per unit ("
+                        + batchSize + " unit(s) per refactoring) ===");
+
+                Prefilter prefilter = prefilter(enabledCleanUps);
+                List<WorkItem> items = new ArrayList<>();
+                for (List<ICompilationUnit> batch : partition(selectCandidates(prefilter, units), batchSize)) {
+                    items.add(new WorkItem(batch, WorkItem.ALL_CLEANUPS));
+                }
+                long passStart = System.nanoTime();
+                computeAndCommit("All cleanups", refresher, items, executor, workerCleanUps, enabledCleanUps, changed,
+                        monitor);
+                stageFinished(prefilter, passStart);
+            } else {
+                for (int index = 0; index < enabledCleanUps.size(); index++) {
+                    String name = enabledCleanUps.get(index).getClass().getSimpleName();
+                    log.info("=== Running cleanup: " + name + " ===");
+
+                    Prefilter prefilter = prefilter(List.of(enabledCleanUps.get(index)));
+                    List<WorkItem> items = new ArrayList<>();
+                    for (ICompilationUnit unit : selectCandidates(prefilter, units)) {
+                        items.add(new WorkItem(List.of(unit), index));
+                    }
+                    long passStart = System.nanoTime();
+                    computeAndCommit(name, refresher, items, executor, workerCleanUps, enabledCleanUps, changed,
+                            monitor);
+                    stageFinished(prefilter, passStart);
+                    refresher.passFinished(monitor);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Parallel cleanup finished in " + elapsedMillis + " ms using " + threads + " threads.");
+    }
+
+    /**
+     * Computes the work items one window at a time, each only after the previous one was committed.
+     */
+    private void computeAndCommit(String label, WorkspaceRefresher refresher, List<WorkItem> items,
+            ExecutorService executor, ThreadLocal<List<ICleanUp>> workerCleanUps, List<ICleanUp> enabledCleanUps,
+            List<Path> changed, LoggingMonitor monitor) throws CoreException {
+
+        int window = options.getThreads() * WORK_ITEMS_PER_THREAD;
+        Deque<Future<PreparedChange>> pending = new ArrayDeque<>();
+        Deque<WorkItem> pendingItems = new ArrayDeque<>();
+        Iterator<WorkItem> iterator = items.iterator();
+        int total = 0;
+        for (WorkItem item : items) {
+            total = total + item.units().size();
+        }
+        CleanupLog.Progress progress = log.startProgress(label, total, changed.size());
+
+        try {
+            while (iterator.hasNext() || !pending.isEmpty()) {
+                if (pending.isEmpty()) {
+                    // the next window is computed only once the previous one is committed
+                    while (iterator.hasNext() && pending.size() < window) {
+                        WorkItem next = iterator.next();
+                        pendingItems.add(next);
+                        pending.add(executor.submit(() -> {
+                            log.verbose(() -> "Preparing refactoring for " + describeUnits(next.units()));
+                            return prepareChange(next.units(), next.select(workerCleanUps.get()),
+                                    new NullProgressMonitor());
+                        }));
+                    }
+                }
+
+                WorkItem item = pendingItems.poll();
+                PreparedChange prepared = await(pending.poll());
+                if (!applyChange(refresher, item.units(), item.select(enabledCleanUps), prepared, changed, monitor)
+                        && item.cleanUpIndex() == WorkItem.ALL_CLEANUPS) {
+                    replayRejected(refresher, item.units(), enabledCleanUps, prepared.expired(), changed, monitor);
+                }
+                if (item.cleanUpIndex() == WorkItem.ALL_CLEANUPS) {
+                    unitsFinished(item.units());
+                }
+                progress.advance(item.units().size(), changed.size());
+            }
+            progress.finish(changed.size());
+        } finally {
+            for (Future<PreparedChange> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws CoreException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException("Interrupted while waiting for a cleanup worker");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CoreException coreException) {
+                throw coreException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * @return the prefilter of the given cleanups run together, or {@code null} if they cannot be prefiltered
+     */
+    private Prefilter prefilter(List<ICleanUp> cleanUps) {
+        if (!options.isPrefilter()) {
+            return null;
+        }
+        Predicate<String> predicate = Prefilter.predicateOf(cleanUps);
+        if (predicate == null) {
+            return null;
+        }
+        return prefilters.computeIfAbsent(metricsName(cleanUps), name -> new Prefilter(name, predicate));
+    }
+
+    private List<ICompilationUnit> selectCandidates(Prefilter prefilter, List<ICompilationUnit> units) {
+        if (!timedOutUnits.isEmpty()) {
+            units = withoutTimedOut(units);
+        }
+        if (prefilter == null) {
+            return units;
+        }
+        List<ICompilationUnit> candidates = prefilter.select(units);
+        metrics.outcome(prefilter.getName(), CleanupMetrics.Outcome.PREFILTERED, units.size() - candidates.size());
+        return candidates;
+    }
+
+    private List<ICompilationUnit> withoutTimedOut(List<ICompilationUnit> units) {
+        List<ICompilationUnit> result = new ArrayList<>(units.size());
+        for (ICompilationUnit unit : units) {
+            if (!timedOutUnits.contains(unit)) {
+                result.add(unit);
+            }
+        }
+        return result;
+    }
+
+    private void unitTimedOut(ICompilationUnit unit, String cleanUp) {
+        log.error("Timed out cleaning unit " + unit.getPath() + " with " + cleanUp + " after "
+                + watchdog.getTimeoutMillis() + " ms, skipping it.");
+        timedOutUnits.add(unit);
+        metrics.outcome(cleanUp, CleanupMetrics.Outcome.TIMED_OUT);
+        metrics.timedOut(unit.getPath().toString());
+    }
+
+    private static void stageFinished(Prefilter prefilter, long start) {
+        if (prefilter != null) {
+            prefilter.stageFinished(System.nanoTime() - start);
+        }
+    }
+
+    private static <T> List<List<T>> partition(List<T> list, int size) {
+        List<List<T>> result = new ArrayList<>();
+        for (int start = 0; start < list.size(); start = start + size) {
+            result.add(list.subList(start, Math.min(start + size, list.size())));
+        }
+        return result;
+    }
+
+    private String describeUnits(List<ICompilationUnit> batch) {
+        if (batch.size() == 1) {
+            return "unit " + batch.get(0).getPath();
+        }
+        return batch.size() + " units starting at " + batch.get(0).getPath();
+    }
+
+    /**
+     * @return {@code false} if the refactoring was rejected before anything was written, {@code true} otherwise
+     */
+    private boolean performRefactoring(WorkspaceRefresher refresher, List<ICompilationUnit> batch,
+            List<ICleanUp> cleanUps, List<Path> changed, LoggingMonitor monitor) throws CoreException {
+        PreparedChange prepared = prepareChange(batch, cleanUps, monitor);
+        return applyChange(refresher, batch, cleanUps, prepared, changed, monitor);
+    }
+
+    /**
+     * Creates the change of a {@link CleanUpRefactoring} without touching the workspace. Safe to call from worker
+     * threads as long as the cleanups are not shared.
+     */
+    private PreparedChange prepareChange(List<ICompilationUnit> batch, List<ICleanUp> cleanUps,
+            IProgressMonitor monitor) throws CoreException {
+        if (!watchdog.isEnabled()) {
+            return computeChange(batch, cleanUps, monitor);
+        }
+        // only the computation is canceled, applying the change is never interrupted half way
+        UnitWatchdog.Watch watch = watchdog.watch(monitor, describeUnits(batch), batch.size());
+        try (watch) {
+            return computeChange(batch, cleanUps, watch);
+        } catch (OperationCanceledException e) {
+            if (!watch.isExpired()) {
+                throw e;
+            }
+            // a batch is replayed one unit at a time, each with its own deadline
+            if (batch.size() == 1) {
+                unitTimedOut(batch.get(0), metricsName(cleanUps));
+            }
+            return PreparedChange.EXPIRED;
+        }
+    }
+
+    private PreparedChange computeChange(List<ICompilationUnit> batch, List<ICleanUp> cleanUps,
+            IProgressMonitor monitor) throws CoreException {
+
+        CleanUpRefactoring refactoring = new CleanUpRefactoring();
+        for (ICompilationUnit unit : batch) {
+            refactoring.addCompilationUnit(unit);
+        }
+        for (ICleanUp cleanUp : cleanUps) {
+            refactoring.addCleanUp(cleanUp);
+        }
+
+        String name = metricsName(cleanUps);
+        List<String> units = unitNames(batch);
+
+        log.verbose("Checking initial conditions...");
+        long start = System.nanoTime();
+        RefactoringStatus initStatus = refactoring.checkInitialConditions(monitor);
+        metrics.record(name, CleanupMetrics.Phase.CHECK_INITIAL_CONDITIONS, units, System.nanoTime() - start);
+        log.verbose(() -> "Initial condition status: " + initStatus);
+
+        if (initStatus.hasFatalError()) {
+            metrics.fatal(name, CleanupMetrics.Phase.CHECK_INITIAL_CONDITIONS);
+            return PreparedChange.REJECTED;
+        }
+
+        log.verbose("Checking final conditions...");
+        start = System.nanoTime();
+        RefactoringStatus finalStatus = refactoring.checkFinalConditions(monitor);
+        metrics.record(name, CleanupMetrics.Phase.CHECK_FINAL_CONDITIONS, units, System.nanoTime() - start);
+        log.verbose(() -> "Final condition status: " + finalStatus);
+
+        if (finalStatus.hasFatalError()) {
+            metrics.fatal(name, CleanupMetrics.Phase.CHECK_FINAL_CONDITIONS);
+            return PreparedChange.REJECTED;
+        }
+
+        log.verbose("Creating change...");
+        start = System.nanoTime();
+        Change change = refactoring.createChange(monitor);
+        metrics.record(name, CleanupMetrics.Phase.CREATE_CHANGE, units, System.nanoTime() - start);
+        if (change == null) {
+            metrics.outcome(name, CleanupMetrics.Outcome.NO_CHANGE);
+            return PreparedChange.NONE;
+        }
+
+        log.verbose("Initializing change...");
+        start = System.nanoTime();
+        change.initializeValidationData(monitor);
+        metrics.record(name, CleanupMetrics.Phase.INITIALIZE_VALIDATION_DATA, units, System.nanoTime() - start);
+
+        return new PreparedChange(change, false, false);
+    }
+
+    /**
+     * Must only be called from the committing thread.
+     *
+     * @return {@code false} if the change was rejected before anything was written, {@code true} otherwise
+     */
+    private boolean applyChange(WorkspaceRefresher refresher, List<ICompilationUnit> batch, List<ICleanUp> cleanUps,
+            PreparedChange prepared, List<Path> changed, LoggingMonitor monitor) throws CoreException {
+
+        if (prepared.rejected()) {
+            return false;
+        }
+
+        Change change = prepared.change();
+        if (change == null) {
+            return true;
+        }
+
+        String name = metricsName(cleanUps);
+        List<String> units = unitNames(batch);
+
+        log.verbose("Validating change...");
+        long start = System.nanoTime();
+        RefactoringStatus status = change.isValid(monitor);
+        metrics.record(name, CleanupMetrics.Phase.IS_VALID, units, System.nanoTime() - start);
+        log.verbose(() -> "Validation result: " + status);
+        if (status.hasFatalError()) {
+            log.error("Change validation failed for " + describeUnits(batch));
+            metrics.fatal(name, CleanupMetrics.Phase.IS_VALID);
+            return false;
+        }
+
+        log.verbose("Collecting changed files...");
+        List<IFile> changedFiles = collectChangedFiles(change);
+
+        log.verbose(() -> "Applying change to " + describeUnits(batch));
+
+        if (inMemory) {
+            leaveDirty(change);
+        }
+        start = System.nanoTime();
+        change.perform(monitor);
+        metrics.record(name, CleanupMetrics.Phase.PERFORM, units, System.nanoTime() - start);
+        metrics.outcome(name, changedFiles.isEmpty() ? CleanupMetrics.Outcome.NO_CHANGE : CleanupMetrics.Outcome.CHANGED);
+
+        if (inMemory) {
+            // nothing reached the disk, the modified files are known once the working copies are finished
+            return true;
+        }
+
+        start = System.nanoTime();
+        refresher.changePerformed(changedFiles, monitor);
+        metrics.record(name, CleanupMetrics.Phase.REFRESH, units, System.nanoTime() - start);
+
+        for (IFile file : changedFiles) {
+            Path p = toLocalPath(file);
+            if (p != null && !changed.contains(p)) {
+                changed.add(p);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Keeps the edits of a change in the buffers of the working copies. {@link CleanUpRefactoring} asks for the
+     * buffers to be saved if they were not dirty before the change.
+     */
+    private static void leaveDirty(Change change) {
+        if (change instanceof CompositeChange composite) {
+            for (Change child : composite.getChildren()) {
+                leaveDirty(child);
+            }
+        } else if (change instanceof TextFileChange textFileChange) {
+            textFileChange.setSaveMode(TextFileChange.LEAVE_DIRTY);
+        }
+    }
+
+    private static String metricsName(List<ICleanUp> cleanUps) {
+        return cleanUps.size() == 1 ? cleanUps.get(0).getClass().getSimpleName() : CleanupMetrics.COMBINED;
+    }
+
+    private static List<String> unitNames(List<ICompilationUnit> batch) {
+        List<String> names = new ArrayList<>(batch.size());
+        for (ICompilationUnit unit : batch) {
+            names.add(unit.getPath().toString());
+        }
+        return names;
+    }
+
+    private record WorkItem(List<ICompilationUnit> units, int cleanUpIndex) {
+
+        static final int ALL_CLEANUPS = -1;
+
+        List<ICleanUp> select(List<ICleanUp> cleanUps) {
+            return cleanUpIndex == ALL_CLEANUPS ? cleanUps : List.of(cleanUps.get(cleanUpIndex));
+        }
+    }
+
+    private record PreparedChange(Change change, boolean rejected, boolean expired) {
+
+        static final PreparedChange REJECTED = new PreparedChange(null, true, false);
+        static final PreparedChange EXPIRED = new PreparedChange(null, true, true);
+        static final PreparedChange NONE = new PreparedChange(null, false, false);
+    }
+
+    private void addJavaNature(IProject project) throws CoreException {
+        IProjectDescription desc = project.getDescription();
+        String[] natures = desc.getNatureIds();
+        boolean hasJavaNature = false;
+        for (String n : natures) {
+            if (JavaCore.NATURE_ID.equals(n)) {
+                hasJavaNature = true;
+                break;
+            }
+        }
+        if (!hasJavaNature) {
+            String[] newNatures = new String[natures.length + 1];
+            System.arraycopy(natures, 0, newNatures, 0, natures.length);
+            newNatures[natures.length] = JavaCore.NATURE_ID;
+            desc.setNatureIds(newNatures);
+            project.setDescription(desc, null);
+        }
+    }
+
+    /**
+     * Makes the linked {@code src_N} folders of the project match {@code folders}, keeping the links that still do.
+     */
+    private Map<IPath, IFolder> linkSourceFolders(IProject project, Set<Path> folders, IProgressMonitor monitor)
+            throws CoreException {
+        Map<Path, IFolder> existing = new HashMap<>();
+        for (IResource member : project.members()) {
+            if (member instanceof IFolder folder && folder.isLinked() && folder.getLocation() != null) {
+                existing.put(ChangedFiles.normalize(Paths.get(folder.getLocation().toOSString())), folder);
+            }
+        }
+
+        LinkedHashMap<IPath, IFolder> links = new LinkedHashMap<>();
+        List<Path> missing = new ArrayList<>();
+        for (Path folder : folders) {
+            IFolder linked = existing.remove(ChangedFiles.normalize(folder));
+            if (linked != null) {
+                links.put(new org.eclipse.core.runtime.Path(folder.toString()), linked);
+            } else {
+                missing.add(folder);
+            }
+        }
+
+        for (IFolder stale : existing.values()) {
+            log.info("Removing link " + stale.getName() + " to " + stale.getLocation());
+            // deleting a linked folder only removes the link, never the linked content
+            stale.delete(true, monitor);
+        }
+
+        int index = 0;
+        for (Path folder : missing) {
+            IFolder linked = project.getFolder("src_" + index);
+            while (linked.exists()) {
+                index = index + 1;
+                linked = project.getFolder("src_" + index);
+            }
+            linked.createLink(new org.eclipse.core.runtime.Path(folder.toString()), IResource.REPLACE, null);
+            links.put(new org.eclipse.core.runtime.Path(folder.toString()), linked);
+        }
+
+        if (!existing.isEmpty() || !missing.isEmpty()) {
+            log.info("Linked " + missing.size() + " new source folders, removed " + existing.size()
+                    + ", kept " + (folders.size() - missing.size()) + ".");
+        }
+        return links;
+    }
+
+    /**
+     * Everything {@link #run()} derives the project setup from, in a form that can be compared between runs.
+     */
+    private String describeSetup(Set<Path> sourceFolders, Set<String> requiredBundles, Set<Path> libraries) {
+        StringBuilder description = new StringBuilder();
+        description.append("source=").append(sourceLevel).append('\n');
+        for (Path folder : sourceFolders) {
+            description.append("folder=").append(ChangedFiles.normalize(folder)).append('\n');
+        }
+        for (String bundle : requiredBundles) {
+            description.append("bundle=").append(bundle).append('\n');
+        }
+        for (Path library : libraries) {
+            description.append("library=").append(ChangedFiles.normalize(library)).append('\n');
+        }
+        for (String entry : extraClasspath) {
+            description.append("classpath=").append(entry).append('\n');
+        }
+        return description.toString();
+    }
+
+    private String readSetupFingerprint(IProject project) throws IOException {
+        Path file = setupFingerprintFile(project);
+        return Files.exists(file) ? Files.readString(file, StandardCharsets.UTF_8) : null;
+    }
+
+    private void writeSetupFingerprint(IProject project, String fingerprint) throws IOException {
+        Files.writeString(setupFingerprintFile(project), fingerprint, StandardCharsets.UTF_8);
+    }
+
+    private Path setupFingerprintFile(IProject project) throws IOException {
+        Path location = Paths.get(project.getWorkingLocation(PLUGIN_ID).toOSString());
+        Files.createDirectories(location);
+        return location.resolve("setup.fingerprint");
+    }
+
+    private void configureClasspath(IJavaProject javaProject, Map<IPath, IFolder> linkedFolders, Set<String> requiredBundles,
+            Set<Path> libraries)
+            throws CoreException {
+        List<IClasspathEntry> entries = new ArrayList<>();
+        Set<String> seenLibraryPaths = new HashSet<>();
+
+        for (IFolder folder : linkedFolders.values()) {
+            entries.add(JavaCore.newSourceEntry(folder.getFullPath()));
+        }
+
+        entries.add(JavaCore.newContainerEntry(
+                new org.eclipse.core.runtime.Path("org.eclipse.jdt.launching.JRE_CONTAINER")));
+
+        for (Path lib : libraries) {
+            String normalized = lib.normalize().toString();
+            if (seenLibraryPaths.add(normalized)) {
+                org.eclipse.core.runtime.Path path = new org.eclipse.core.runtime.Path(normalized);
+                entries.add(JavaCore.newLibraryEntry(path, null, null));
+            }
+        }
+
+        Map<String, Path> bundlePaths = requiredBundles.isEmpty() ? Map.of()
+                : new BundleLocations(bundleCacheDirectory(), log).resolve(requiredBundles);
+        for (Path bundlePath : bundlePaths.values()) {
+            String normalized = bundlePath.normalize().toString();
+            if (seenLibraryPaths.add(normalized)) {
+                org.eclipse.core.runtime.Path path = new org.eclipse.core.runtime.Path(normalized);
+                entries.add(JavaCore.newLibraryEntry(path, null, null));
+            }
+        }
+
+        for (String cp : extraClasspath) {
+            org.eclipse.core.runtime.Path path = new org.eclipse.core.runtime.Path(cp);
+            if (seenLibraryPaths.add(path.toOSString())) {
+                entries.add(JavaCore.newLibraryEntry(path, null, null));
+            }
+        }
+
+        IClasspathEntry[] classpath = entries.toArray(new IClasspathEntry[0]);
+        if (Arrays.equals(classpath, javaProject.getRawClasspath())) {
+            log.info("Classpath unchanged.");
+            return;
+        }
+        javaProject.setRawClasspath(classpath, null);
+    }
+
+    private Path bundleCacheDirectory() {
+        if (options.getCacheDir() != null) {
+            return options.getCacheDir();
+        }
+        Bundle bundle = Platform.getBundle(PLUGIN_ID);
+        return bundle != null ? Paths.get(Platform.getStateLocation(bundle).toOSString()) : null;
+    }
+
+    private void configureCompilerOptions(IJavaProject javaProject) {
+        Map<String, String> options = javaProject.getOptions(false);
+        options.put(JavaCore.COMPILER_SOURCE, sourceLevel);
+        options.put(JavaCore.COMPILER_COMPLIANCE, sourceLevel);
+        options.put(JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM, sourceLevel);
+        if (!options.equals(javaProject.getOptions(false))) {
+            javaProject.setOptions(options);
+        }
+    }
+
+    private boolean isOptionEnabled(Map<String, String> cleanupSettings, String key) {
+        String value = cleanupSettings.get(key);
+        return value != null && Boolean.parseBoolean(value);
+    }
+
+    private void setEncoding(IProject project) throws CoreException {
+        if (!StandardCharsets.UTF_8.name().equals(project.getDefaultCharset(false))) {
+            project.setDefaultCharset(StandardCharsets.UTF_8.name(), null);
+        }
+    }
+
+    private List<ICompilationUnit> collectCompilationUnits(IJavaProject javaProject) throws CoreException {
+        List<ICompilationUnit> result = new ArrayList<>();
+        IPackageFragmentRoot[] roots = javaProject.getPackageFragmentRoots();
+        for (IPackageFragmentRoot root : roots) {
+            if (root.getKind() == IPackageFragmentRoot.K_SOURCE) {
+                IJavaElement[] children = root.getChildren();
+                for (IJavaElement el : children) {
+                    if (el instanceof IPackageFragment pkg) {
+                        ICompilationUnit[] units = pkg.getCompilationUnits();
+                        Collections.addAll(result, units);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private Map<String, String> loadCleanupSettingsFromProfile(Path profile) throws IOException {
+        Map<String, String> settings = new LinkedHashMap<>();
+
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(false);
+            factory.setIgnoringComments(true);
+            factory.setIgnoringElementContentWhitespace(true);
+
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            try (InputStream in = Files.newInputStream(profile)) {
+                Document document = builder.parse(in);
+
+                NodeList nodes = document.getElementsByTagName("setting");
+                for (int i = 0; i < nodes.getLength(); i++) {
+                    Node node = nodes.item(i);
+                    if (node.getNodeType() == Node.ELEMENT_NODE) {
+                        Element element = (Element) node;
+
+                        String id = element.getAttribute("id");
+                        String value = element.getAttribute("value");
+
+                        if (id != null && !id.isEmpty()) {
+                            settings.put(id, value);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new IOException("Failed to parse cleanup profile XML: " + profile, e);
+        }
+
+        return settings;
+    }
+
+    private List<IFile> collectChangedFiles(Change change) throws CoreException {
+        List<IFile> result = new ArrayList<>();
+        if (change instanceof CompositeChange composite) {
+            Change[] children = composite.getChildren();
+            for (Change child : children) {
+                result.addAll(collectChangedFiles(child));
+            }
+        } else if (change instanceof TextFileChange tfc) {
+            TextEdit edit = tfc.getEdit();
+            if (hasEffectiveEdits(edit)) {
+                IFile file = tfc.getFile();
+                if (file != null) {
+                    result.add(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Path toLocalPath(IFile file) {
+        if (file.getLocation() == null) {
+            return null;
+        }
+        return Paths.get(file.getLocation().toOSString());
+    }
+
+    /**
+     * Parses the units in groups of {@code --fallback-batch} units, one {@link ASTParser#createASTs} call per group,
+     * on worker threads with {@code --threads}, and applies the rewrites in the order of the units.
+     */
+    private void runInstanceofPatternFallback(List<ICompilationUnit> units, List<Path> changed,
+            LoggingMonitor monitor) throws CoreException {
+        Prefilter prefilter = options.isPrefilter()
+                ? prefilters.computeIfAbsent(INSTANCEOF_FALLBACK,
+                        name -> new Prefilter(name, Prefilter::mayHaveInstanceofCast))
+                : null;
+        List<ICompilationUnit> candidates = selectCandidates(prefilter, units);
+        long start = System.nanoTime();
+        try {
+            runInstanceofPatternRewrites(candidates, changed, monitor);
+        } finally {
+            stageFinished(prefilter, start);
+        }
+    }
+
+    private void runInstanceofPatternRewrites(List<ICompilationUnit> units, List<Path> changed,
+            LoggingMonitor monitor) throws CoreException {
+        List<List<ICompilationUnit>> batches = partition(units, options.getFallbackBatch());
+        int threads = Math.min(options.getThreads(), batches.size());
+        if (threads <= 1) {
+            for (List<ICompilationUnit> batch : batches) {
+                applyInstanceofPatternRewrites(batch, rewriteInstanceofPatterns(batch, monitor), changed, monitor);
+            }
+            return;
+        }
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "fallback-worker-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int window = threads * WORK_ITEMS_PER_THREAD;
+        Deque<Future<Map<ICompilationUnit, String>>> pending = new ArrayDeque<>();
+        Iterator<List<ICompilationUnit>> iterator = batches.iterator();
+        try {
+            for (List<ICompilationUnit> batch : batches) {
+                while (iterator.hasNext() && pending.size() < window) {
+                    List<ICompilationUnit> next = iterator.next();
+                    pending.add(executor.submit(() -> rewriteInstanceofPatterns(next, new NullProgressMonitor())));
+                }
+                applyInstanceofPatternRewrites(batch, await(pending.poll()), changed, monitor);
+            }
+        } finally {
+            for (Future<Map<ICompilationUnit, String>> future : pending) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Safe to call from worker threads.
+     *
+     * @return the new source of each unit the fallback would change
+     */
+    private Map<ICompilationUnit, String> rewriteInstanceofPatterns(List<ICompilationUnit> batch,
+            IProgressMonitor monitor) {
+        if (!watchdog.isEnabled()) {
+            return parseInstanceofPatterns(batch, monitor);
+        }
+        UnitWatchdog.Watch watch = watchdog.watch(monitor, describeUnits(batch), batch.size());
+        try (watch) {
+            return parseInstanceofPatterns(batch, watch);
+        } catch (OperationCanceledException e) {
+            if (!watch.isExpired()) {
+                throw e;
+            }
+        }
+        if (batch.size() == 1) {
+            unitTimedOut(batch.get(0), INSTANCEOF_FALLBACK);
+            return Map.of();
+        }
+        Map<ICompilationUnit, String> rewrites = new HashMap<>();
+        for (ICompilationUnit unit : batch) {
+            rewrites.putAll(rewriteInstanceofPatterns(List.of(unit), monitor));
+        }
+        return rewrites;
+    }
+
+    private Map<ICompilationUnit, String> parseInstanceofPatterns(List<ICompilationUnit> batch,
+            IProgressMonitor monitor) {
+        Map<ICompilationUnit, String> rewrites = new HashMap<>();
+        long start = System.nanoTime();
+
+        ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
+        parser.setKind(ASTParser.K_COMPILATION_UNIT);
+        parser.setResolveBindings(true);
+        parser.setBindingsRecovery(true);
+        parser.setProject(batch.get(0).getJavaProject());
+        parser.createASTs(batch.toArray(new ICompilationUnit[0]), new String[0], new ASTRequestor() {
+            @Override
+            public void acceptAST(ICompilationUnit unit, CompilationUnit root) {
+                List<InstanceofPatternCandidate> candidates = collectInstanceofPatternCandidates(root);
+                if (candidates.isEmpty()) {
+                    return;
+                }
+                try {
+                    String source = unit.getSource();
+                    String updated = applyInstanceofPatternReplacements(source, candidates);
+                    if (!updated.equals(source)) {
+                        rewrites.put(unit, updated);
+                    }
+                } catch (CoreException e) {
+                    log.error("Fallback cleanup.instanceof failed for " + unit.getPath() + ": " + e.getMessage());
+                }
+            }
+        }, monitor);
+
+        // the time of the group is shared between its units, as for the refactorings of several units
+        metrics.record(INSTANCEOF_FALLBACK, CleanupMetrics.Phase.FALLBACK, unitNames(batch), System.nanoTime() - start);
+        return rewrites;
+    }
+
+    private void applyInstanceofPatternRewrites(List<ICompilationUnit> batch, Map<ICompilationUnit, String> rewrites,
+            List<Path> changed, LoggingMonitor monitor) {
+        for (ICompilationUnit unit : batch) {
+            if (timedOutUnits.contains(unit)) {
+                continue;
+            }
+            String updated = rewrites.get(unit);
+            Path fallbackChanged = updated != null ? saveInstanceofPatternRewrite(unit, updated, monitor) : null;
+            metrics.outcome(INSTANCEOF_FALLBACK,
+                    fallbackChanged != null ? CleanupMetrics.Outcome.CHANGED : CleanupMetrics.Outcome.NO_CHANGE);
+            if (fallbackChanged != null && !inMemory && !changed.contains(fallbackChanged)) {
+                changed.add(fallbackChanged);
+            }
+        }
+    }
+
+    private Path saveInstanceofPatternRewrite(ICompilationUnit unit, String updated, LoggingMonitor monitor) {
+        try {
+            unit.getBuffer().setContents(updated);
+            if (!inMemory) {
+                unit.save(monitor, true);
+            }
+
+            IResource resource = unit.getResource();
+            if (resource instanceof IFile file && file.getLocation() != null) {
+                return Paths.get(file.getLocation().toOSString());
+            }
+        } catch (CoreException e) {
+            log.error("Fallback cleanup.instanceof failed for " + unit.getPath() + ": " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds the {@code if (x instanceof T) { ... (T) x ... }} statements of a unit in a single traversal. Each then
+     * block is a scope that collects its casts and names, and hands its names over to the enclosing scope when it is
+     * closed, so nested statements are not walked again for each enclosing one.
+     *
+     * @return the candidates in the order of their {@code if} statements, each with its casts in source order
+     */
+    private List<InstanceofPatternCandidate> collectInstanceofPatternCandidates(CompilationUnit root) {
+        InstanceofPatternCollector collector = new InstanceofPatternCollector();
+        root.accept(collector);
+
+        List<InstanceofPatternCandidate> candidates = new ArrayList<>();
+        for (PatternScope scope : collector.scopes) {
+            if (!scope.casts.isEmpty() && scope.variableName != null && !scope.variableName.isBlank()) {
+                candidates.add(new InstanceofPatternCandidate(scope.instanceofExpression, scope.casts,
+                        scope.variableName));
+            }
+        }
+        return candidates;
+    }
+
+    private final class InstanceofPatternCollector extends ASTVisitor {
+
+        private final ASTMatcher matcher = new ASTMatcher();
+        // every scope in the order of its if statement, which is the order of the candidates
+        private final List<PatternScope> scopes = new ArrayList<>();
+        private final Map<Block, PatternScope> pendingScopes = new HashMap<>();
+        private final Deque<PatternScope> openScopes = new ArrayDeque<>();
+        // the open scopes by tested type, then by the text of the tested expression
+        private final Map<ITypeBinding, Map<String, Deque<PatternScope>>> openScopesByCast = new HashMap<>();
+
+        @Override
+        public boolean visit(IfStatement ifStatement) {
+            if (ifStatement.getExpression() instanceof InstanceofExpression instanceofExpression
+                    && instanceofExpression.getRightOperand() != null
+                    && ASTNodes.isPassive(instanceofExpression.getLeftOperand())
+                    && ifStatement.getThenStatement() instanceof Block thenBlock) {
+                ITypeBinding binding = instanceofExpression.getRightOperand().resolveBinding();
+                if (binding != null) {
+                    PatternScope scope = new PatternScope(instanceofExpression, binding, thenBlock);
+                    scopes.add(scope);
+                    pendingScopes.put(thenBlock, scope);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean visit(Block block) {
+            PatternScope scope = pendingScopes.remove(block);
+            if (scope != null) {
+                openScopes.push(scope);
+                openScopesByCast.computeIfAbsent(scope.binding, key -> new HashMap<>())
+                        .computeIfAbsent(scope.expression, key -> new ArrayDeque<>()).push(scope);
+            }
+            return true;
+        }
+
+        @Override
+        public void endVisit(Block block) {
+            PatternScope scope = openScopes.peek();
+            if (scope == null || scope.block != block) {
+                return;
+            }
+            openScopes.pop();
+            Map<String, Deque<PatternScope>> sameType = openScopesByCast.get(scope.binding);
+            Deque<PatternScope> sameCast = sameType.get(scope.expression);
+            sameCast.pop();
+            if (sameCast.isEmpty()) {
+                sameType.remove(scope.expression);
+                if (sameType.isEmpty()) {
+                    openScopesByCast.remove(scope.binding);
+                }
+            }
+
+            scope.variableName = buildUniquePatternName(scope.usedNames, scope.binding);
+
+            PatternScope parent = openScopes.peek();
+            if (parent != null) {
+                if (parent.usedNames.size() < scope.usedNames.size()) {
+                    Set<String> smaller = parent.usedNames;
+                    parent.usedNames = scope.usedNames;
+                    parent.usedNames.addAll(smaller);
+                } else {
+                    parent.usedNames.addAll(scope.usedNames);
+                }
+            }
+            scope.usedNames = null;
+        }
+
+        @Override
+        public boolean visit(CastExpression castExpression) {
+            if (!openScopesByCast.isEmpty() && castExpression.getType() != null) {
+                ITypeBinding binding = castExpression.getType().resolveBinding();
+                Map<String, Deque<PatternScope>> sameType = binding != null ? openScopesByCast.get(binding) : null;
+                Deque<PatternScope> matching = sameType != null
+                        ? sameType.get(castExpression.getExpression().toString())
+                        : null;
+                if (matching != null) {
+                    // the text of the expression only narrows down the scopes, the match is decided on the tree
+                    for (PatternScope scope : matching) {
+                        if (scope.instanceofExpression.getLeftOperand().subtreeMatch(matcher,
+                                castExpression.getExpression())) {
+                            scope.casts.add(castExpression);
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean visit(SimpleName node) {
+            PatternScope scope = openScopes.peek();
+            if (scope != null) {
+                scope.usedNames.add(node.getIdentifier());
+            }
+            return true;
+        }
+    }
+
+    private static final class PatternScope {
+
+        private final InstanceofExpression instanceofExpression;
+        private final ITypeBinding binding;
+        private final Block block;
+        // the tested expression as text, structurally equal expressions have the same text
+        private final String expression;
+        private final List<CastExpression> casts = new ArrayList<>();
+        private Set<String> usedNames = new HashSet<>();
+        private String variableName;
+
+        PatternScope(InstanceofExpression instanceofExpression, ITypeBinding binding, Block block) {
+            this.instanceofExpression = instanceofExpression;
+            this.binding = binding;
+            this.block = block;
+            this.expression = instanceofExpression.getLeftOperand().toString();
+        }
+    }
+
+    private String buildUniquePatternName(Set<String> usedNames, ITypeBinding type) {
+        String base = toLowerCamelIdentifier(type.getName());
+        if (base == null || base.isBlank()) {
+            base = "value";
+        }
+
+        if (!usedNames.contains(base)) {
+            return base;
+        }
+
+        int suffix = 2;
+        while (usedNames.contains(base + suffix)) {
+            suffix = suffix + 1;
+        }
+        return base + suffix;
+    }
+
+    private String toLowerCamelIdentifier(String raw) {
+        if (raw == null || raw.isBlank()) {
+            return null;
+        }
+
+        StringBuilder cleaned = new StringBuilder();
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '_') {
+                cleaned.append(c);
+            }
+        }
+
+        if (cleaned.length() == 0) {
+            return null;
+        }
+
+        char first = cleaned.charAt(0);
+        if (!Character.isJavaIdentifierStart(first)) {
+            cleaned.insert(0, 'v');
+        }
+
+        String base = cleaned.toString();
+        return Character.toLowerCase(base.charAt(0)) + base.substring(1);
+    }
+
+    private String applyInstanceofPatternReplacements(String source, List<InstanceofPatternCandidate> candidates) {
+        List<TextReplacement> replacements = new ArrayList<>();
+
+        for (InstanceofPatternCandidate candidate : candidates) {
+            InstanceofExpression instanceOf = candidate.instanceofExpression();
+            Expression left = instanceOf.getLeftOperand();
+            Type right = instanceOf.getRightOperand();
+
+            int leftStart = left.getStartPosition();
+            int leftEnd = leftStart + left.getLength();
+            int rightStart = right.getStartPosition();
+            int rightEnd = rightStart + right.getLength();
+
+            String leftText = source.substring(leftStart, leftEnd);
+            String rightText = source.substring(rightStart, rightEnd);
+            String conditionReplacement = leftText + " instanceof " + rightText + " " + candidate.variableName();
+
+            replacements.add(new TextReplacement(
+                    instanceOf.getStartPosition(),
+                    instanceOf.getLength(),
+                    conditionReplacement
+            ));
+
+            for (CastExpression castExpression : candidate.castExpressions()) {
+                ASTNode replacementTarget = castExpression;
+                if (castExpression.getParent() instanceof ParenthesizedExpression parenthesized
+                        && parenthesized.getExpression() == castExpression) {
+                    replacementTarget = parenthesized;
+                }
+
+                replacements.add(new TextReplacement(
+                        replacementTarget.getStartPosition(),
+                        replacementTarget.getLength(),
+                        candidate.variableName()
+                ));
+            }
+        }
+
+        replacements.sort((a, b) -> Integer.compare(b.start(), a.start()));
+
+        StringBuilder builder = new StringBuilder(source);
+        int lastStart = Integer.MAX_VALUE;
+        for (TextReplacement replacement : replacements) {
+            if (replacement.start() + replacement.length() > lastStart) {
+                continue;
+            }
+            builder.replace(
+                    replacement.start(),
+                    replacement.start() + replacement.length(),
+                    replacement.text()
+            );
+            lastStart = replacement.start();
+        }
+
+        return builder.toString();
+    }
+
+    private record InstanceofPatternCandidate(
+            InstanceofExpression instanceofExpression,
+            List<CastExpression> castExpressions,
+            String variableName
+    ) {
+    }
+
+    private record TextReplacement(int start, int length, String text) {
+    }
+
+    private boolean hasEffectiveEdits(TextEdit edit) {
+        if (edit == null) {
+            return false;
+        }
+
+        if (!edit.hasChildren()) {
+            return !(edit instanceof MultiTextEdit);
+        }
+
+        TextEdit[] children = edit.getChildren();
+        for (TextEdit child : children) {
+            if (hasEffectiveEdits(child)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
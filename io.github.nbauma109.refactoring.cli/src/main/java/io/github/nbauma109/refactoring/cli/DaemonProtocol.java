@@ -0,0 +1,181 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Wire format between {@link CleanupClient} and {@link CleanupDaemon}, which must not depend on Eclipse since the
+ * client runs on a plain JVM. A request is the protocol version, the token of the daemon, a command, the working
+ * directory of the client and the arguments. The daemon answers with output frames and a final exit frame.
+ */
+final class DaemonProtocol {
+
+    static final int VERSION = 2;
+
+    static final int MAX_ARGS = 1 << 16;
+    static final int MAX_TOKEN_BYTES = 256;
+
+    private static final String STATE_DIRECTORY = ".refactoring-cli";
+    private static final int MAX_STRING_BYTES = 16 << 20;
+
+    static final String CLEANUP = "cleanup";
+    static final String STOP = "stop";
+
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+    static final byte EXIT = 3;
+
+    private DaemonProtocol() {
+    }
+
+    /**
+     * @return the loopback port if one is given, the given socket file otherwise, or else the socket of the user
+     */
+    static SocketAddress address(Integer port, Path socket) {
+        if (port != null) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), port.intValue());
+        }
+        return UnixDomainSocketAddress.of(socket != null ? socket : stateDirectory().resolve("daemon.sock"));
+    }
+
+    static Path stateDirectory() {
+        return Paths.get(System.getProperty("user.home"), STATE_DIRECTORY);
+    }
+
+    /**
+     * Creates the state directory, readable only by its owner where the file system supports it.
+     */
+    static Path createStateDirectory() throws IOException {
+        Path directory = stateDirectory();
+        if (Files.getFileStore(Files.createDirectories(directory.getParent())).supportsFileAttributeView("posix")) {
+            if (!Files.isDirectory(directory)) {
+                FileAttribute<?> owner = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
+                Files.createDirectories(directory, owner);
+            }
+            Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwx------"));
+        } else {
+            Files.createDirectories(directory);
+        }
+        return directory;
+    }
+
+    /**
+     * @return the file holding the token of the daemon listening on the given address
+     */
+    static Path tokenFile(SocketAddress address) {
+        String name;
+        if (address instanceof InetSocketAddress inet) {
+            name = "daemon-" + inet.getPort();
+        } else {
+            Path socket = ((UnixDomainSocketAddress) address).getPath().toAbsolutePath().normalize();
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256")
+                        .digest(socket.toString().getBytes(StandardCharsets.UTF_8));
+                name = "daemon-" + HexFormat.of().formatHex(digest, 0, 8);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return stateDirectory().resolve(name + ".token");
+    }
+
+    static boolean isValidToken(String expected, String actual) {
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), actual.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void writeRequest(DataOutputStream out, String token, String command, Path workingDirectory,
+            List<String> args) throws IOException {
+        out.writeInt(VERSION);
+        writeString(out, token);
+        writeString(out, command);
+        writeString(out, workingDirectory.toString());
+        out.writeInt(args.size());
+        for (String arg : args) {
+            writeString(out, arg);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the start of a request, up to the token, which must be checked before the rest is read.
+     *
+     * @return the token the request carries
+     */
+    static String readToken(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version " + version + ", expected " + VERSION);
+        }
+        return readString(in, MAX_TOKEN_BYTES);
+    }
+
+    static Request readRequest(DataInputStream in) throws IOException {
+        String command = readString(in);
+        Path workingDirectory;
+        try {
+            workingDirectory = Path.of(readString(in));
+        } catch (InvalidPathException e) {
+            throw new IOException("Invalid working directory: " + e.getMessage(), e);
+        }
+        int count = in.readInt();
+        if (count < 0 || count > MAX_ARGS) {
+            throw new IOException("Invalid argument count " + count);
+        }
+        List<String> args = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            args.add(readString(in));
+        }
+        return new Request(command, workingDirectory, args);
+    }
+
+    static void writeExit(DataOutputStream out, int exitCode, int requestNumber, long nanos) throws IOException {
+        synchronized (out) {
+            out.writeByte(EXIT);
+            out.writeInt(exitCode);
+            out.writeInt(requestNumber);
+            out.writeLong(nanos);
+            out.flush();
+        }
+    }
+
+    // strings are length prefixed rather than written with writeUTF, which is limited to 64 KB
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return readString(in, MAX_STRING_BYTES);
+    }
+
+    private static String readString(DataInputStream in, int maxBytes) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxBytes) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    record Request(String command, Path workingDirectory, List<String> args) {
+    }
+}
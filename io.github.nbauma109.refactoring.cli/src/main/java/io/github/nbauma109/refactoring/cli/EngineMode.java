@@ -0,0 +1,44 @@
+package io.github.nbauma109.refactoring.cli;
+
+/**
+ * Order in which enabled cleanups are applied to the compilation units of the project.
+ */
+public enum EngineMode {
+
+    /**
+     * One refactoring per (cleanup, unit) pair: every cleanup runs over all units before the next cleanup starts.
+     */
+    CLEANUP_MAJOR("cleanup-major"),
+
+    /**
+     * One refactoring per unit (or batch of units) carrying every enabled cleanup, so each file is parsed and
+     * written once. The cleanups whose edits do not conflict see the original source rather than the output of the
+     * earlier cleanups, so the result may differ from {@link #CLEANUP_MAJOR}. Experimental for that reason.
+     */
+    UNIT_MAJOR("unit-major"),
+
+    /**
+     * One refactoring per cleanup on working copies of each unit (or batch of units), chained in memory, so each
+     * modified file is written once.
+     */
+    WORKING_COPY("working-copy");
+
+    private final String argument;
+
+    EngineMode(String argument) {
+        this.argument = argument;
+    }
+
+    public String getArgument() {
+        return argument;
+    }
+
+    public static EngineMode fromArgument(String value) {
+        for (EngineMode mode : values()) {
+            if (mode.argument.equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown engine mode: " + value);
+    }
+}
@@ -0,0 +1,240 @@
+package io.github.nbauma109.refactoring.cli;
+
+import org.eclipse.equinox.app.*;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class HeadlessCleanupApp implements IApplication {
+
+    static final int EXIT_NOT_CLEAN = 2;
+
+    private static final long DEFAULT_IDLE_TIMEOUT_SECONDS = TimeUnit.HOURS.toSeconds(3);
+
+    private volatile CleanupDaemon daemon;
+
+    @Override
+    public Object start(IApplicationContext context) throws Exception {
+        String[] args = (String[]) context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+
+        if (args == null || args.length == 0) {
+            System.err.println("Missing arguments. Usage:");
+            System.err.println("  --source <level> --profile <file> <projectRoot>... [--classpath <entries>]");
+            System.err.println("  [--roots-from <file>] [--root-threads <n>]");
+            System.err.println("  [--engine cleanup-major|unit-major|working-copy] [--units-per-refactoring <n>|auto] [--threads <n>]");
+            System.err.println("  [--refresh touched|full] [--archive-refresh run|pass|change]");
+            System.err.println("  [--exclude <glob>]... [--no-default-excludes] [--scan-threads <n>] [--project-model scan|build-files]");
+            System.err.println("  [--changed-since <rev>] [--files-from <file>]");
+            System.err.println("  [--cache-dir <dir>] [--cache-max-entries <n>] [--reuse-workspace]");
+            System.err.println("  [--metrics-out <file>] [--metrics-format json|prometheus] [--slowest-units <n>]");
+            System.err.println("  [--quiet|--verbose] [--log-json <file>] [--dry-run] [--patch-out <file>]");
+            System.err.println("  [--shard <i>/<n>|--shards <n> [--shard-work-dir <dir>]] [--shard-by path|package]");
+            System.err.println("  [--stream-batch <n>] [--max-heap-fraction <f>] [--fallback-batch <n>] [--no-prefilter]");
+            System.err.println("  [--unit-timeout <seconds>] [--background-jobs run|no-build|suspend]");
+            System.err.println("  --daemon [--socket <file>|--port <n>] [--idle-timeout <seconds>]");
+            return Integer.valueOf(1);
+        }
+
+        if (Arrays.asList(args).contains("--daemon")) {
+            return Integer.valueOf(runDaemon(args));
+        }
+        return Integer.valueOf(runCleanup(Arrays.asList(args), Paths.get("").toAbsolutePath(), new CleanupOptions()));
+    }
+
+    private int runDaemon(String[] args) throws IOException {
+        Integer port = null;
+        Path socket = null;
+        long idleTimeoutSeconds = DEFAULT_IDLE_TIMEOUT_SECONDS;
+
+        int i = 0;
+        while (i < args.length) {
+            String arg = args[i];
+            if ("--port".equals(arg) && i + 1 < args.length) {
+                port = Integer.valueOf(args[++i]);
+            } else if ("--socket".equals(arg) && i + 1 < args.length) {
+                socket = Paths.get(args[++i]);
+            } else if ("--idle-timeout".equals(arg) && i + 1 < args.length) {
+                idleTimeoutSeconds = Long.parseLong(args[++i]);
+            } else if (!"--daemon".equals(arg)) {
+                System.err.println("Unexpected daemon argument: " + arg
+                        + ", cleanup arguments are passed by the client with each request.");
+                return 1;
+            }
+            i++;
+        }
+
+        daemon = new CleanupDaemon(DaemonProtocol.address(port, socket), TimeUnit.SECONDS.toMillis(idleTimeoutSeconds),
+                (requestArgs, workingDirectory) -> {
+                    // consecutive requests share the workspace project, and only resync it when the setup changed
+                    CleanupOptions options = new CleanupOptions();
+                    options.setReuseWorkspace(true);
+                    return runCleanup(requestArgs, workingDirectory, options);
+                });
+        daemon.serve();
+        return 0;
+    }
+
+    /**
+     * Parses cleanup arguments on top of the given options and runs the cleanup. Relative paths are resolved
+     * against {@code workingDirectory}, the directory of the client in daemon mode.
+     */
+    static int runCleanup(List<String> args, Path workingDirectory, CleanupOptions options) throws Exception {
+        if (args.isEmpty()) {
+            System.err.println("Missing arguments.");
+            return 1;
+        }
+
+        String sourceLevel = null;
+        String profilePath = null;
+        List<String> projectRootPaths = new ArrayList<>();
+        Path rootsFrom = null;
+        List<String> extraClasspath = new ArrayList<>();
+        int shards = 1;
+        Path shardWorkDir = null;
+
+        int i = 0;
+        while (i < args.size()) {
+            String arg = args.get(i);
+            if ("--source".equals(arg) && i + 1 < args.size()) {
+                sourceLevel = args.get(++i);
+            } else if ("--profile".equals(arg) && i + 1 < args.size()) {
+                profilePath = args.get(++i);
+            } else if ("--classpath".equals(arg) && i + 1 < args.size()) {
+                String[] cpEntries = args.get(++i).split(System.getProperty("path.separator"));
+                for (String entry : cpEntries) {
+                    extraClasspath.add(workingDirectory.resolve(entry).toString());
+                }
+            } else if ("--engine".equals(arg) && i + 1 < args.size()) {
+                options.setEngineMode(EngineMode.fromArgument(args.get(++i)));
+            } else if ("--units-per-refactoring".equals(arg) && i + 1 < args.size()) {
+                String value = args.get(++i);
+                if ("auto".equals(value)) {
+                    options.setAdaptiveUnitsPerRefactoring(true);
+                } else {
+                    options.setUnitsPerRefactoring(Integer.parseInt(value));
+                }
+            } else if ("--threads".equals(arg) && i + 1 < args.size()) {
+                options.setThreads(Integer.parseInt(args.get(++i)));
+            } else if ("--refresh".equals(arg) && i + 1 < args.size()) {
+                options.setRefreshMode(RefreshMode.fromArgument(args.get(++i)));
+            } else if ("--background-jobs".equals(arg) && i + 1 < args.size()) {
+                options.setBackgroundMode(BackgroundMode.fromArgument(args.get(++i)));
+            } else if ("--archive-refresh".equals(arg) && i + 1 < args.size()) {
+                options.setArchiveRefreshMode(ArchiveRefreshMode.fromArgument(args.get(++i)));
+            } else if ("--exclude".equals(arg) && i + 1 < args.size()) {
+                options.addExclude(args.get(++i));
+            } else if ("--no-default-excludes".equals(arg)) {
+                options.setDefaultExcludes(false);
+            } else if ("--project-model".equals(arg) && i + 1 < args.size()) {
+                options.setProjectModel(ProjectModel.fromArgument(args.get(++i)));
+            } else if ("--scan-threads".equals(arg) && i + 1 < args.size()) {
+                options.setScanThreads(Integer.parseInt(args.get(++i)));
+            } else if ("--changed-since".equals(arg) && i + 1 < args.size()) {
+                options.setChangedSince(args.get(++i));
+            } else if ("--files-from".equals(arg) && i + 1 < args.size()) {
+                options.setFilesFrom(workingDirectory.resolve(args.get(++i)));
+            } else if ("--cache-dir".equals(arg) && i + 1 < args.size()) {
+                options.setCacheDir(workingDirectory.resolve(args.get(++i)));
+            } else if ("--cache-max-entries".equals(arg) && i + 1 < args.size()) {
+                options.setCacheMaxEntries(Integer.parseInt(args.get(++i)));
+            } else if ("--reuse-workspace".equals(arg)) {
+                options.setReuseWorkspace(true);
+            } else if ("--metrics-out".equals(arg) && i + 1 < args.size()) {
+                options.setMetricsOut(workingDirectory.resolve(args.get(++i)));
+            } else if ("--metrics-format".equals(arg) && i + 1 < args.size()) {
+                options.setMetricsFormat(MetricsFormat.fromArgument(args.get(++i)));
+            } else if ("--slowest-units".equals(arg) && i + 1 < args.size()) {
+                options.setSlowestUnits(Integer.parseInt(args.get(++i)));
+            } else if ("--quiet".equals(arg)) {
+                options.setLogLevel(LogLevel.QUIET);
+            } else if ("--verbose".equals(arg)) {
+                options.setLogLevel(LogLevel.VERBOSE);
+            } else if ("--log-json".equals(arg) && i + 1 < args.size()) {
+                options.setLogJson(workingDirectory.resolve(args.get(++i)));
+            } else if ("--dry-run".equals(arg)) {
+                options.setDryRun(true);
+            } else if ("--patch-out".equals(arg) && i + 1 < args.size()) {
+                options.setPatchOut(workingDirectory.resolve(args.get(++i)));
+            } else if ("--shard".equals(arg) && i + 1 < args.size()) {
+                options.setShard(args.get(++i));
+            } else if ("--shard-by".equals(arg) && i + 1 < args.size()) {
+                options.setShardKey(ShardKey.fromArgument(args.get(++i)));
+            } else if ("--shard-report".equals(arg) && i + 1 < args.size()) {
+                options.setShardReport(workingDirectory.resolve(args.get(++i)));
+            } else if ("--stream-batch".equals(arg) && i + 1 < args.size()) {
+                options.setStreamBatch(Integer.parseInt(args.get(++i)));
+            } else if ("--max-heap-fraction".equals(arg) && i + 1 < args.size()) {
+                options.setMaxHeapFraction(Double.parseDouble(args.get(++i)));
+            } else if ("--fallback-batch".equals(arg) && i + 1 < args.size()) {
+                options.setFallbackBatch(Integer.parseInt(args.get(++i)));
+            } else if ("--unit-timeout".equals(arg) && i + 1 < args.size()) {
+                options.setUnitTimeoutSeconds(Long.parseLong(args.get(++i)));
+            } else if ("--no-prefilter".equals(arg)) {
+                options.setPrefilter(false);
+            } else if ("--roots-from".equals(arg) && i + 1 < args.size()) {
+                rootsFrom = workingDirectory.resolve(args.get(++i));
+            } else if ("--root-threads".equals(arg) && i + 1 < args.size()) {
+                options.setRootThreads(Integer.parseInt(args.get(++i)));
+            } else if ("--shards".equals(arg) && i + 1 < args.size()) {
+                shards = Integer.parseInt(args.get(++i));
+            } else if ("--shard-work-dir".equals(arg) && i + 1 < args.size()) {
+                shardWorkDir = workingDirectory.resolve(args.get(++i));
+            } else {
+                projectRootPaths.add(arg);
+            }
+            i++;
+        }
+
+        List<Path> projectRoots = new ArrayList<>();
+        for (String projectRootPath : projectRootPaths) {
+            projectRoots.add(workingDirectory.resolve(projectRootPath));
+        }
+        if (rootsFrom != null) {
+            projectRoots.addAll(MultiRootRunner.readManifest(rootsFrom));
+        }
+
+        if (sourceLevel == null || profilePath == null || projectRoots.isEmpty()) {
+            System.err.println("Missing required parameters.");
+            return 1;
+        }
+
+        if (shards > 1) {
+            if (projectRoots.size() > 1) {
+                System.err.println("--shards takes a single project root.");
+                return 1;
+            }
+            return new ShardCoordinator(args, workingDirectory, options, shards, shardWorkDir).run();
+        }
+
+        Path profileFile = workingDirectory.resolve(profilePath);
+        if (projectRoots.size() > 1) {
+            return new MultiRootRunner(projectRoots, profileFile, sourceLevel, extraClasspath, options).run();
+        }
+        Path projectRoot = projectRoots.get(0);
+
+        CleanupRunner runner =
+                new CleanupRunner(projectRoot, profileFile, sourceLevel, extraClasspath, options);
+
+        return exitCode(options, runner.run(), false);
+    }
+
+    /**
+     * @return {@code 1} if the run failed, {@link #EXIT_NOT_CLEAN} if a dry run found changes, so that it can gate
+     *         builds on a clean codebase, {@code 0} otherwise
+     */
+    static int exitCode(CleanupOptions options, Collection<Path> changed, boolean failed) {
+        if (failed) {
+            return 1;
+        }
+        return options.isDryRun() && !changed.isEmpty() ? EXIT_NOT_CLEAN : 0;
+    }
+
+    @Override
+    public void stop() {
+        CleanupDaemon current = daemon;
+        if (current != null) {
+            current.stop();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.util.Locale;
+
+/**
+ * The bits of JSON the tool writes by hand for its machine-readable outputs.
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c == '\n') {
+                quoted.append("\\n");
+            } else if (c == '\r') {
+                quoted.append("\\r");
+            } else if (c == '\t') {
+                quoted.append("\\t");
+            } else if (c < 0x20) {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Formats a number, writing the values JSON cannot represent as strings like JMH does.
+     */
+    static String number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return quote(String.valueOf(value));
+        }
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.nbauma109.refactoring.cli;
+
+/**
+ * How much a run logs. Errors are always logged.
+ */
+public enum LogLevel {
+
+    /**
+     * Only errors and the outcome of the run.
+     */
+    QUIET("quiet"),
+
+    /**
+     * Setup steps, periodic progress summaries and the run summary.
+     */
+    NORMAL("normal"),
+
+    /**
+     * Everything, including every step of every refactoring.
+     */
+    VERBOSE("verbose");
+
+    private final String argument;
+
+    LogLevel(String argument) {
+        this.argument = argument;
+    }
+
+    public String getArgument() {
+        return argument;
+    }
+
+    public static LogLevel fromArgument(String value) {
+        for (LogLevel level : values()) {
+            if (level.argument.equalsIgnoreCase(value)) {
+                return level;
+            }
+        }
+        throw new IllegalArgumentException("Unknown log level: " + value);
+    }
+}
@@ -9,9 +9,11 @@ class LoggingMonitor extends ProgressMonitorWrapper {
     private int completedWork;
     private static final int BAR_WIDTH = 40;
     private boolean hasShownIntermediate;
+    private final CleanupLog log;
 
-    public LoggingMonitor() {
+    public LoggingMonitor(CleanupLog log) {
         super(new NullProgressMonitor());
+        this.log = log;
     }
 
     @Override
@@ -19,13 +21,13 @@ class LoggingMonitor extends ProgressMonitorWrapper {
         this.totalWork = totalWork;
         this.completedWork = 0;
         this.hasShownIntermediate = false;
-        System.out.println();
-        System.out.println("BEGIN: " + name + " (" + totalWork + ")");
+        this.log.verbose("");
+        this.log.verbose(() -> "BEGIN: " + name + " (" + totalWork + ")");
     }
 
     @Override
     public void worked(int work) {
-        if (work <= 0 || this.totalWork <= 0) {
+        if (work <= 0 || this.totalWork <= 0 || !this.log.isEnabled(LogLevel.VERBOSE)) {
             return;
         }
         this.completedWork = Math.min(this.completedWork + work, this.totalWork);
@@ -37,12 +39,15 @@ class LoggingMonitor extends ProgressMonitorWrapper {
         this.completedWork = this.totalWork;
         renderProgressBar();
         if (this.hasShownIntermediate) {
-            System.out.println();
+            this.log.verbose("");
         }
-        System.out.println("DONE");
+        this.log.verbose("DONE");
     }
 
     private void renderProgressBar() {
+        if (this.totalWork <= 0 || !this.log.isEnabled(LogLevel.VERBOSE)) {
+            return;
+        }
         double progress = (double) this.completedWork / (double) this.totalWork;
         int percent = (int) Math.round(progress * 100.0);
 
@@ -73,10 +78,10 @@ class LoggingMonitor extends ProgressMonitorWrapper {
         bar.append('%');
         bar.append(']');
 
-        System.out.print(bar.toString());
+        this.log.progress(LogLevel.VERBOSE, bar.toString());
 
         if (percent == 100) {
-            System.out.println();
+            this.log.verbose("");
         }
     }
 }
@@ -0,0 +1,100 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Reads the heap used after the last collection, which back-pressure is based on, and the peak memory of the
+ * process for the report of the run.
+ */
+final class MemoryMonitor {
+
+    private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+
+    private MemoryMonitor() {
+    }
+
+    /**
+     * @return the heap used after the last collection as a fraction of the maximum heap, or of the committed heap
+     *         if the maximum is undefined
+     */
+    static double heapFractionAfterGc() {
+        long used = 0;
+        boolean collected = false;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                used = used + usage.getUsed();
+                collected = true;
+            }
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        if (!collected) {
+            used = heap.getUsed();
+        }
+        long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+        return max > 0 ? (double) used / max : 0;
+    }
+
+    /**
+     * @return the number of collections run so far by all collectors, which tells whether
+     *         {@link #heapFractionAfterGc()} changed since it was last read
+     */
+    static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count = count + Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * @return the sum of the peak usage of every heap pool since the start of the process, an upper bound of the
+     *         peak heap since the pools do not peak at the same time
+     */
+    static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak = peak + pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * @return the peak resident set size of the process, or {@code -1} where {@code /proc} is not available
+     */
+    static long peakRssBytes() {
+        if (!Files.isReadable(PROC_STATUS)) {
+            return -1;
+        }
+        try {
+            for (String line : Files.readAllLines(PROC_STATUS, StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmHWM:")) {
+                    // the value is given in kB, as in "VmHWM:    123456 kB"
+                    String[] fields = line.substring("VmHWM:".length()).trim().split("\\s+");
+                    return Long.parseLong(fields[0]) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    static String megabytes(long bytes) {
+        return bytes < 0 ? "n/a" : (bytes >> 20) + " MB";
+    }
+}
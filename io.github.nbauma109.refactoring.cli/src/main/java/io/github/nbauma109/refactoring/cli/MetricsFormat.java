@@ -0,0 +1,36 @@
+package io.github.nbauma109.refactoring.cli;
+
+/**
+ * Format of the metrics written at the end of a run.
+ */
+public enum MetricsFormat {
+
+    /**
+     * A single JSON document.
+     */
+    JSON("json"),
+
+    /**
+     * The Prometheus text exposition format, e.g. for the node exporter textfile collector.
+     */
+    PROMETHEUS("prometheus");
+
+    private final String argument;
+
+    MetricsFormat(String argument) {
+        this.argument = argument;
+    }
+
+    public String getArgument() {
+        return argument;
+    }
+
+    public static MetricsFormat fromArgument(String value) {
+        for (MetricsFormat format : values()) {
+            if (format.argument.equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown metrics format: " + value);
+    }
+}
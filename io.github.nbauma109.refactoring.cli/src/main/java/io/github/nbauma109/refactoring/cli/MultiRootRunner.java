@@ -0,0 +1,204 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Cleans several codebases in one Eclipse instance, each root in its own workspace project and run by its own
+ * {@link CleanupRunner}, up to {@code --root-threads} at a time.
+ */
+final class MultiRootRunner {
+
+    private final List<Path> roots;
+    private final Path profileFile;
+    private final String sourceLevel;
+    private final List<String> extraClasspath;
+    private final CleanupOptions options;
+    private final CleanupLog log;
+    private final CleanupMetrics metrics = new CleanupMetrics();
+
+    MultiRootRunner(List<Path> roots, Path profileFile, String sourceLevel, List<String> extraClasspath,
+            CleanupOptions options) {
+        this.roots = roots;
+        this.profileFile = profileFile;
+        this.sourceLevel = sourceLevel;
+        this.extraClasspath = extraClasspath;
+        this.options = options;
+        this.log = new CleanupLog(options.getLogLevel(), options.getLogJson());
+    }
+
+    /**
+     * Reads a manifest of project roots, one per line, relative to the directory of the manifest.
+     */
+    static List<Path> readManifest(Path manifest) throws IOException {
+        Path base = manifest.toAbsolutePath().getParent();
+        List<Path> result = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            String entry = line.trim();
+            if (!entry.isEmpty() && !entry.startsWith("#")) {
+                result.add(base.resolve(entry).normalize());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the exit code of the run, see {@link HeadlessCleanupApp#exitCode}
+     */
+    int run() throws IOException, CoreException {
+        BackgroundJobs backgroundJobs = new BackgroundJobs(options.getBackgroundMode(), log);
+        try {
+            backgroundJobs.start();
+            return runRoots(backgroundJobs);
+        } finally {
+            backgroundJobs.close();
+            log.close();
+        }
+    }
+
+    private int runRoots(BackgroundJobs backgroundJobs) throws IOException {
+        int threads = options.getRootThreads() > 0 ? options.getRootThreads()
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / options.getThreads());
+        threads = Math.min(threads, roots.size());
+        log.info("=== Cleaning " + roots.size() + " project roots, " + threads + " at a time ===");
+        long start = System.nanoTime();
+
+        List<String> names = rootNames();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "root-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<RootResult> results = new ArrayList<>();
+        try {
+            List<Future<RootResult>> futures = new ArrayList<>();
+            for (int index = 0; index < roots.size(); index++) {
+                Path root = roots.get(index);
+                String name = names.get(index);
+                futures.add(executor.submit(() -> runRoot(root, name)));
+            }
+            for (Future<RootResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while cleaning the project roots", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Project root cleanup failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return summarize(results, backgroundJobs, System.nanoTime() - start);
+    }
+
+    private RootResult runRoot(Path root, String name) {
+        CleanupOptions rootOptions = options.copy();
+        rootOptions.setMetricsOut(null);
+        rootOptions.setShardReport(null);
+        if (options.getLogJson() != null) {
+            rootOptions.setLogJson(withRootName(options.getLogJson(), name));
+        }
+        if (options.getPatchOut() != null) {
+            rootOptions.setPatchOut(withRootName(options.getPatchOut(), name));
+        }
+
+        long start = System.nanoTime();
+        CleanupRunner runner = new CleanupRunner(root, profileFile, sourceLevel, extraClasspath, rootOptions, name);
+        try {
+            List<Path> changed = runner.run();
+            return new RootResult(root, name, runner.getMetrics(), changed, null, System.nanoTime() - start);
+        } catch (Exception e) {
+            log.error("[" + name + "] Cleanup of " + root + " failed: " + e);
+            return new RootResult(root, name, runner.getMetrics(), List.of(), e, System.nanoTime() - start);
+        }
+    }
+
+    private int summarize(List<RootResult> results, BackgroundJobs backgroundJobs, long elapsedNanos)
+            throws IOException {
+        Set<Path> changed = new TreeSet<>();
+        boolean failed = false;
+        for (RootResult result : results) {
+            StringBuilder state = new StringBuilder();
+            result.metrics().appendState(state, options.getSlowestUnits());
+            for (String line : state.toString().split("\n")) {
+                if (!line.isEmpty()) {
+                    metrics.mergeState(line);
+                }
+            }
+            changed.addAll(result.changed());
+            failed = failed || result.failure() != null;
+        }
+        backgroundJobs.report(metrics);
+
+        log.info("=== Cleanup of " + results.size() + " project roots complete in "
+                + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms ===");
+        for (RootResult result : results) {
+            String outcome;
+            if (result.failure() != null) {
+                outcome = "failed: " + result.failure();
+            } else if (options.isDryRun()) {
+                outcome = result.changed().size() + " files would be modified";
+            } else {
+                outcome = "modified " + result.changed().size() + " files";
+            }
+            log.always("  " + result.name() + " (" + result.root() + "): " + outcome + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(result.nanos()) + " ms.");
+        }
+        if (options.isDryRun()) {
+            log.always(changed.size() + " files would be modified"
+                    + (options.getPatchOut() != null ? ", one patch per root next to " + options.getPatchOut() : "")
+                    + ".");
+        } else {
+            log.always("Modified " + changed.size() + " files.");
+        }
+        metrics.report(log, options);
+        if (options.getShardReport() != null) {
+            ShardCoordinator.writeReport(options.getShardReport(), new ArrayList<>(changed), metrics,
+                    options.getSlowestUnits());
+        }
+        return HeadlessCleanupApp.exitCode(options, changed, failed);
+    }
+
+    /**
+     * @return a name per root usable in project and file names, unique among the roots
+     */
+    private List<String> rootNames() {
+        List<String> names = new ArrayList<>();
+        Set<String> used = new HashSet<>();
+        for (Path root : roots) {
+            Path fileName = root.toAbsolutePath().normalize().getFileName();
+            String base = fileName != null ? fileName.toString().replaceAll("[^A-Za-z0-9._-]", "_") : "root";
+            String name = base;
+            for (int suffix = 2; !used.add(name); suffix++) {
+                name = base + "-" + suffix;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    private static Path withRootName(Path file, String name) {
+        String fileName = file.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return file.resolveSibling(dot > 0 ? fileName.substring(0, dot) + "-" + name + fileName.substring(dot)
+                : fileName + "-" + name);
+    }
+
+    private record RootResult(Path root, String name, CleanupMetrics metrics, List<Path> changed, Exception failure,
+            long nanos) {
+    }
+}
@@ -0,0 +1,313 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the package declaration of a Java source file without parsing the whole file. Only the header is read:
+ * comments (including license headers), annotations and whitespace are skipped until the {@code package} keyword
+ * or the first other token, which means the file is in the default package.
+ * <p>
+ * Anything the lexer does not understand, such as unicode escapes, unbalanced annotation arguments or a header
+ * longer than {@link #MAX_HEADER_CHARS}, yields {@code null} so that callers can fall back to a real parser.
+ */
+final class PackageNameSniffer {
+
+    static final int MAX_HEADER_CHARS = 1 << 20;
+
+    private static final int EOF = -1;
+
+    private final Reader reader;
+    private final int[] pushedBack = new int[3];
+    private int pushedBackCount;
+    private int consumed;
+
+    private PackageNameSniffer(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @return the package name, {@code ""} for the default package, or {@code null} if the header could not be
+     *         read with confidence
+     */
+    static String sniff(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return sniff(reader);
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    static String sniff(Reader reader) throws IOException {
+        try {
+            return new PackageNameSniffer(reader).readHeader();
+        } catch (HeaderTooLongException | UnicodeEscapeException e) {
+            return null;
+        }
+    }
+
+    private String readHeader() throws IOException {
+        int c = read();
+        if (c == '\uFEFF') {
+            c = read();
+        }
+        unread(c);
+
+        while (true) {
+            c = skipWhitespaceAndComments();
+            if (c == EOF) {
+                return "";
+            }
+
+            if (c == '@') {
+                String name = readQualifiedName(skipWhitespaceAndComments());
+                if (name == null) {
+                    return null;
+                }
+                if ("interface".equals(name)) {
+                    // annotation type declaration, so there is no package declaration
+                    return "";
+                }
+                c = skipWhitespaceAndComments();
+                if (c == '(') {
+                    if (!skipAnnotationArguments()) {
+                        return null;
+                    }
+                } else {
+                    unread(c);
+                }
+                continue;
+            }
+
+            if (!Character.isJavaIdentifierStart(c)) {
+                return null;
+            }
+
+            String keyword = readIdentifier(c);
+            if (keyword == null) {
+                return null;
+            }
+            if (!"package".equals(keyword)) {
+                return "";
+            }
+
+            String packageName = readQualifiedName(skipWhitespaceAndComments());
+            if (packageName == null || skipWhitespaceAndComments() != ';') {
+                return null;
+            }
+            return packageName;
+        }
+    }
+
+    /**
+     * Reads a dotted name starting with {@code first}, allowing whitespace and comments around the dots.
+     */
+    private String readQualifiedName(int first) throws IOException {
+        if (first == EOF || !Character.isJavaIdentifierStart(first)) {
+            return null;
+        }
+
+        StringBuilder name = new StringBuilder();
+        int c = first;
+        while (true) {
+            String identifier = readIdentifier(c);
+            if (identifier == null) {
+                return null;
+            }
+            name.append(identifier);
+
+            c = skipWhitespaceAndComments();
+            if (c != '.') {
+                unread(c);
+                return name.toString();
+            }
+            name.append('.');
+
+            c = skipWhitespaceAndComments();
+            if (c == EOF || !Character.isJavaIdentifierStart(c)) {
+                return null;
+            }
+        }
+    }
+
+    private String readIdentifier(int first) throws IOException {
+        StringBuilder identifier = new StringBuilder();
+        identifier.appendCodePoint(first);
+        int c = read();
+        while (c != EOF && Character.isJavaIdentifierPart(c)) {
+            if (c == '\\') {
+                return null;
+            }
+            identifier.appendCodePoint(c);
+            c = read();
+        }
+        if (c == '\\') {
+            return null;
+        }
+        unread(c);
+        return identifier.toString();
+    }
+
+    /**
+     * Skips the parenthesized arguments of an annotation, the opening parenthesis having been consumed.
+     *
+     * @return {@code false} if the arguments are not balanced before the end of the input
+     */
+    private boolean skipAnnotationArguments() throws IOException {
+        int depth = 1;
+        while (depth > 0) {
+            int c = skipWhitespaceAndComments();
+            switch (c) {
+                case EOF:
+                    return false;
+                case '(':
+                    depth = depth + 1;
+                    break;
+                case ')':
+                    depth = depth - 1;
+                    break;
+                case '"':
+                case '\'':
+                    if (!skipLiteral(c)) {
+                        return false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private boolean skipLiteral(int quote) throws IOException {
+        if (quote == '"') {
+            int second = read();
+            if (second == '"') {
+                int third = read();
+                if (third == '"') {
+                    return skipTextBlock();
+                }
+                // empty string literal
+                unread(third);
+                return true;
+            }
+            unread(second);
+        }
+
+        while (true) {
+            int c = read();
+            if (c == EOF || c == '\n' || c == '\r') {
+                return false;
+            }
+            if (c == '\\') {
+                if (read() == EOF) {
+                    return false;
+                }
+            } else if (c == quote) {
+                return true;
+            }
+        }
+    }
+
+    private boolean skipTextBlock() throws IOException {
+        int quotes = 0;
+        while (true) {
+            int c = read();
+            if (c == EOF) {
+                return false;
+            }
+            if (c == '\\') {
+                quotes = 0;
+                if (read() == EOF) {
+                    return false;
+                }
+            } else if (c == '"') {
+                quotes = quotes + 1;
+                if (quotes == 3) {
+                    return true;
+                }
+            } else {
+                quotes = 0;
+            }
+        }
+    }
+
+    /**
+     * @return the first character that is neither whitespace nor part of a comment, or {@link #EOF}
+     */
+    private int skipWhitespaceAndComments() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == EOF) {
+                return EOF;
+            }
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (c != '/') {
+                return c;
+            }
+
+            int next = read();
+            if (next == '/') {
+                do {
+                    c = read();
+                } while (c != EOF && c != '\n' && c != '\r');
+            } else if (next == '*') {
+                int previous = 0;
+                while (true) {
+                    c = read();
+                    if (c == EOF) {
+                        return EOF;
+                    }
+                    if (previous == '*' && c == '/') {
+                        break;
+                    }
+                    previous = c;
+                }
+            } else {
+                unread(next);
+                return '/';
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (pushedBackCount > 0) {
+            pushedBackCount = pushedBackCount - 1;
+            return pushedBack[pushedBackCount];
+        }
+        if (consumed >= MAX_HEADER_CHARS) {
+            throw new HeaderTooLongException();
+        }
+        consumed = consumed + 1;
+        int c = reader.read();
+        if (c == '\\') {
+            int next = reader.read();
+            consumed = consumed + 1;
+            if (next == 'u') {
+                // unicode escapes may hide any character, leave those files to the parser
+                throw new UnicodeEscapeException();
+            }
+            unread(next);
+        }
+        return c;
+    }
+
+    private void unread(int c) {
+        pushedBack[pushedBackCount] = c;
+        pushedBackCount = pushedBackCount + 1;
+    }
+
+    private static final class HeaderTooLongException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class UnicodeEscapeException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+}
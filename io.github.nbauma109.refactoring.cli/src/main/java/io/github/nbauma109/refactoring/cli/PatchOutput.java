@@ -0,0 +1,81 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the diffs of a dry run to the patch file, or to the log if no patch file was given, with paths relative
+ * to the codebase root.
+ */
+final class PatchOutput implements Closeable {
+
+    private final Path root;
+    private final Path patchFile;
+    private final CleanupLog log;
+    private final BufferedWriter writer;
+    private final List<Path> files = new ArrayList<>();
+
+    PatchOutput(Path root, Path patchFile, CleanupLog log) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.patchFile = patchFile;
+        this.log = log;
+        if (patchFile != null) {
+            Path parent = patchFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            this.writer = Files.newBufferedWriter(patchFile, StandardCharsets.UTF_8);
+        } else {
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Writes the diff between the file on disk and its revised content.
+     *
+     * @return {@code true} if the file would change
+     */
+    boolean write(Path file, String revised) throws IOException {
+        String original = Files.readString(file, StandardCharsets.UTF_8);
+        String diff = UnifiedDiff.diff(relativePath(file), original, revised);
+        if (diff.isEmpty()) {
+            return false;
+        }
+        files.add(file);
+        if (writer != null) {
+            writer.write(diff);
+            // flushed per file so that a patch read while the run goes on only holds whole files
+            writer.flush();
+        } else {
+            log.always(diff.substring(0, diff.length() - 1));
+        }
+        return true;
+    }
+
+    private String relativePath(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        Path relative = absolute.startsWith(root) ? root.relativize(absolute) : absolute;
+        return relative.toString().replace('\\', '/');
+    }
+
+    List<Path> getFiles() {
+        return files;
+    }
+
+    Path getPatchFile() {
+        return patchFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.ui.cleanup.ICleanUp;
+
+/**
+ * Skips the units that a cleanup cannot change, with a cheap test on their source, before any parser runs. A
+ * test may let through units that will not change but never drops one that would. Cleanups without an entry in
+ * {@link #CLEANUP_PREDICATES} see every unit.
+ */
+final class Prefilter {
+
+    private static final Pattern INSTANCEOF_TYPE = Pattern.compile(
+            "(?<![\\w$])instanceof\\s+(?:@[\\w$.]+\\s+)*([\\w$]+(?:\\s*\\.\\s*[\\w$]+)*)",
+            Pattern.UNICODE_CHARACTER_CLASS);
+
+    private static final Map<String, Predicate<String>> CLEANUP_PREDICATES = Map.of(
+            "PatternMatchingForInstanceofCleanUp", source -> containsWord(source, "instanceof"),
+            "SwitchExpressionsCleanUp", source -> containsWord(source, "switch"),
+            "TryWithResourceCleanUp", source -> containsWord(source, "try"),
+            "StringBufferToStringBuilderCleanUp", source -> containsWord(source, "StringBuffer"));
+
+    private final String name;
+    private final Predicate<String> predicate;
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong passed = new AtomicLong();
+    private final AtomicLong scanNanos = new AtomicLong();
+    private final AtomicLong stageNanos = new AtomicLong();
+
+    Prefilter(String name, Predicate<String> predicate) {
+        this.name = name;
+        this.predicate = predicate;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the prefilter of the given cleanups run together, which lets a unit through if any of them may change
+     *         it, or {@code null} if one of them declares no test
+     */
+    static Predicate<String> predicateOf(List<ICleanUp> cleanUps) {
+        Predicate<String> combined = null;
+        for (ICleanUp cleanUp : cleanUps) {
+            Predicate<String> predicate = CLEANUP_PREDICATES.get(cleanUp.getClass().getSimpleName());
+            if (predicate == null) {
+                return null;
+            }
+            combined = combined == null ? predicate : combined.or(predicate);
+        }
+        return combined;
+    }
+
+    /**
+     * @return the units that may change, in their original order; units whose source cannot be read are kept
+     */
+    List<ICompilationUnit> select(List<ICompilationUnit> units) {
+        List<ICompilationUnit> result = new ArrayList<>(units.size());
+        long start = System.nanoTime();
+        for (ICompilationUnit unit : units) {
+            String source;
+            try {
+                source = unit.getSource();
+            } catch (CoreException e) {
+                source = null;
+            }
+            if (source == null || predicate.test(source)) {
+                result.add(unit);
+            }
+        }
+        scanNanos.addAndGet(System.nanoTime() - start);
+        checked.addAndGet(units.size());
+        passed.addAndGet(result.size());
+        return result;
+    }
+
+    /**
+     * Adds the time that the filtered stage took on units let through by {@link #select(List)}.
+     */
+    void stageFinished(long nanos) {
+        stageNanos.addAndGet(nanos);
+    }
+
+    void printSummary(CleanupLog log) {
+        long checkedUnits = checked.get();
+        if (checkedUnits == 0) {
+            return;
+        }
+        long passedUnits = passed.get();
+        long skippedUnits = checkedUnits - passedUnits;
+        long scan = scanNanos.get();
+        // the skipped units are assumed to cost as much as the units that went through the stage
+        long saved = passedUnits > 0 ? stageNanos.get() / passedUnits * skippedUnits - scan : 0;
+        log.info(String.format(Locale.ROOT,
+                "Prefilter %s: %d of %d units may apply (%.1f%%), skipped %d in %d ms of scanning, saving about %d ms.",
+                name, passedUnits, checkedUnits, 100.0 * passedUnits / checkedUnits, skippedUnits,
+                TimeUnit.NANOSECONDS.toMillis(scan), TimeUnit.NANOSECONDS.toMillis(Math.max(0, saved))));
+    }
+
+    /**
+     * The test of the instanceof fallback: the source must contain {@code instanceof T} and a parenthesized
+     * {@code T}, possibly qualified or annotated.
+     */
+    static boolean mayHaveInstanceofCast(String source) {
+        if (!containsWord(source, "instanceof")) {
+            return false;
+        }
+        Set<String> typeNames = new HashSet<>();
+        Matcher matcher = INSTANCEOF_TYPE.matcher(source);
+        while (matcher.find()) {
+            String type = matcher.group(1);
+            int dot = type.lastIndexOf('.');
+            typeNames.add(dot < 0 ? type : type.substring(dot + 1).trim());
+        }
+        for (String typeName : typeNames) {
+            Pattern cast = Pattern.compile("\\(\\s*(?:@[\\w$.]+(?:\\s*\\([^()]*\\))?\\s*)*(?:[\\w$]+\\s*\\.\\s*)*"
+                    + Pattern.quote(typeName) + "(?![\\w$])", Pattern.UNICODE_CHARACTER_CLASS);
+            if (cast.matcher(source).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the source holds the word outside of a longer identifier
+     */
+    static boolean containsWord(String source, String word) {
+        int index = source.indexOf(word);
+        while (index >= 0) {
+            int end = index + word.length();
+            if ((index == 0 || !isIdentifierPart(source.charAt(index - 1)))
+                    && (end == source.length() || !isIdentifierPart(source.charAt(end)))) {
+                return true;
+            }
+            index = source.indexOf(word, end);
+        }
+        return false;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isJavaIdentifierPart(c);
+    }
+}
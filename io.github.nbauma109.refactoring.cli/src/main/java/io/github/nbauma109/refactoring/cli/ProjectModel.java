@@ -0,0 +1,36 @@
+package io.github.nbauma109.refactoring.cli;
+
+/**
+ * Where the source folders and libraries of the codebase are taken from.
+ */
+public enum ProjectModel {
+
+    /**
+     * Walk the whole tree and infer the source folders from the package declarations of the Java files.
+     */
+    SCAN("scan"),
+
+    /**
+     * Read them from the Maven, Gradle or Eclipse build files, and walk the tree only when there are none.
+     */
+    BUILD_FILES("build-files");
+
+    private final String argument;
+
+    ProjectModel(String argument) {
+        this.argument = argument;
+    }
+
+    public String getArgument() {
+        return argument;
+    }
+
+    public static ProjectModel fromArgument(String value) {
+        for (ProjectModel model : values()) {
+            if (model.argument.equalsIgnoreCase(value)) {
+                return model;
+            }
+        }
+        throw new IllegalArgumentException("Unknown project model: " + value);
+    }
+}
@@ -0,0 +1,491 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Manifest;
+
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+/**
+ * Walks a project root once and collects the {@code .java} files, the source folders inferred from their package
+ * declarations, and the bundle headers of every {@code META-INF/MANIFEST.MF}. Build output directories are only
+ * skipped next to the build file that produces them.
+ */
+class ProjectScanner {
+
+    private static final Set<String> PRUNED_DIRECTORIES =
+            Set.of(".git", ".svn", ".hg", ".bzr", ".gradle", ".idea", ".metadata", "node_modules");
+
+    private static final Map<String, List<String>> OUTPUT_DIRECTORIES = Map.of(
+            "target", List.of("pom.xml"),
+            "build", List.of("build.gradle", "build.gradle.kts"),
+            "bin", List.of(".classpath"));
+
+    private final Path root;
+    private final boolean defaultExcludes;
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private final int threads;
+    private final AtomicInteger sniffedPackages = new AtomicInteger();
+    private final AtomicInteger parsedPackages = new AtomicInteger();
+    private final Map<Path, Boolean> excludedDirectories = new ConcurrentHashMap<>();
+    private final Set<Path> foundSourceFolders = ConcurrentHashMap.newKeySet();
+    private boolean parserOnly;
+
+    ProjectScanner(Path root, boolean defaultExcludes, List<String> excludeGlobs, int threads) {
+        this.root = root;
+        this.defaultExcludes = defaultExcludes;
+        this.threads = threads;
+        for (String glob : excludeGlobs) {
+            excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+    }
+
+    /**
+     * Reads every package declaration with the parser, as the scanner did before the sniffer existed.
+     */
+    void setParserOnly(boolean parserOnly) {
+        this.parserOnly = parserOnly;
+    }
+
+    int getSniffedPackages() {
+        return sniffedPackages.get();
+    }
+
+    int getParsedPackages() {
+        return parsedPackages.get();
+    }
+
+    ProjectScan scan() throws IOException {
+        Accumulator accumulator = new Accumulator();
+        foundSourceFolders.clear();
+        try {
+            if (threads > 1) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    for (ScanEvent event : pool.invoke(new ListDirectoryTask(root, null))) {
+                        accumulator.accept(event);
+                    }
+                } finally {
+                    pool.shutdownNow();
+                }
+            } else {
+                walkSequentially(accumulator);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return accumulator.toScan();
+    }
+
+    private void walkSequentially(Accumulator accumulator) throws IOException {
+        Files.walkFileTree(root, new FileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return isExcludedDirectory(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                ScanEvent event = toEvent(file, false);
+                if (event != null) {
+                    accumulator.accept(event);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                throw new UncheckedIOException(exc);
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                if (exc != null) {
+                    throw new UncheckedIOException(exc);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Lists one directory and forks a task per sub-directory, returning the events in the order of a sequential
+     * {@link Files#walkFileTree}, so that the result does not depend on the thread count.
+     */
+    private final class ListDirectoryTask extends RecursiveTask<List<ScanEvent>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Path sourceFolder;
+
+        /**
+         * @param sourceFolder the source folder containing {@code dir}, {@code null} if not known yet
+         */
+        ListDirectoryTask(Path dir, Path sourceFolder) {
+            this.dir = dir;
+            this.sourceFolder = sourceFolder;
+        }
+
+        @Override
+        protected List<ScanEvent> compute() {
+            List<Object> slots = new ArrayList<>();
+            Path knownSourceFolder = sourceFolder;
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        if (!isExcludedDirectory(entry)) {
+                            slots.add(entry);
+                        }
+                        continue;
+                    }
+
+                    if (knownSourceFolder == null && entry.getFileName().toString().endsWith(".java")) {
+                        knownSourceFolder = foundSourceFolder(dir);
+                    }
+                    // only the first .java file of a directory outside a known source folder can introduce one
+                    ScanEvent event = toEvent(entry, knownSourceFolder == null);
+                    if (event != null) {
+                        if (knownSourceFolder == null && event.javaFile() && event.packageName() != null) {
+                            knownSourceFolder = inferSourceFolder(entry, event.packageName());
+                            if (knownSourceFolder != null) {
+                                foundSourceFolders.add(knownSourceFolder);
+                            }
+                        }
+                        slots.add(event);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            for (int i = 0; i < slots.size(); i++) {
+                if (slots.get(i) instanceof Path child) {
+                    ListDirectoryTask task = new ListDirectoryTask(child, knownSourceFolder);
+                    task.fork();
+                    slots.set(i, task);
+                }
+            }
+
+            List<ScanEvent> result = new ArrayList<>();
+            for (Object slot : slots) {
+                if (slot instanceof ListDirectoryTask task) {
+                    result.addAll(task.join());
+                } else {
+                    result.add((ScanEvent) slot);
+                }
+            }
+            return result;
+        }
+
+        private Path foundSourceFolder(Path directory) {
+            for (Path ancestor = directory; ancestor != null; ancestor = ancestor.getParent()) {
+                if (foundSourceFolders.contains(ancestor)) {
+                    return ancestor;
+                }
+            }
+            return null;
+        }
+    }
+
+    boolean isExcludedDirectory(Path dir) {
+        if (dir.equals(root)) {
+            return false;
+        }
+
+        if (defaultExcludes) {
+            String name = dir.getFileName().toString();
+            if (PRUNED_DIRECTORIES.contains(name)) {
+                return true;
+            }
+            List<String> buildFiles = OUTPUT_DIRECTORIES.get(name);
+            if (buildFiles != null) {
+                for (String buildFile : buildFiles) {
+                    if (Files.exists(dir.resolveSibling(buildFile))) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return isExcluded(dir);
+    }
+
+    private boolean isExcluded(Path path) {
+        if (excludes.isEmpty()) {
+            return false;
+        }
+        Path relative = root.relativize(path);
+        for (PathMatcher matcher : excludes) {
+            if (matcher.matches(relative)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether a file is skipped by the scan, because it matches an exclude or lies in a skipped directory.
+     */
+    boolean isExcludedFile(Path file) {
+        if (excludes.isEmpty() && !defaultExcludes) {
+            return false;
+        }
+        Path absoluteRoot = root.toAbsolutePath().normalize();
+        Path absolute = file.toAbsolutePath().normalize();
+        if (!absolute.startsWith(absoluteRoot) || absolute.equals(absoluteRoot)) {
+            return false;
+        }
+        Path relative = absoluteRoot.relativize(absolute);
+        for (PathMatcher matcher : excludes) {
+            if (matcher.matches(relative)) {
+                return true;
+            }
+        }
+        for (Path dir = absolute.getParent(); !dir.equals(absoluteRoot); dir = dir.getParent()) {
+            Boolean excluded = excludedDirectories.get(dir);
+            if (excluded == null) {
+                excluded = isExcludedDirectory(root.resolve(absoluteRoot.relativize(dir)));
+                excludedDirectories.put(dir, excluded);
+            }
+            if (excluded) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param readPackage whether to read the package declaration of a {@code .java} file right away
+     */
+    private ScanEvent toEvent(Path file, boolean readPackage) throws IOException {
+        String name = file.getFileName().toString();
+
+        if (name.endsWith(".java")) {
+            if (isExcluded(file)) {
+                return null;
+            }
+            return new ScanEvent(file, true, readPackage ? readPackageName(file) : null, null);
+        }
+
+        if ("MANIFEST.MF".equals(name)) {
+            Path parent = file.getParent();
+            if (parent == null || parent.getFileName() == null || !"META-INF".equals(parent.getFileName().toString())
+                    || isExcluded(file)) {
+                return null;
+            }
+            try (InputStream in = Files.newInputStream(file)) {
+                return new ScanEvent(file, false, null, new Manifest(in));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Folds scan events, in walk order, into the scan result.
+     */
+    private final class Accumulator {
+
+        private final Set<Path> sourceFolders = new LinkedHashSet<>();
+        private final Set<String> requiredBundles = new LinkedHashSet<>();
+        private final Set<Path> manifestLibraries = new LinkedHashSet<>();
+        private final List<Path> javaFiles = new ArrayList<>();
+
+        void accept(ScanEvent event) throws IOException {
+            if (event.javaFile()) {
+                javaFiles.add(event.file());
+                acceptJavaFile(event);
+            } else {
+                acceptManifest(event.file(), event.manifest());
+            }
+        }
+
+        private void acceptJavaFile(ScanEvent event) throws IOException {
+            Path file = event.file();
+            Path parent = file.getParent();
+            if (parent == null) {
+                return;
+            }
+
+            for (Path src : sourceFolders) {
+                if (parent.startsWith(src)) {
+                    return;
+                }
+            }
+
+            String packageName = event.packageName() != null ? event.packageName() : readPackageName(file);
+            Path sourceFolder = inferSourceFolder(file, packageName);
+
+            if (sourceFolder != null && Files.isDirectory(sourceFolder)) {
+                sourceFolders.add(sourceFolder.normalize());
+            }
+        }
+
+        private void acceptManifest(Path file, Manifest manifest) {
+            readManifest(file, manifest, requiredBundles, manifestLibraries);
+        }
+
+        ProjectScan toScan() {
+            return new ProjectScan(sourceFolders, requiredBundles, manifestLibraries, Set.of(),
+                    Collections.unmodifiableList(javaFiles));
+        }
+    }
+
+    /**
+     * Adds the bundles named by the {@code Require-Bundle} header of a manifest, and the existing entries of its
+     * {@code Bundle-ClassPath} other than {@code .}, resolved against the bundle root.
+     */
+    static void readManifest(Path file, Manifest manifest, Set<String> requiredBundles, Set<Path> manifestLibraries) {
+        String requireBundleHeader = manifest.getMainAttributes().getValue("Require-Bundle");
+        if (requireBundleHeader != null && !requireBundleHeader.isBlank()) {
+            for (String clause : splitManifestHeaderClauses(requireBundleHeader)) {
+                int semicolon = clause.indexOf(';');
+                String bundleId = semicolon >= 0 ? clause.substring(0, semicolon).trim() : clause.trim();
+                if (!bundleId.isEmpty()) {
+                    requiredBundles.add(bundleId);
+                }
+            }
+        }
+
+        Path bundleRoot = file.getParent().getParent();
+        String bundleClassPath = manifest.getMainAttributes().getValue("Bundle-ClassPath");
+        if (bundleRoot == null || bundleClassPath == null || bundleClassPath.isBlank()) {
+            return;
+        }
+
+        for (String clause : splitManifestHeaderClauses(bundleClassPath)) {
+            String entry = clause.trim();
+            if (entry.isEmpty() || ".".equals(entry)) {
+                continue;
+            }
+
+            Path resolved = bundleRoot.resolve(entry).normalize();
+            if (Files.exists(resolved)) {
+                manifestLibraries.add(resolved);
+            }
+        }
+    }
+
+    /**
+     * Reads the package declaration with {@link PackageNameSniffer}, and with the parser only when the sniffer
+     * cannot make sense of the file header.
+     */
+    String readPackageName(Path file) throws IOException {
+        if (!parserOnly) {
+            String packageName = PackageNameSniffer.sniff(file);
+            if (packageName != null) {
+                sniffedPackages.incrementAndGet();
+                return packageName;
+            }
+        }
+        parsedPackages.incrementAndGet();
+        return parsePackageName(file);
+    }
+
+    static String parsePackageName(Path file) throws IOException {
+        char[] source = Files.readString(file, StandardCharsets.UTF_8).toCharArray();
+        ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
+        parser.setSource(source);
+        parser.setKind(ASTParser.K_COMPILATION_UNIT);
+
+        CompilationUnit unit = (CompilationUnit) parser.createAST(null);
+
+        if (unit.getPackage() != null) {
+            return unit.getPackage().getName().getFullyQualifiedName();
+        }
+
+        return "";
+    }
+
+    static Path inferSourceFolder(Path file, String packageName) {
+        Path parent = file.getParent();
+        if (parent == null) {
+            return null;
+        }
+
+        if (packageName == null || packageName.isEmpty()) {
+            return parent;
+        }
+
+        String[] segments = packageName.split("\\.");
+        Path pkgPath = parent;
+
+        for (int i = segments.length - 1; i >= 0; i--) {
+            if (pkgPath == null || pkgPath.getFileName() == null || !pkgPath.getFileName().toString().equals(segments[i])) {
+                break;
+            }
+            pkgPath = pkgPath.getParent();
+        }
+
+        return pkgPath;
+    }
+
+    static List<String> splitManifestHeaderClauses(String header) {
+        List<String> clauses = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inQuote = false;
+
+        for (int i = 0; i < header.length(); i++) {
+            char c = header.charAt(i);
+            if (c == '"') {
+                inQuote = !inQuote;
+                current.append(c);
+                continue;
+            }
+
+            if (c == ',' && !inQuote) {
+                String clause = current.toString().trim();
+                if (!clause.isEmpty()) {
+                    clauses.add(clause);
+                }
+                current.setLength(0);
+                continue;
+            }
+
+            current.append(c);
+        }
+
+        String tail = current.toString().trim();
+        if (!tail.isEmpty()) {
+            clauses.add(tail);
+        }
+
+        return clauses;
+    }
+
+    private record ScanEvent(Path file, boolean javaFile, String packageName, Manifest manifest) {
+    }
+
+    /**
+     * @param libraries the jars of the dependencies named by build files, only found by {@link BuildModelReader}
+     */
+    record ProjectScan(Set<Path> sourceFolders, Set<String> requiredBundles, Set<Path> manifestLibraries,
+            Set<Path> libraries, List<Path> javaFiles) {
+    }
+}
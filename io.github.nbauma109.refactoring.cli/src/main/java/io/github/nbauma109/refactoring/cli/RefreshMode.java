@@ -0,0 +1,36 @@
+package io.github.nbauma109.refactoring.cli;
+
+/**
+ * How the workspace is refreshed after a change has been performed.
+ */
+public enum RefreshMode {
+
+    /**
+     * Refresh the whole project with {@code DEPTH_INFINITE} after every change.
+     */
+    FULL("full"),
+
+    /**
+     * Refresh only the files the change touched.
+     */
+    TOUCHED("touched");
+
+    private final String argument;
+
+    RefreshMode(String argument) {
+        this.argument = argument;
+    }
+
+    public String getArgument() {
+        return argument;
+    }
+
+    public static RefreshMode fromArgument(String value) {
+        for (RefreshMode mode : values()) {
+            if (mode.argument.equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown refresh mode: " + value);
+    }
+}
@@ -0,0 +1,209 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Remembers which compilation units came out of a run unchanged, so that later runs can skip them. Keys hash the
+ * run context and the file content and are kept in an append-only log, locked so that processes can share it.
+ */
+final class ResultCache {
+
+    private static final String LOG_FILE = "clean-units-v1.bin";
+    private static final String LOCK_FILE = "clean-units.lock";
+    private static final int RECORD_SIZE = 16;
+
+    private final Path logFile;
+    private final Path lockFile;
+    private final int maxEntries;
+    private final CleanupLog log;
+    private final Set<Key> keys = new LinkedHashSet<>();
+    private long records;
+
+    ResultCache(Path directory, int maxEntries, CleanupLog log) throws IOException {
+        Files.createDirectories(directory);
+        this.logFile = directory.resolve(LOG_FILE);
+        this.lockFile = directory.resolve(LOCK_FILE);
+        this.maxEntries = maxEntries;
+        this.log = log;
+    }
+
+    void load() throws IOException {
+        keys.clear();
+        records = 0;
+        withLock(true, () -> {
+            if (!Files.exists(logFile)) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+                while (channel.read(buffer) > 0) {
+                    buffer.flip();
+                    while (buffer.remaining() >= RECORD_SIZE) {
+                        keys.add(new Key(buffer.getLong(), buffer.getLong()));
+                        records = records + 1;
+                    }
+                    buffer.compact();
+                }
+            }
+        });
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    boolean contains(Key key) {
+        return keys.contains(key);
+    }
+
+    /**
+     * Appends the given keys to the log, and compacts it if it has grown too large.
+     */
+    void record(Collection<Key> newKeys) throws IOException {
+        if (newKeys.isEmpty()) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(newKeys.size() * RECORD_SIZE);
+        for (Key key : newKeys) {
+            buffer.putLong(key.high());
+            buffer.putLong(key.low());
+        }
+        buffer.flip();
+
+        withLock(false, () -> {
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                long size = channel.size();
+                long aligned = size - size % RECORD_SIZE;
+                if (aligned != size) {
+                    // drop the torn record of a process that died while appending
+                    channel.truncate(aligned);
+                }
+                channel.position(aligned);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                records = channel.size() / RECORD_SIZE;
+            }
+
+            if (records > 2L * maxEntries) {
+                compact();
+            }
+        });
+
+        keys.addAll(newKeys);
+    }
+
+    /**
+     * Rewrites the log with the {@code maxEntries} most recently appended distinct keys, under the exclusive lock.
+     */
+    private void compact() throws IOException {
+        Set<Key> recent = new LinkedHashSet<>();
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    Key key = new Key(buffer.getLong(), buffer.getLong());
+                    // re-inserting moves the key to the end, so that iteration order is least recently used first
+                    recent.remove(key);
+                    recent.add(key);
+                }
+                buffer.compact();
+            }
+        }
+
+        List<Key> kept = new ArrayList<>(recent);
+        kept = kept.subList(Math.max(0, kept.size() - maxEntries), kept.size());
+
+        Path temp = logFile.resolveSibling(LOG_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(kept.size() * RECORD_SIZE);
+            for (Key key : kept) {
+                buffer.putLong(key.high());
+                buffer.putLong(key.low());
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log.info("Compacted result cache from " + records + " to " + kept.size() + " entries.");
+        records = kept.size();
+    }
+
+    private void withLock(boolean shared, IOAction action) throws IOException {
+        // file locks are held by the whole JVM, so threads of the same process are serialized here first
+        synchronized (ResultCache.class) {
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.READ);
+                    FileLock lock = channel.lock(0, Long.MAX_VALUE, shared)) {
+                action.run();
+            }
+        }
+    }
+
+    /**
+     * Hashes the parts of the run context that can change the outcome of a cleanup.
+     */
+    static byte[] contextHash(List<String> parts) {
+        MessageDigest digest = newDigest();
+        for (String part : parts) {
+            byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+            digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            digest.update(bytes);
+        }
+        return digest.digest();
+    }
+
+    static Key key(byte[] contextHash, Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        digest.update(contextHash);
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+        return new Key(hash.getLong(), hash.getLong());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    record Key(long high, long low) {
+    }
+
+    @FunctionalInterface
+    private interface IOAction {
+        void run() throws IOException;
+    }
+}
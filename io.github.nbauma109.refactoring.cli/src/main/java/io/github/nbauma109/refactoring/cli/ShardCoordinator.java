@@ -0,0 +1,271 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Runs a cleanup as several shards, each an Eclipse process of its own started with {@code --shard i/N}, and
+ * merges the changed files, patches and metrics they report.
+ */
+final class ShardCoordinator {
+
+    static final String APPLICATION_ID = "io.github.nbauma109.refactoring.cli.app";
+
+    private static final String CHANGED = "changed\t";
+
+    // options naming a file that every shard would overwrite, the coordinator writes them from the merged results
+    private static final Set<String> COORDINATOR_OPTIONS = Set.of("--shards", "--shard-work-dir", "--metrics-out",
+            "--patch-out", "--log-json");
+
+    private final List<String> args;
+    private final Path workingDirectory;
+    private final CleanupOptions options;
+    private final int shards;
+    private final Path workDir;
+    private final CleanupLog log;
+    private final CleanupMetrics metrics = new CleanupMetrics();
+
+    /**
+     * @param workDir the directory holding the workspace and report of each shard, {@code null} for a temporary one
+     */
+    ShardCoordinator(List<String> args, Path workingDirectory, CleanupOptions options, int shards, Path workDir) {
+        this.args = args;
+        this.workingDirectory = workingDirectory;
+        this.options = options;
+        this.shards = shards;
+        this.workDir = workDir;
+        this.log = new CleanupLog(options.getLogLevel(), options.getLogJson());
+    }
+
+    /**
+     * @return the shard of a unit, from 1 to {@code count}, given the stable key of the unit
+     */
+    static int shardOf(String key, int count) {
+        CRC32 crc = new CRC32();
+        crc.update(key.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % count) + 1;
+    }
+
+    static void writeReport(Path file, List<Path> changed, CleanupMetrics metrics, int slowest) throws IOException {
+        StringBuilder report = new StringBuilder();
+        for (Path path : changed) {
+            report.append(CHANGED).append(path).append('\n');
+        }
+        metrics.appendState(report, slowest);
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(file, report, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the exit code of the run, see {@link HeadlessCleanupApp#exitCode}
+     */
+    int run() throws IOException {
+        try {
+            return runLogged();
+        } finally {
+            log.close();
+        }
+    }
+
+    private int runLogged() throws IOException {
+        String launcher = System.getProperty("eclipse.launcher");
+        if (launcher == null) {
+            log.error("Cannot start shards: the eclipse.launcher property is not set, start the application with the"
+                    + " Eclipse launcher.");
+            return 1;
+        }
+
+        Path root = workDir != null ? workDir : Files.createTempDirectory("refactoring-cli-shards");
+        try {
+            return runShards(launcher, root);
+        } finally {
+            if (workDir == null) {
+                deleteTree(root);
+            }
+        }
+    }
+
+    private int runShards(String launcher, Path root) throws IOException {
+        log.info("=== Running " + shards + " shards in " + root + " ===");
+        long start = System.nanoTime();
+
+        List<Process> processes = new ArrayList<>();
+        List<Thread> pumps = new ArrayList<>();
+        try {
+            for (int index = 1; index <= shards; index++) {
+                Path shardDir = shardDirectory(root, index);
+                Files.createDirectories(shardDir);
+                Files.deleteIfExists(shardDir.resolve("report.tsv"));
+
+                List<String> command = new ArrayList<>();
+                command.add(launcher);
+                command.add("-nosplash");
+                command.add("-data");
+                command.add(shardDir.resolve("workspace").toString());
+                // a configuration area per shard, since concurrent instances must not share one
+                command.add("-configuration");
+                command.add(shardDir.resolve("configuration").toString());
+                command.add("-application");
+                command.add(APPLICATION_ID);
+                command.addAll(shardArguments(index, shardDir));
+
+                log.verbose(() -> String.join(" ", command));
+                Process process = new ProcessBuilder(command).directory(workingDirectory.toFile()).start();
+                process.getOutputStream().close();
+                processes.add(process);
+                String prefix = "[shard " + index + "/" + shards + "] ";
+                pumps.add(forward(process.getInputStream(), prefix, false));
+                pumps.add(forward(process.getErrorStream(), prefix, true));
+            }
+
+            int[] exitCodes = new int[shards];
+            for (int index = 1; index <= shards; index++) {
+                exitCodes[index - 1] = processes.get(index - 1).waitFor();
+                log.info("Shard " + index + "/" + shards + " exited with code " + exitCodes[index - 1] + " after "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+            }
+            for (Thread pump : pumps) {
+                pump.join();
+            }
+            return merge(root, exitCodes, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the shards", e);
+        } finally {
+            for (Process process : processes) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private List<String> shardArguments(int index, Path shardDir) {
+        List<String> result = new ArrayList<>();
+        int i = 0;
+        while (i < args.size()) {
+            String arg = args.get(i);
+            if (COORDINATOR_OPTIONS.contains(arg)) {
+                i = i + 2;
+                continue;
+            }
+            result.add(arg);
+            i++;
+        }
+        result.add("--shard");
+        result.add(index + "/" + shards);
+        result.add("--shard-report");
+        result.add(shardDir.resolve("report.tsv").toString());
+        if (options.getPatchOut() != null) {
+            result.add("--patch-out");
+            result.add(shardDir.resolve("changes.patch").toString());
+        }
+        return result;
+    }
+
+    private int merge(Path root, int[] exitCodes, long elapsedNanos) throws IOException {
+        Set<Path> changed = new TreeSet<>();
+        boolean failed = false;
+        for (int index = 1; index <= shards; index++) {
+            int exitCode = exitCodes[index - 1];
+            Path report = shardDirectory(root, index).resolve("report.tsv");
+            if (exitCode != 0 && exitCode != HeadlessCleanupApp.EXIT_NOT_CLEAN || !Files.isRegularFile(report)) {
+                log.error("Shard " + index + "/" + shards + " failed with exit code " + exitCode + ".");
+                failed = true;
+                continue;
+            }
+            for (String line : Files.readAllLines(report, StandardCharsets.UTF_8)) {
+                if (line.startsWith(CHANGED)) {
+                    changed.add(Paths.get(line.substring(CHANGED.length())));
+                } else if (!line.isEmpty() && !metrics.mergeState(line)) {
+                    log.error("Ignoring unknown line in " + report + ": " + line);
+                }
+            }
+        }
+
+        if (options.getPatchOut() != null) {
+            mergePatches(root);
+        }
+
+        log.info("=== Sharded cleanup complete in " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms ===");
+        if (options.isDryRun()) {
+            log.always(changed.size() + " files would be modified"
+                    + (options.getPatchOut() != null ? ", patch written to " + options.getPatchOut() : "") + ".");
+        } else {
+            log.always("Modified " + changed.size() + " files.");
+        }
+        metrics.report(log, options);
+        return HeadlessCleanupApp.exitCode(options, changed, failed);
+    }
+
+    private void mergePatches(Path root) throws IOException {
+        Path target = options.getPatchOut();
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(target, "", StandardCharsets.UTF_8);
+        for (int index = 1; index <= shards; index++) {
+            Path shardPatch = shardDirectory(root, index).resolve("changes.patch");
+            if (Files.isRegularFile(shardPatch)) {
+                Files.write(target, Files.readAllBytes(shardPatch), StandardOpenOption.APPEND);
+            }
+        }
+    }
+
+    private Thread forward(InputStream in, String prefix, boolean error) {
+        Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (error) {
+                        log.error(prefix + line);
+                    } else {
+                        log.always(prefix + line);
+                    }
+                }
+            } catch (IOException e) {
+                log.error(prefix + "output lost: " + e.getMessage());
+            }
+        }, "shard-output");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static Path shardDirectory(Path root, int index) {
+        return root.resolve("shard-" + index);
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
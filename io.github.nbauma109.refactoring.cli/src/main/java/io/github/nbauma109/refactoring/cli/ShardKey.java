@@ -0,0 +1,37 @@
+package io.github.nbauma109.refactoring.cli;
+
+/**
+ * What decides the shard of a compilation unit with {@code --shard}. The key is hashed, so the partition only
+ * depends on the codebase, not on the order in which units are found.
+ */
+public enum ShardKey {
+
+    /**
+     * The path of the unit relative to the codebase root.
+     */
+    PATH("path"),
+
+    /**
+     * The package of the unit, so that all units of a package are cleaned by the same shard.
+     */
+    PACKAGE("package");
+
+    private final String argument;
+
+    ShardKey(String argument) {
+        this.argument = argument;
+    }
+
+    public String getArgument() {
+        return argument;
+    }
+
+    public static ShardKey fromArgument(String value) {
+        for (ShardKey key : values()) {
+            if (key.argument.equalsIgnoreCase(value)) {
+                return key;
+            }
+        }
+        throw new IllegalArgumentException("Unknown shard key: " + value);
+    }
+}
@@ -0,0 +1,252 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line based diff of two versions of a file in the unified format of {@code git diff}, computed with the O(ND)
+ * algorithm of Myers between the common head and tail of the versions.
+ */
+final class UnifiedDiff {
+
+    static final int CONTEXT_LINES = 3;
+
+    private static final int MAX_EDIT_DISTANCE = 2048;
+    private static final String NO_NEWLINE = "\\ No newline at end of file\n";
+
+    private UnifiedDiff() {
+    }
+
+    /**
+     * @param path the path of the file relative to the root of the patch, with {@code /} separators
+     * @return the diff of the file, or an empty string if both versions are identical
+     */
+    static String diff(String path, String original, String revised) {
+        if (original.equals(revised)) {
+            return "";
+        }
+        List<String> a = splitLines(original);
+        List<String> b = splitLines(revised);
+        List<Edit> edits = compare(a, b);
+
+        StringBuilder out = new StringBuilder();
+        out.append("diff --git a/").append(path).append(" b/").append(path).append('\n');
+        out.append("--- a/").append(path).append('\n');
+        out.append("+++ b/").append(path).append('\n');
+
+        int start = 0;
+        while (start < edits.size()) {
+            // a hunk runs from the first change to the last change separated by at most twice the context
+            int first = start;
+            while (first < edits.size() && edits.get(first).type() == ' ') {
+                first++;
+            }
+            if (first == edits.size()) {
+                break;
+            }
+            int last = first;
+            int index = first;
+            while (index < edits.size()) {
+                if (edits.get(index).type() != ' ') {
+                    last = index;
+                } else if (index - last > 2 * CONTEXT_LINES) {
+                    break;
+                }
+                index++;
+            }
+            int from = Math.max(start, first - CONTEXT_LINES);
+            int to = Math.min(edits.size(), last + CONTEXT_LINES + 1);
+            appendHunk(out, edits.subList(from, to));
+            start = to;
+        }
+        return out.toString();
+    }
+
+    private static void appendHunk(StringBuilder out, List<Edit> hunk) {
+        int aStart = -1;
+        int bStart = -1;
+        int aCount = 0;
+        int bCount = 0;
+        for (Edit edit : hunk) {
+            if (edit.type() != '+') {
+                if (aStart < 0) {
+                    aStart = edit.aIndex();
+                }
+                aCount++;
+            }
+            if (edit.type() != '-') {
+                if (bStart < 0) {
+                    bStart = edit.bIndex();
+                }
+                bCount++;
+            }
+        }
+        // an empty range is written as the line before it, which is 0 at the start of the file
+        Edit head = hunk.get(0);
+        out.append("@@ -").append(range(aStart < 0 ? head.aIndex() : aStart + 1, aCount))
+                .append(" +").append(range(bStart < 0 ? head.bIndex() : bStart + 1, bCount)).append(" @@\n");
+
+        for (Edit edit : hunk) {
+            out.append(edit.type()).append(edit.line());
+            // only the last line of a version can lack a line terminator
+            if (!edit.line().endsWith("\n")) {
+                out.append('\n').append(NO_NEWLINE);
+            }
+        }
+    }
+
+    private static String range(int start, int count) {
+        return count == 1 ? Integer.toString(start) : start + "," + count;
+    }
+
+    /**
+     * Splits the text after each {@code \n}, keeping the line terminators so that a missing newline at the end of
+     * the file and changed line endings show up as differences.
+     */
+    static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                lines.add(text.substring(start));
+                break;
+            }
+            lines.add(text.substring(start, end + 1));
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    /**
+     * @return every line of both versions in order, as unchanged ({@code ' '}), removed ({@code '-'}) or added
+     *         ({@code '+'})
+     */
+    static List<Edit> compare(List<String> a, List<String> b) {
+        int prefix = 0;
+        while (prefix < a.size() && prefix < b.size() && a.get(prefix).equals(b.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < a.size() - prefix && suffix < b.size() - prefix
+                && a.get(a.size() - 1 - suffix).equals(b.get(b.size() - 1 - suffix))) {
+            suffix++;
+        }
+
+        List<Edit> edits = new ArrayList<>(Math.max(a.size(), b.size()) + 16);
+        for (int i = 0; i < prefix; i++) {
+            edits.add(new Edit(' ', a.get(i), i, i));
+        }
+        List<String> aMiddle = a.subList(prefix, a.size() - suffix);
+        List<String> bMiddle = b.subList(prefix, b.size() - suffix);
+        List<Edit> middle = myers(aMiddle, bMiddle);
+        if (middle == null) {
+            middle = replaceAll(aMiddle, bMiddle);
+        }
+        for (Edit edit : middle) {
+            edits.add(new Edit(edit.type(), edit.line(), edit.aIndex() + prefix, edit.bIndex() + prefix));
+        }
+        for (int i = suffix; i > 0; i--) {
+            edits.add(new Edit(' ', a.get(a.size() - i), a.size() - i, b.size() - i));
+        }
+        return edits;
+    }
+
+    private static List<Edit> replaceAll(List<String> a, List<String> b) {
+        List<Edit> edits = new ArrayList<>(a.size() + b.size());
+        for (int i = 0; i < a.size(); i++) {
+            edits.add(new Edit('-', a.get(i), i, 0));
+        }
+        for (int j = 0; j < b.size(); j++) {
+            edits.add(new Edit('+', b.get(j), a.size(), j));
+        }
+        return edits;
+    }
+
+    /**
+     * @return the shortest edit script, or {@code null} if it is longer than {@link #MAX_EDIT_DISTANCE}
+     */
+    private static List<Edit> myers(List<String> a, List<String> b) {
+        int n = a.size();
+        int m = b.size();
+        int max = Math.min(n + m, MAX_EDIT_DISTANCE);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        // the furthest reaching x of each diagonal after each step, only the diagonals reachable in d steps
+        List<int[]> trace = new ArrayList<>();
+
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k = k + 2) {
+                int x;
+                if (k == -d || k != d && v[offset + k - 1] < v[offset + k + 1]) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a.get(x).equals(b.get(y))) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+                    return backtrack(a, b, trace);
+                }
+            }
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+        }
+        return null;
+    }
+
+    private static List<Edit> backtrack(List<String> a, List<String> b, List<int[]> trace) {
+        List<Edit> reversed = new ArrayList<>();
+        int x = a.size();
+        int y = b.size();
+        for (int d = trace.size() - 1; d > 0; d--) {
+            int[] previous = trace.get(d - 1);
+            int k = x - y;
+            int previousK;
+            if (k == -d || k != d && furthest(previous, d - 1, k - 1) < furthest(previous, d - 1, k + 1)) {
+                previousK = k + 1;
+            } else {
+                previousK = k - 1;
+            }
+            int previousX = furthest(previous, d - 1, previousK);
+            int previousY = previousX - previousK;
+            while (x > previousX && y > previousY) {
+                x--;
+                y--;
+                reversed.add(new Edit(' ', a.get(x), x, y));
+            }
+            if (x == previousX) {
+                y--;
+                reversed.add(new Edit('+', b.get(y), x, y));
+            } else {
+                x--;
+                reversed.add(new Edit('-', a.get(x), x, y));
+            }
+        }
+        while (x > 0 && y > 0) {
+            x--;
+            y--;
+            reversed.add(new Edit(' ', a.get(x), x, y));
+        }
+        List<Edit> edits = new ArrayList<>(reversed.size());
+        for (int i = reversed.size() - 1; i >= 0; i--) {
+            edits.add(reversed.get(i));
+        }
+        return edits;
+    }
+
+    private static int furthest(int[] snapshot, int d, int k) {
+        return snapshot[k + d];
+    }
+
+    /**
+     * @param type {@code ' '}, {@code '-'} or {@code '+'}
+     */
+    record Edit(char type, String line, int aIndex, int bIndex) {
+    }
+}
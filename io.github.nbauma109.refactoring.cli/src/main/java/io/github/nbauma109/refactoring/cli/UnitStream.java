@@ -0,0 +1,104 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+
+/**
+ * Hands out the compilation units of a project in batches, opening packages only as their units are needed, and
+ * closes the units of a batch once it is released.
+ */
+final class UnitStream {
+
+    private final Deque<IPackageFragmentRoot> roots = new ArrayDeque<>();
+    private final Deque<IPackageFragment> fragments = new ArrayDeque<>();
+    private final Deque<ICompilationUnit> pending = new ArrayDeque<>();
+    private final List<IPackageFragment> drained = new ArrayList<>();
+    private IPackageFragment current;
+    private int batchSize;
+    private int visited;
+
+    UnitStream(IJavaProject javaProject, int batchSize) throws CoreException {
+        for (IPackageFragmentRoot root : javaProject.getPackageFragmentRoots()) {
+            if (root.getKind() == IPackageFragmentRoot.K_SOURCE) {
+                roots.add(root);
+            }
+        }
+        setBatchSize(batchSize);
+    }
+
+    void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the number of units handed out so far
+     */
+    int getVisited() {
+        return visited;
+    }
+
+    /**
+     * @return the next units in the order of {@code collectCompilationUnits}, at most the batch size, or an empty
+     *         list once every unit was handed out
+     */
+    List<ICompilationUnit> next() throws CoreException {
+        List<ICompilationUnit> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && fill()) {
+            batch.add(pending.poll());
+        }
+        visited = visited + batch.size();
+        return batch;
+    }
+
+    /**
+     * Closes the units of a batch that is done, and the packages whose units were all handed out.
+     */
+    void release(List<ICompilationUnit> batch) throws CoreException {
+        for (ICompilationUnit unit : batch) {
+            unit.close();
+        }
+        for (IPackageFragment fragment : drained) {
+            fragment.close();
+        }
+        drained.clear();
+    }
+
+    /**
+     * @return {@code false} if there is no unit left
+     */
+    private boolean fill() throws CoreException {
+        while (pending.isEmpty()) {
+            if (current != null) {
+                drained.add(current);
+                current = null;
+            }
+            if (!fragments.isEmpty()) {
+                current = fragments.poll();
+                Collections.addAll(pending, current.getCompilationUnits());
+            } else if (!roots.isEmpty()) {
+                for (IJavaElement child : roots.poll().getChildren()) {
+                    if (child instanceof IPackageFragment fragment) {
+                        fragments.add(fragment);
+                    }
+                }
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+}
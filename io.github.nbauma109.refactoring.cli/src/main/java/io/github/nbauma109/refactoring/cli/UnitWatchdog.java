@@ -0,0 +1,95 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.io.Closeable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.ProgressMonitorWrapper;
+
+/**
+ * Cancels the work on units that takes longer than {@code --unit-timeout}, through a monitor that reports itself
+ * as canceled once the deadline passed. Steps that do not check their monitor run to their end.
+ */
+final class UnitWatchdog implements Closeable {
+
+    private final long timeoutMillis;
+    private final CleanupLog log;
+    private ScheduledThreadPoolExecutor timer;
+
+    /**
+     * @param timeoutMillis the time allowed per unit, {@code 0} for no timeout
+     */
+    UnitWatchdog(long timeoutMillis, CleanupLog log) {
+        this.timeoutMillis = timeoutMillis;
+        this.log = log;
+    }
+
+    boolean isEnabled() {
+        return timeoutMillis > 0;
+    }
+
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Starts the deadline of work on the given number of units, which is allowed the timeout once per unit.
+     */
+    synchronized Watch watch(IProgressMonitor monitor, String description, int units) {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "unit-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.setRemoveOnCancelPolicy(true);
+        }
+        Watch watch = new Watch(monitor);
+        long deadline = timeoutMillis * Math.max(1, units);
+        watch.future = timer.schedule(() -> {
+            watch.expired = true;
+            log.info("Work on " + description + " exceeded " + deadline + " ms, canceling it.");
+        }, deadline, TimeUnit.MILLISECONDS);
+        return watch;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * A monitor canceled by the watchdog once its deadline passed. Closing it stops the deadline.
+     */
+    static final class Watch extends ProgressMonitorWrapper implements AutoCloseable {
+
+        private volatile boolean expired;
+        private ScheduledFuture<?> future;
+
+        private Watch(IProgressMonitor monitor) {
+            super(monitor);
+        }
+
+        /**
+         * @return whether the deadline passed, as opposed to a cancellation requested by the wrapped monitor
+         */
+        boolean isExpired() {
+            return expired;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return expired || super.isCanceled();
+        }
+
+        @Override
+        public void close() {
+            future.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.nbauma109.refactoring.cli;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+
+/**
+ * Keeps the workspace in sync with the files written by performed changes and accounts for the time spent doing
+ * so.
+ */
+class WorkspaceRefresher {
+
+    private final IProject project;
+    private final IJavaProject javaProject;
+    private final RefreshMode refreshMode;
+    private final ArchiveRefreshMode archiveRefreshMode;
+    private final CleanupLog log;
+
+    private long fullRefreshNanos = -1;
+    private long archiveRefreshNanos;
+    private long refreshNanos;
+    private int changes;
+    private int effectiveChanges;
+    private int touchedFiles;
+    private int archiveRefreshes;
+    private boolean passChanged;
+    private boolean runChanged;
+
+    WorkspaceRefresher(IProject project, IJavaProject javaProject, RefreshMode refreshMode,
+            ArchiveRefreshMode archiveRefreshMode, CleanupLog log) {
+        this.project = project;
+        this.javaProject = javaProject;
+        this.refreshMode = refreshMode;
+        this.archiveRefreshMode = archiveRefreshMode;
+        this.log = log;
+    }
+
+    void refreshProject(IProgressMonitor monitor) throws CoreException {
+        long start = System.nanoTime();
+        project.refreshLocal(IResource.DEPTH_INFINITE, monitor);
+        fullRefreshNanos = System.nanoTime() - start;
+    }
+
+    void changePerformed(Collection<IFile> files, IProgressMonitor monitor) throws CoreException {
+        changes = changes + 1;
+
+        long start = System.nanoTime();
+        if (refreshMode == RefreshMode.FULL) {
+            project.refreshLocal(IResource.DEPTH_INFINITE, monitor);
+        } else {
+            for (IFile file : files) {
+                file.refreshLocal(IResource.DEPTH_ZERO, monitor);
+            }
+        }
+        refreshNanos = refreshNanos + (System.nanoTime() - start);
+        touchedFiles = touchedFiles + files.size();
+
+        if (files.isEmpty()) {
+            return;
+        }
+
+        effectiveChanges = effectiveChanges + 1;
+        passChanged = true;
+        runChanged = true;
+        if (archiveRefreshMode == ArchiveRefreshMode.CHANGE) {
+            refreshExternalArchives(monitor);
+        }
+    }
+
+    void passFinished(IProgressMonitor monitor) throws CoreException {
+        if (passChanged && archiveRefreshMode == ArchiveRefreshMode.PASS) {
+            refreshExternalArchives(monitor);
+        }
+        passChanged = false;
+    }
+
+    void runFinished(IProgressMonitor monitor) throws CoreException {
+        passFinished(monitor);
+        if (runChanged && archiveRefreshMode == ArchiveRefreshMode.RUN) {
+            refreshExternalArchives(monitor);
+        }
+    }
+
+    private void refreshExternalArchives(IProgressMonitor monitor) throws CoreException {
+        long start = System.nanoTime();
+        javaProject.getJavaModel().refreshExternalArchives(
+                new IJavaElement[] { javaProject },
+                monitor
+        );
+        long elapsed = System.nanoTime() - start;
+        refreshNanos = refreshNanos + elapsed;
+        archiveRefreshNanos = archiveRefreshNanos + elapsed;
+        archiveRefreshes = archiveRefreshes + 1;
+    }
+
+    /**
+     * Prints the time spent refreshing and an estimate of the time saved compared with refreshing after every change.
+     */
+    void printSummary() {
+        log.info("Refresh: " + refreshMode.getArgument() + " after " + changes + " changes ("
+                + touchedFiles + " files), external archives refreshed " + archiveRefreshes + " time(s) per "
+                + archiveRefreshMode.getArgument() + ", " + TimeUnit.NANOSECONDS.toMillis(refreshNanos) + " ms total.");
+
+        if (fullRefreshNanos < 0 || refreshMode == RefreshMode.FULL && archiveRefreshMode == ArchiveRefreshMode.CHANGE) {
+            return;
+        }
+
+        long legacyNanos = changes * fullRefreshNanos;
+        long archiveAverageNanos = archiveRefreshes == 0 ? -1 : archiveRefreshNanos / archiveRefreshes;
+        if (archiveAverageNanos >= 0) {
+            legacyNanos = legacyNanos + effectiveChanges * archiveAverageNanos;
+        }
+        long savedMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, legacyNanos - refreshNanos));
+        log.info("Refresh: estimated " + savedMillis + " ms saved compared with a full refresh ("
+                + TimeUnit.NANOSECONDS.toMillis(fullRefreshNanos) + " ms each) after every change"
+                + (archiveAverageNanos < 0 ? "." : " and an external archive refresh ("
+                        + TimeUnit.NANOSECONDS.toMillis(archiveAverageNanos) + " ms each) after every modifying change."));
+    }
+}